@@ -0,0 +1,73 @@
+import com.ai.chat.ChatApplication;
+import com.ai.chat.entities.ChatMessage;
+import com.ai.chat.entities.ChatSession;
+import com.ai.chat.store.ChatHistoryStore;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Append and tail-read throughput of a ChatHistoryStore, run through bench/store.sh.
+ *
+ *   java -cp CLASSPATH bench/ChatHistoryStoreBench.java jpa|log [sessions] [turns] [reads]
+ *
+ * Appends {@code turns} user/assistant pairs to each of {@code sessions} new sessions the way the
+ * provider clients do, then reads the last 12 messages (the SessionHistory window) of random sessions.
+ */
+public class ChatHistoryStoreBench {
+
+    public static void main(String[] args) {
+        String type = args.length > 0 ? args[0] : "log";
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int turns = args.length > 2 ? Integer.parseInt(args[2]) : 25;
+        int reads = args.length > 3 ? Integer.parseInt(args[3]) : 20_000;
+
+        List<String> properties = new ArrayList<>(List.of("--server.port=0", "--spring.jpa.show-sql=false"));
+        if ("log".equals(type)) {
+            properties.add("--spring.profiles.active=local-store");
+            properties.add("--chat.store.log.directory=" + System.getProperty("java.io.tmpdir")
+                    + "/chat-log-bench-" + System.nanoTime());
+        }
+
+        try (ConfigurableApplicationContext context =
+                     SpringApplication.run(ChatApplication.class, properties.toArray(String[]::new))) {
+            ChatHistoryStore store = context.getBean(ChatHistoryStore.class);
+            String content = "x".repeat(400);
+
+            List<ChatSession> created = new ArrayList<>(sessions);
+            long start = System.nanoTime();
+            for (int s = 0; s < sessions; s++) {
+                created.add(store.createSession("bench-user-" + (s % 20), "bench"));
+            }
+            for (int t = 0; t < turns; t++) {
+                for (ChatSession session : created) {
+                    store.append(session, List.of(
+                            ChatMessage.builder().role("user").content(content).build(),
+                            ChatMessage.builder().role("assistant").content(content).build()));
+                }
+            }
+            report(type, "append", sessions * turns * 2L, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            long read = 0;
+            for (int r = 0; r < reads; r++) {
+                ChatSession session = created.get(ThreadLocalRandom.current().nextInt(created.size()));
+                read += store.tail(session.getSessionId(), 12).size();
+            }
+            report(type, "tail(12)", read, System.nanoTime() - start);
+
+            for (ChatSession session : created) {
+                store.deleteSession(session.getUserId(), session.getSessionId());
+            }
+        }
+    }
+
+    private static void report(String type, String operation, long messages, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%s %-8s %,d messages in %.2f s: %,.0f messages/s%n",
+                type, operation, messages, seconds, messages / seconds);
+    }
+}
@@ -0,0 +1,127 @@
+-- Query plan / latency benchmark for the chat repository queries, before and after V2/V3.
+--
+--   psql -d AI_CHAT_DB -v users=2000 -v sessions=20 -v messages=60 -f bench/chat_tables_bench.sql > bench_output.txt
+--
+-- Everything is generated into a throw-away "chat_bench" schema; the ai_chat schema is not touched.
+-- "before" mirrors the ddl-auto=update tables (no secondary indexes), "after" mirrors the migrations.
+
+\set ON_ERROR_STOP on
+\if :{?users}
+\else
+\set users 2000
+\endif
+\if :{?sessions}
+\else
+\set sessions 20
+\endif
+\if :{?messages}
+\else
+\set messages 60
+\endif
+
+DROP SCHEMA IF EXISTS chat_bench CASCADE;
+CREATE SCHEMA chat_bench;
+
+-- before -----------------------------------------------------------------------------------------
+CREATE TABLE chat_bench.session_before
+(
+    session_id   BIGINT PRIMARY KEY,
+    user_id      VARCHAR(255),
+    user_name    VARCHAR(255),
+    title        VARCHAR(255),
+    created_date TIMESTAMP(6)
+);
+
+CREATE TABLE chat_bench.message_before
+(
+    message_id   BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    role         VARCHAR(255),
+    content      TEXT,
+    created_date TIMESTAMP(6),
+    session_id   BIGINT REFERENCES chat_bench.session_before (session_id)
+);
+
+INSERT INTO chat_bench.session_before
+SELECT s,
+       'user-' || (s % :users),
+       'bench',
+       'Session ' || s,
+       now() - (random() * INTERVAL '365 days')
+FROM generate_series(1, :users * :sessions) s;
+
+INSERT INTO chat_bench.message_before (role, content, created_date, session_id)
+SELECT CASE WHEN m % 2 = 0 THEN 'user' ELSE 'assistant' END,
+       repeat('lorem ipsum ', 20),
+       s.created_date + m * INTERVAL '30 seconds',
+       s.session_id
+FROM chat_bench.session_before s,
+     generate_series(1, :messages) m;
+
+-- after ------------------------------------------------------------------------------------------
+CREATE TABLE chat_bench.session_after (LIKE chat_bench.session_before INCLUDING ALL);
+INSERT INTO chat_bench.session_after SELECT * FROM chat_bench.session_before;
+CREATE INDEX ON chat_bench.session_after (user_id, created_date DESC);
+
+CREATE TABLE chat_bench.message_after
+(
+    message_id   BIGINT       NOT NULL,
+    role         VARCHAR(255),
+    content      TEXT,
+    created_date TIMESTAMP(6) NOT NULL,
+    session_id   BIGINT REFERENCES chat_bench.session_after (session_id),
+    PRIMARY KEY (message_id, created_date)
+) PARTITION BY RANGE (created_date);
+
+DO
+$$
+    DECLARE
+        v_month DATE;
+    BEGIN
+        FOR v_month IN
+            SELECT generate_series(date_trunc('month', (SELECT min(created_date) FROM chat_bench.message_before)),
+                                   date_trunc('month', (SELECT max(created_date) FROM chat_bench.message_before)),
+                                   INTERVAL '1 month')::DATE
+            LOOP
+                EXECUTE format('CREATE TABLE chat_bench.%I PARTITION OF chat_bench.message_after FOR VALUES FROM (%L) TO (%L)',
+                               'message_after_' || to_char(v_month, 'YYYYMM'), v_month, v_month + INTERVAL '1 month');
+            END LOOP;
+    END
+$$;
+
+INSERT INTO chat_bench.message_after SELECT * FROM chat_bench.message_before;
+CREATE INDEX ON chat_bench.message_after (session_id, created_date);
+
+VACUUM ANALYZE chat_bench.session_before;
+VACUUM ANALYZE chat_bench.message_before;
+VACUUM ANALYZE chat_bench.session_after;
+VACUUM ANALYZE chat_bench.message_after;
+
+SELECT (random() * :users)::INT AS bench_user \gset
+SELECT session_id AS bench_session FROM chat_bench.session_before WHERE user_id = 'user-' || :bench_user LIMIT 1 \gset
+
+\timing on
+
+\echo '== findByUserIdOrderByCreatedDateDesc (before)'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT * FROM chat_bench.session_before WHERE user_id = 'user-' || :bench_user ORDER BY created_date DESC;
+\echo '== findByUserIdOrderByCreatedDateDesc (after)'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT * FROM chat_bench.session_after WHERE user_id = 'user-' || :bench_user ORDER BY created_date DESC;
+
+\echo '== findTopByUserIdAndSessionId (before)'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT * FROM chat_bench.session_before WHERE user_id = 'user-' || :bench_user AND session_id = :bench_session LIMIT 1;
+\echo '== findTopByUserIdAndSessionId (after)'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT * FROM chat_bench.session_after WHERE user_id = 'user-' || :bench_user AND session_id = :bench_session LIMIT 1;
+
+\echo '== findBySession_SessionIdOrderByCreatedDateAsc (before)'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT * FROM chat_bench.message_before WHERE session_id = :bench_session ORDER BY created_date;
+\echo '== findBySession_SessionIdOrderByCreatedDateAsc (after)'
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT * FROM chat_bench.message_after WHERE session_id = :bench_session ORDER BY created_date;
+
+\timing off
+
+DROP SCHEMA chat_bench CASCADE;
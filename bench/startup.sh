@@ -0,0 +1,48 @@
+#!/usr/bin/env bash
+# Time-to-first-request for the plain jar versus the startup-optimized (AOT + CDS) build.
+#
+#   mvn -DskipTests package && cp target/Ai-Chat.jar target/Ai-Chat-plain.jar
+#   mvn -Pstartup -DskipTests package
+#   TOKEN=<access token> bench/startup.sh [runs]
+#
+# Needs the database from application.yaml and the auth service on localhost:8081 (for its JWK set)
+# to be reachable, and an access token from it valid for the whole benchmark. Each run starts the
+# app, polls an authenticated /v1/api/loadSessions until it answers 200 and reports the wall time
+# from launch: token validation, the JWK set fetch and a database query, not just a static file.
+set -euo pipefail
+
+RUNS=${1:-5}
+PORT=${PORT:-8080}
+URL="http://localhost:${PORT}/v1/api/loadSessions"
+: "${TOKEN:?set TOKEN to an access token from the auth service}"
+TARGET=$(cd "$(dirname "$0")/../target" && pwd)
+
+measure() {
+  local label=$1; shift
+  local total=0
+  for ((i = 1; i <= RUNS; i++)); do
+    local start end pid
+    start=$(date +%s%N)
+    "$@" --server.port="${PORT}" >/dev/null 2>&1 &
+    pid=$!
+    until curl -sf -o /dev/null -H "Authorization: Bearer ${TOKEN}" "${URL}"; do
+      # A rejected token would otherwise poll forever
+      kill -0 "${pid}" 2>/dev/null || { echo "${label} run ${i}: the app exited" >&2; exit 1; }
+      if (($(date +%s%N) - start > 120000000000)); then
+        echo "${label} run ${i}: no 200 from ${URL} within 120 s, is TOKEN valid?" >&2
+        kill "${pid}"; exit 1
+      fi
+      sleep 0.02
+    done
+    end=$(date +%s%N)
+    kill "${pid}" && wait "${pid}" 2>/dev/null || true
+    local ms=$(((end - start) / 1000000))
+    total=$((total + ms))
+    echo "${label} run ${i}: ${ms} ms"
+  done
+  echo "${label} average: $((total / RUNS)) ms"
+}
+
+measure plain java -jar "${TARGET}/Ai-Chat-plain.jar"
+measure startup java -XX:SharedArchiveFile="${TARGET}/app/application.jsa" -Dspring.aot.enabled=true \
+  -jar "${TARGET}/app/Ai-Chat.jar" --spring.profiles.active=startup
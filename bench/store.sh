@@ -0,0 +1,15 @@
+#!/usr/bin/env bash
+# Append and tail-read throughput of the jpa store against the local log store.
+#
+#   bench/store.sh [sessions] [turns] [reads]
+#
+# The jpa run needs the database from application.yaml; the log run writes to a temp directory.
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+mvn -q -DskipTests compile
+CP="target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)"
+
+for type in log jpa; do
+  java -cp "${CP}" bench/ChatHistoryStoreBench.java "${type}" "$@" 2>/dev/null | grep -E "^${type} "
+done
@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The static-assets build step in pom.xml, run on the static directory of the build output.
+ *
+ *   java src/build/StaticAssets.java target/classes/static
+ *
+ * Every css and js file gets the MD5 of its content in its name, {@code chat.css} becomes
+ * {@code chat-<md5>.css}, and the pages are rewritten to reference the new names. Every page,
+ * stylesheet and script then gets a .gz sibling.
+ */
+public class StaticAssets {
+
+    public static void main(String[] args) throws Exception {
+        Path root = Path.of(args[0]);
+
+        // "/css/chat.css" to "/css/chat-<md5>.css"
+        Map<String, String> renamed = new TreeMap<>();
+        for (Path file : files(root, ".css", ".js")) {
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            String md5 = HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(Files.readAllBytes(file)));
+            Path target = file.resolveSibling(name.substring(0, dot) + "-" + md5 + name.substring(dot));
+            Files.move(file, target);
+            renamed.put(url(root, file), url(root, target));
+        }
+
+        for (Path page : files(root, ".html")) {
+            String html = Files.readString(page, StandardCharsets.UTF_8);
+            for (Map.Entry<String, String> name : renamed.entrySet()) {
+                // With the closing quote, so /js/chat.js does not also match /js/chat.js.map
+                html = html.replace(name.getKey() + "\"", name.getValue() + "\"");
+            }
+            Files.writeString(page, html, StandardCharsets.UTF_8);
+        }
+
+        for (Path file : files(root, ".html", ".css", ".js")) {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file.resolveSibling(file.getFileName() + ".gz")))) {
+                Files.copy(file, out);
+            }
+        }
+    }
+
+    private static List<Path> files(Path root, String... extensions) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> Stream.of(extensions).anyMatch(file.getFileName().toString()::endsWith))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static String url(Path root, Path file) {
+        return "/" + root.relativize(file).toString().replace('\\', '/');
+    }
+}
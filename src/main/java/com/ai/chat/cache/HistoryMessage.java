@@ -0,0 +1,166 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.dto.ChatMessageDto;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * One cached message of a session, and the branch of the conversation ending at it. Every message
+ * points to the one it follows, so the branches of a session form persistent lists read from the
+ * tip back: an edited prompt or a regenerated answer shares every message before it with its
+ * siblings, nothing is copied. Serialized to the UI as {role, content, seq, parentSeq}; the request
+ * body fragments encoded for each provider are kept alongside so they are built only once, for all
+ * branches.
+ */
+public class HistoryMessage {
+
+    @Getter
+    private final String role;
+
+    @Getter
+    private final String content;
+
+    // Null for the first message of the session, for the start of a branch loaded only in part or
+    // cut off by the cache. Moves back past messages before it that are never stored
+    private volatile HistoryMessage parent;
+
+    // Used while parent is null, 0 for the first message of the session
+    private volatile long parentSeq;
+
+    // Assigned when the message is stored, see SessionHistory.persist
+    private final CompletableFuture<Long> seq = new CompletableFuture<>();
+
+    private final Map<String, byte[]> encoded = new ConcurrentHashMap<>(2);
+
+    public HistoryMessage(String role, String content) {
+        this(role, content, null, 0);
+    }
+
+    private HistoryMessage(String role, String content, HistoryMessage parent, long parentSeq) {
+        this.role = role;
+        this.content = content;
+        this.parent = parent;
+        this.parentSeq = parentSeq;
+    }
+
+    static HistoryMessage stored(ChatMessageDto message, HistoryMessage parent) {
+        HistoryMessage stored = new HistoryMessage(message.getRole(), message.getContent(), parent, message.getParentSeq());
+        stored.seq.complete(message.getSeq());
+        return stored;
+    }
+
+    /**
+     * A new message following this one. This one and its branch are left as they are.
+     */
+    public HistoryMessage reply(String role, String content) {
+        return new HistoryMessage(role, content, this, 0);
+    }
+
+    public HistoryMessage parent() {
+        return parent;
+    }
+
+    /**
+     * @return the last {@code limit} messages of the branch ending here, oldest first
+     */
+    public List<HistoryMessage> branch(int limit) {
+        List<HistoryMessage> branch = new ArrayList<>(Math.min(limit, 16));
+        for (HistoryMessage message = this; message != null && branch.size() < limit; message = message.parent) {
+            branch.add(message);
+        }
+        Collections.reverse(branch);
+        return branch;
+    }
+
+    /**
+     * @return the sequence number, null until the message is stored or if it never will be
+     */
+    public Long getSeq() {
+        return seq.isCompletedExceptionally() ? null : seq.getNow(null);
+    }
+
+    /**
+     * @return the sequence number of the message this one follows, 0 for none, null until that
+     * message is stored
+     */
+    public Long getParentSeq() {
+        HistoryMessage parent = this.parent;
+        return parent != null ? parent.getSeq() : parentSeq;
+    }
+
+    public ChatMessageDto toDto() {
+        return new ChatMessageDto(role, content, null, getSeq(), getParentSeq());
+    }
+
+    public byte[] encoded(String provider, Function<HistoryMessage, byte[]> encoder) {
+        return encoded.computeIfAbsent(provider, p -> encoder.apply(this));
+    }
+
+    // The cache keeps this message, not the ones before it; they are read from the store again when needed
+    void detach() {
+        HistoryMessage parent = this.parent;
+        if (parent == null) return;
+        Long parentSeq = parent.getSeq();
+        if (parentSeq == null) return;
+        this.parentSeq = parentSeq;
+        this.parent = null;
+    }
+
+    // The start of a partly loaded branch meets the message before it
+    void link(HistoryMessage parent) {
+        if (this.parent == null && parentSeq != 0 && Long.valueOf(parentSeq).equals(parent.getSeq())) this.parent = parent;
+    }
+
+    void stored(long seq) {
+        this.seq.complete(seq);
+    }
+
+    void failed(Throwable e) {
+        this.seq.completeExceptionally(e);
+    }
+
+    boolean isDropped() {
+        return seq.isCompletedExceptionally();
+    }
+
+    /**
+     * Waits for the message this one follows to be stored, the turn before may still be appending.
+     * Messages before it that are never stored are skipped, this one then follows the last one that
+     * was, in the cache too.
+     */
+    long awaitParentSeq(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        HistoryMessage oldest = this;
+        for (HistoryMessage parent = this.parent; parent != null; oldest = parent, parent = parent.parent) {
+            try {
+                long parentSeq = parent.seq.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                this.parent = parent;
+                return parentSeq;
+            } catch (ExecutionException e) {
+                // Never stored, try the one before it
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("The message before was not stored within " + timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for the message before", e);
+            }
+        }
+        // None was stored: this one follows whatever the oldest of them followed
+        if (oldest != this) {
+            parentSeq = oldest.parentSeq;
+            parent = null;
+        }
+        return parentSeq;
+    }
+}
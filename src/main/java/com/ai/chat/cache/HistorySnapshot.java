@@ -0,0 +1,305 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.dto.ChatMessageDto;
+import com.ai.chat.store.ChatHistoryStore;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes the {@link SessionHistory} windows to a snapshot file on shutdown and every
+ * {@code chat.history-snapshot.interval}, so a restarted node does not load every active session
+ * from the database at once.
+ * <p>
+ * File: {@code [magic:4][version:4][crc32c:4][count:4][bodyLength:8]} followed by one entry per
+ * session, {@code [userId][sessionId:8][seq:8][messages:4]([seq:8][parentSeq:8][role][content])*},
+ * the window of its active branch, strings as {@code [length:4][utf8]}. The file is memory mapped
+ * and only indexed on first use; an entry is decoded when its session is first asked for, and only
+ * served if the session's last sequence number still equals the one written with it. Anything
+ * else, e.g. a session that got new messages from another node, is loaded from the store as before.
+ */
+@Slf4j
+@Component
+public class HistorySnapshot {
+
+    private static final int MAGIC = 0x43485348;
+    // 2 added the message and parent sequence numbers
+    private static final int VERSION = 2;
+    private static final int HEADER = 24;
+
+    private final ChatHistoryStore chatHistoryStore;
+    private final ChatProperties.HistorySnapshot properties;
+    private final Path path;
+
+    private volatile ScheduledExecutorService writer;
+    private final Object writeLock = new Object();
+
+    private boolean loaded;
+    private ByteBuffer mapped;
+    // Entries not asked for yet, by SessionHistory key
+    private final Map<String, Slice> pending = new HashMap<>();
+
+    public HistorySnapshot(ChatHistoryStore chatHistoryStore, ChatProperties chatProperties) {
+        this.chatHistoryStore = chatHistoryStore;
+        this.properties = chatProperties.getHistorySnapshot();
+        this.path = Path.of(properties.getPath());
+    }
+
+    /**
+     * The history written for the session, or null if there is none or it is out of date.
+     * Each entry is handed out once.
+     */
+    public List<ChatMessageDto> restore(String userId, Long sessionId) {
+        if (!properties.isEnabled()) return null;
+
+        ByteBuffer entry;
+        synchronized (this) {
+            load();
+            Slice slice = pending.remove(SessionHistory.key(userId, sessionId));
+            if (slice == null) return null;
+            entry = mapped.slice(slice.offset(), slice.length());
+            // The last entry handed out, the mapping can go
+            if (pending.isEmpty()) mapped = null;
+        }
+
+        readString(entry);
+        entry.getLong();
+        long seq = entry.getLong();
+        int count = entry.getInt();
+        List<ChatMessageDto> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long messageSeq = entry.getLong();
+            long parentSeq = entry.getLong();
+            messages.add(new ChatMessageDto(readString(entry), readString(entry), null, messageSeq, parentSeq));
+        }
+
+        Optional<Long> current = chatHistoryStore.lastSeq(userId, sessionId);
+        return current.isPresent() && current.get() == seq ? messages : null;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!properties.isEnabled() || writer != null) return;
+
+        // Its own thread, a write may query tens of thousands of sessions and must not hold up the
+        // @Scheduled jobs sharing the scheduler thread
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getInterval().toMillis();
+        writer.scheduleWithFixedDelay(this::write, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // Not synchronized, a write in progress holds writeLock until it is done
+    @PreDestroy
+    public void stop() {
+        ScheduledExecutorService writer = this.writer;
+        if (writer != null) writer.shutdown();
+        write();
+    }
+
+    public void write() {
+        if (!properties.isEnabled()) return;
+
+        synchronized (writeLock) {
+            // restore() shares this monitor, so only the index of the previous snapshot is copied under
+            // it; the store query and the file write run without it
+            ByteBuffer previous;
+            Map<String, Slice> unread;
+            synchronized (this) {
+                load();
+                previous = mapped;
+                unread = new HashMap<>(pending);
+            }
+
+            List<SessionHistory.Cached> windows = new ArrayList<>();
+            for (SessionHistory.Cached cached : SessionHistory.cached(properties.getMaxSessions())) {
+                List<HistoryMessage> messages = cached.messages();
+                // A turn in flight, its messages are not stored yet and may never be
+                if (messages.isEmpty() || messages.stream().anyMatch(message -> message.getSeq() == null)) continue;
+                windows.add(cached);
+            }
+
+            Map<Long, Long> seqs;
+            try {
+                // Read after the messages: an answer stored in between makes the entry stale, never wrong
+                seqs = chatHistoryStore.lastSeqs(windows.stream().map(SessionHistory.Cached::sessionId).toList());
+            } catch (RuntimeException e) {
+                log.warn("Writing the session history snapshot failed: {}", e.getMessage());
+                return;
+            }
+
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try {
+                if (path.getParent() != null) Files.createDirectories(path.getParent());
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+                    Body body = new Body(channel);
+                    Set<String> written = new HashSet<>();
+                    for (SessionHistory.Cached cached : windows) {
+                        Long seq = seqs.get(cached.sessionId());
+                        if (seq == null) continue;
+                        if (!body.add(ByteBuffer.wrap(entry(cached.userId(), cached.sessionId(), seq, cached.messages())))) break;
+                        written.add(SessionHistory.key(cached.userId(), cached.sessionId()));
+                    }
+                    // Entries of the previous snapshot nobody asked for yet, they are checked when they are
+                    for (Map.Entry<String, Slice> entry : unread.entrySet()) {
+                        if (body.count >= properties.getMaxSessions()) break;
+                        if (written.contains(entry.getKey())) continue;
+                        if (!body.add(previous.slice(entry.getValue().offset(), entry.getValue().length()))) break;
+                    }
+
+                    ByteBuffer header = ByteBuffer.allocate(HEADER)
+                            .putInt(MAGIC)
+                            .putInt(VERSION)
+                            .putInt((int) body.crc.getValue())
+                            .putInt(body.count)
+                            .putLong(body.length)
+                            .flip();
+                    while (header.hasRemaining()) channel.write(header, header.position());
+                    channel.force(true);
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Writing the session history snapshot failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Indexes the snapshot left by the previous run, once
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!Files.exists(path)) return;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+                log.warn("Session history snapshot {} is not a snapshot, ignoring it", path);
+                return;
+            }
+            if (buffer.getInt(4) != VERSION) {
+                log.warn("Session history snapshot {} has version {}, ignoring it", path, buffer.getInt(4));
+                return;
+            }
+            long bodyLength = buffer.getLong(16);
+            if (bodyLength != buffer.capacity() - HEADER) {
+                log.warn("Session history snapshot {} is truncated, ignoring it", path);
+                return;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(HEADER, (int) bodyLength));
+            if ((int) crc.getValue() != buffer.getInt(8)) {
+                log.warn("Session history snapshot {} fails its checksum, ignoring it", path);
+                return;
+            }
+
+            int count = buffer.getInt(12);
+            ByteBuffer body = buffer.duplicate().position(HEADER);
+            for (int i = 0; i < count; i++) {
+                int offset = body.position();
+                String userId = readString(body);
+                long sessionId = body.getLong();
+                body.getLong();
+                int messages = body.getInt();
+                for (int m = 0; m < messages; m++) {
+                    body.position(body.position() + 8 + 8);
+                    skipString(body);
+                    skipString(body);
+                }
+                pending.put(SessionHistory.key(userId, sessionId), new Slice(offset, body.position() - offset));
+            }
+            mapped = buffer;
+            log.info("Session history snapshot loaded: {} sessions", count);
+        } catch (IOException | RuntimeException e) {
+            pending.clear();
+            log.warn("Reading the session history snapshot failed: {}", e.getMessage());
+        }
+    }
+
+    private static byte[] entry(String userId, Long sessionId, long seq, List<HistoryMessage> messages) {
+        List<byte[]> strings = new ArrayList<>(1 + 2 * messages.size());
+        strings.add(userId.getBytes(StandardCharsets.UTF_8));
+        for (HistoryMessage message : messages) {
+            strings.add(message.getRole().getBytes(StandardCharsets.UTF_8));
+            strings.add(message.getContent().getBytes(StandardCharsets.UTF_8));
+        }
+        int size = 8 + 8 + 4 + messages.size() * (8 + 8);
+        for (byte[] string : strings) size += 4 + string.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        putString(buffer, strings.getFirst());
+        buffer.putLong(sessionId).putLong(seq).putInt(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            buffer.putLong(messages.get(i).getSeq()).putLong(messages.get(i).getParentSeq());
+            putString(buffer, strings.get(1 + 2 * i));
+            putString(buffer, strings.get(2 + 2 * i));
+        }
+        return buffer.array();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putInt(value.length).put(value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        buffer.position(buffer.position() + length);
+    }
+
+    private record Slice(int offset, int length) {
+    }
+
+    // Entries streamed to the snapshot file after the header, which is written last
+    private static final class Body {
+
+        // load() maps the whole file at once
+        private static final long MAX_LENGTH = Integer.MAX_VALUE - HEADER;
+
+        private final FileChannel channel;
+        private final CRC32C crc = new CRC32C();
+        private int count;
+        private long length;
+
+        private Body(FileChannel channel) throws IOException {
+            this.channel = channel;
+            channel.position(HEADER);
+        }
+
+        // False once the entry no longer fits
+        private boolean add(ByteBuffer entry) throws IOException {
+            if (length + entry.remaining() > MAX_LENGTH) return false;
+            crc.update(entry.duplicate());
+            length += entry.remaining();
+            count++;
+            while (entry.hasRemaining()) channel.write(entry);
+            return true;
+        }
+    }
+}
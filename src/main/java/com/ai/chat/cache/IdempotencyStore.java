@@ -0,0 +1,98 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.config.ChatProperties;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import tools.jackson.databind.ObjectMapper;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Collapses repeated submissions carrying the same Idempotency-Key. The first request starts the
+ * work; duplicates within the TTL attach to it while it is still streaming, or get the stored
+ * frames replayed once it has finished. A key reused with a different request body is answered with
+ * 422. The work is cancelled once no caller is left, and failed or cancelled work is forgotten so it
+ * can be retried, as is a response longer than {@code max-replay-frames}.
+ */
+@Component
+public class IdempotencyStore {
+
+    private final ChatProperties.Idempotency properties;
+    private final Map<String, Entry> entries;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public IdempotencyStore(ChatProperties chatProperties) {
+        this.properties = chatProperties.getIdempotency();
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > properties.getMaxEntries() || eldest.getValue().isExpired();
+            }
+        });
+    }
+
+    /**
+     * @param request the request body, a repeated key must come with an equal one
+     */
+    public Flux<String> execute(String userId, String idempotencyKey, Object request, Supplier<Flux<String>> work) {
+        String id = userId + ":" + idempotencyKey;
+        byte[] requestHash = hash(request);
+        synchronized (entries) {
+            Entry entry = entries.get(id);
+            if (entry != null && !entry.isExpired()) {
+                if (!Arrays.equals(entry.requestHash, requestHash)) {
+                    return Flux.error(new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                            "Idempotency-Key was used with a different request"));
+                }
+                return entry.response;
+            }
+
+            Entry created = new Entry(requestHash, System.nanoTime() + properties.getTtl().toNanos());
+            int maxFrames = properties.getMaxReplayFrames();
+            AtomicInteger frames = new AtomicInteger();
+            // A caller attaching later could only be replayed the tail of a longer response
+            created.response = Flux.defer(work)
+                    .doOnNext(frame -> {
+                        if (frames.incrementAndGet() > maxFrames) entries.remove(id, created);
+                    })
+                    .doOnError(e -> entries.remove(id, created))
+                    .doOnCancel(() -> entries.remove(id, created))
+                    .replay(maxFrames)
+                    .refCount(1);
+            entries.put(id, created);
+            return created.response;
+        }
+    }
+
+    private byte[] hash(Object request) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(mapper.writeValueAsBytes(request));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] requestHash;
+        private final long expiresAt;
+        private Flux<String> response;
+
+        private Entry(byte[] requestHash, long expiresAt) {
+            this.requestHash = requestHash;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - expiresAt > 0;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.utils.ChatFrames;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Lets other tabs and devices of a session's owner watch its turns while they stream. The turn's
+ * own stream is the only subscriber of the provider; every frame it emits is also copied into a
+ * replay sink, so a viewer that joins mid-answer first gets the frames it missed and then follows
+ * live. Each viewer drains the sink at its own pace, a slow viewer never holds back the turn.
+ */
+@Component
+public class LiveSessions {
+
+    // A cancel can race the last frame of a turn, and two tabs can start turns at once
+    private static final Sinks.EmitFailureHandler RETRY_CONCURRENT = Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100));
+
+    private final Map<Long, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * @param toFrame turns an element of {@code source} into an SSE frame for the viewers
+     * @return {@code source}, unchanged for its own subscriber
+     */
+    public <T> Flux<T> publish(Long sessionId, String prompt, Flux<T> source, Function<T, String> toFrame) {
+        return Flux.defer(() -> {
+            Turn turn = new Turn();
+            turn.emit(ChatFrames.prompt(prompt));
+            Channel channel = channels.compute(sessionId, (k, current) -> {
+                Channel started = current == null ? new Channel() : current;
+                // Under the map lock, so a sweep cannot drop the channel in between
+                started.latest = turn;
+                return started;
+            });
+            channel.turns.emitNext(turn, RETRY_CONCURRENT);
+
+            return source
+                    .doOnNext(element -> {
+                        String frame = toFrame.apply(element);
+                        if (!ChatFrames.DONE.equals(frame)) turn.emit(frame);
+                    })
+                    .doOnComplete(() -> turn.finish(ChatFrames.DONE))
+                    .doOnError(e -> turn.finish(ChatFrames.error(String.valueOf(e.getMessage()))))
+                    .doOnCancel(() -> turn.finish(ChatFrames.error("cancelled")));
+        });
+    }
+
+    /**
+     * Frames of the session's turn in progress, if any, and of every turn started later.
+     * Never completes on its own. The caller checks that the session belongs to the viewer.
+     */
+    public Flux<String> watch(Long sessionId) {
+        return Flux.defer(() -> {
+            Channel channel = channels.compute(sessionId, (k, current) -> {
+                Channel watched = current == null ? new Channel() : current;
+                watched.viewers.incrementAndGet();
+                return watched;
+            });
+            // The latest turn is replayed on subscribe, an answer that has finished is in the history already
+            return channel.turns.asFlux()
+                    .skipWhile(Turn::isFinished)
+                    .concatMap(turn -> turn.frames.asFlux())
+                    .doFinally(signal -> channel.viewers.decrementAndGet());
+        });
+    }
+
+    /**
+     * Drops channels without viewers whose last turn has finished.
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void sweep() {
+        for (Long sessionId : channels.keySet()) {
+            channels.computeIfPresent(sessionId, (k, channel) -> channel.isIdle() ? null : channel);
+        }
+    }
+
+    private static final class Channel {
+
+        // Keeps the latest turn for viewers that join while it streams
+        private final Sinks.Many<Turn> turns = Sinks.many().replay().latest();
+        private final AtomicInteger viewers = new AtomicInteger();
+        private volatile Turn latest;
+
+        private boolean isIdle() {
+            Turn turn = latest;
+            return viewers.get() == 0 && (turn == null || turn.isFinished());
+        }
+    }
+
+    private static final class Turn {
+
+        // Unbounded, a turn is one answer long
+        private final Sinks.Many<String> frames = Sinks.many().replay().all();
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private void emit(String frame) {
+            frames.emitNext(frame, RETRY_CONCURRENT);
+        }
+
+        private void finish(String frame) {
+            if (!finished.compareAndSet(false, true)) return;
+            emit(frame);
+            frames.emitComplete(RETRY_CONCURRENT);
+        }
+
+        private boolean isFinished() {
+            return finished.get();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.entities.ChatSession;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compare-mode turns waiting for the user to pick a winner. Bounded and expiring, an answer
+ * that is never picked simply does not enter the history.
+ */
+@Component
+public class PendingComparisons {
+
+    private static final int MAX_PENDING = 10_000;
+    private static final Duration TTL = Duration.ofMinutes(30);
+
+    private final Map<String, Comparison> pending = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Comparison> eldest) {
+                    return size() > MAX_PENDING || eldest.getValue().isExpired();
+                }
+            });
+
+    public Comparison create(String userId, ChatSession session, String prompt) {
+        Comparison comparison = new Comparison(UUID.randomUUID().toString(), userId, session, prompt);
+        pending.put(comparison.getId(), comparison);
+        return comparison;
+    }
+
+    public Comparison get(String userId, String compareId) {
+        Comparison comparison = pending.get(compareId);
+        if (comparison == null || comparison.isExpired() || !comparison.getUserId().equals(userId)) return null;
+        return comparison;
+    }
+
+    public void remove(String compareId) {
+        pending.remove(compareId);
+    }
+
+    @Getter
+    public static class Comparison {
+        private final String id;
+        private final String userId;
+        private final ChatSession session;
+        private final String prompt;
+        private final long createdAt = System.nanoTime();
+        private final Map<String, StringBuffer> responses = new ConcurrentHashMap<>();
+        private final Map<String, Map<String, Long>> timings = new ConcurrentHashMap<>();
+
+        private Comparison(String id, String userId, ChatSession session, String prompt) {
+            this.id = id;
+            this.userId = userId;
+            this.session = session;
+            this.prompt = prompt;
+        }
+
+        public StringBuffer responseBuffer(String provider) {
+            return responses.computeIfAbsent(provider, p -> new StringBuffer());
+        }
+
+        public void recordTiming(String provider, long ttftMs, long totalMs) {
+            timings.put(provider, Map.of("ttftMs", ttftMs, "totalMs", totalMs));
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - createdAt > TTL.toNanos();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.tracing.Span;
+import com.ai.chat.tracing.Tracer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Answers to first-turn prompts, shared by all users and matched on near-duplicates: "explain java
+ * streams" and "Can you explain Java streams?" are the same prompt.
+ * <ul>
+ *     <li>prompts are reduced to their content words: case, accents, punctuation, filler words
+ *     and a plural s are dropped; prompts that reduce alike are an exact hit</li>
+ *     <li>otherwise a MinHash over character trigrams, cut into LSH bands, finds the stored
+ *     prompts likely to be similar without comparing against all of them</li>
+ *     <li>a candidate is served if its estimated similarity reaches {@code min-similarity} and
+ *     it has the same content words in the same order, each equal or one typo apart. "capital
+ *     of france" and "capital of spain" are similar text but not the same question, nor are
+ *     "convert celsius to fahrenheit" and "convert fahrenheit to celsius"</li>
+ * </ul>
+ * Bounded LRU with a TTL. Answers that mention the asking user's name are not stored, the
+ * system prompt is personalized.
+ */
+@Component
+public class PromptCache {
+
+    // Size of the pieces a cached answer is streamed in
+    private static final int CHUNK_CHARS = 64;
+
+    // Words that do not change what is asked, English only
+    private static final Set<String> FILLERS = Set.of(
+            "a", "an", "the", "and", "please", "pls", "plz", "thanks", "thank", "you", "can", "could", "would",
+            "will", "do", "does", "i", "me", "my", "just", "kindly");
+
+    private final ChatProperties.PromptCache properties;
+    private final long[] seeds;
+
+    private final Map<String, Entry> entries;
+    private final Map<BandKey, List<Entry>> index = new HashMap<>();
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder exactHits = new LongAdder();
+    private final LongAdder nearHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // Candidates from the LSH bands that failed the similarity or word check
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PromptCache(ChatProperties chatProperties) {
+        this.properties = chatProperties.getPromptCache();
+        this.seeds = new long[properties.getBands() * properties.getRows()];
+        long seed = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < seeds.length; i++) {
+            seed = mix(seed + 0x9e3779b97f4a7c15L);
+            seeds[i] = seed;
+        }
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= properties.getMaxEntries()) return false;
+                unindex(eldest.getValue());
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * The cached answer to a near-duplicate of the prompt, streamed in chunks, or else
+     * {@code call}, whose answer is stored once it completes. Only first turns are cached,
+     * later turns depend on the rest of the history.
+     */
+    public Flux<String> complete(String provider, Collection<HistoryMessage> history, String userName, Supplier<Flux<String>> call) {
+        if (!properties.isEnabled() || history.size() != 1) return call.get();
+        HistoryMessage first = history.iterator().next();
+        if (!"user".equals(first.getRole()) || first.getContent().length() > properties.getMaxPromptChars()) return call.get();
+
+        return Flux.deferContextual(ctx -> {
+            Prompt prompt = prompt(first.getContent());
+            if (prompt == null) return call.get();
+
+            lookups.increment();
+            Match match = lookup(provider, prompt);
+            Span span = Tracer.current(ctx);
+            if (match != null) {
+                span.event("prompt_cache.hit", Map.of("exact", match.exact(), "similarity", match.similarity()));
+                return Flux.fromIterable(chunks(match.entry().answer));
+            }
+            misses.increment();
+            span.event("prompt_cache.miss", Map.of());
+
+            StringBuilder answer = new StringBuilder();
+            return call.get()
+                    .doOnNext(answer::append)
+                    .doOnComplete(() -> store(provider, prompt, answer.toString(), userName));
+        });
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        long exact = exactHits.sum();
+        long near = nearHits.sum();
+        long total = lookups.sum();
+        snapshot.put("enabled", properties.isEnabled());
+        snapshot.put("lookups", total);
+        snapshot.put("exactHits", exact);
+        snapshot.put("nearHits", near);
+        snapshot.put("misses", misses.sum());
+        snapshot.put("hitRate", total == 0 ? 0 : Math.round((exact + near) * 1000.0 / total) / 1000.0);
+        snapshot.put("rejectedCandidates", rejected.sum());
+        snapshot.put("stores", stores.sum());
+        snapshot.put("evictions", evictions.sum());
+        synchronized (this) {
+            snapshot.put("entries", entries.size());
+        }
+        return snapshot;
+    }
+
+    private synchronized Match lookup(String provider, Prompt prompt) {
+        Entry exact = entries.get(key(provider, prompt.canonical()));
+        if (exact != null && !isExpired(exact)) {
+            exactHits.increment();
+            return new Match(exact, true, 1.0);
+        }
+
+        Entry best = null;
+        double bestSimilarity = 0;
+        Set<Entry> seen = new HashSet<>();
+        for (int band = 0; band < properties.getBands(); band++) {
+            List<Entry> bucket = index.get(bandKey(provider, prompt.signature(), band));
+            if (bucket == null) continue;
+            for (Entry candidate : bucket) {
+                if (!seen.add(candidate) || isExpired(candidate)) continue;
+                double similarity = similarity(candidate.signature, prompt.signature());
+                if (similarity < properties.getMinSimilarity() || !sameWords(candidate.words, prompt.words())) {
+                    rejected.increment();
+                    continue;
+                }
+                if (similarity > bestSimilarity) {
+                    best = candidate;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        if (best == null) return null;
+
+        // Refreshes its place in the LRU order
+        entries.get(key(provider, best.canonical));
+        nearHits.increment();
+        return new Match(best, false, Math.round(bestSimilarity * 1000) / 1000.0);
+    }
+
+    private void store(String provider, Prompt prompt, String answer, String userName) {
+        if (answer.isBlank() || mentions(answer, userName)) return;
+
+        Entry entry = new Entry(provider, prompt, answer);
+        synchronized (this) {
+            Entry previous = entries.put(key(provider, prompt.canonical()), entry);
+            if (previous != null) unindex(previous);
+            for (int band = 0; band < properties.getBands(); band++) {
+                index.computeIfAbsent(bandKey(provider, entry.signature, band), k -> new ArrayList<>(1)).add(entry);
+            }
+        }
+        stores.increment();
+    }
+
+    private void unindex(Entry entry) {
+        for (int band = 0; band < properties.getBands(); band++) {
+            BandKey key = bandKey(entry.provider, entry.signature, band);
+            List<Entry> bucket = index.get(key);
+            if (bucket == null) continue;
+            bucket.remove(entry);
+            if (bucket.isEmpty()) index.remove(key);
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.nanoTime() - entry.createdAt > properties.getTtl().toNanos();
+    }
+
+    // null for a prompt made of filler words only
+    private Prompt prompt(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKD)
+                .replaceAll("\\p{M}+", "")
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("[^\\p{L}\\p{N}]+", " ")
+                .trim();
+        List<String> words = new ArrayList<>();
+        for (String word : normalized.split(" ")) {
+            if (word.isEmpty() || FILLERS.contains(word)) continue;
+            if (word.length() > 3 && word.endsWith("s") && !word.endsWith("ss")) word = word.substring(0, word.length() - 1);
+            words.add(word);
+        }
+        if (words.isEmpty()) return null;
+        String canonical = String.join(" ", words);
+        return new Prompt(canonical, words, minHash(canonical));
+    }
+
+    private int[] minHash(String canonical) {
+        // Padded so the first and last characters weigh like the others
+        String padded = " " + canonical + " ";
+        int shingles = Math.max(1, padded.length() - 2);
+        long[] hashes = new long[shingles];
+        for (int i = 0; i < shingles; i++) {
+            long hash = 0xcbf29ce484222325L;
+            for (int c = i; c < Math.min(padded.length(), i + 3); c++) {
+                hash ^= padded.charAt(c);
+                hash *= 0x100000001b3L;
+            }
+            hashes[i] = hash;
+        }
+        int[] signature = new int[seeds.length];
+        for (int h = 0; h < seeds.length; h++) {
+            long min = Long.MAX_VALUE;
+            for (long hash : hashes) {
+                min = Math.min(min, mix(hash ^ seeds[h]));
+            }
+            signature[h] = (int) min;
+        }
+        return signature;
+    }
+
+    private BandKey bandKey(String provider, int[] signature, int band) {
+        long value = band;
+        for (int row = band * properties.getRows(); row < (band + 1) * properties.getRows(); row++) {
+            value = value * 0x100000001b3L + signature[row];
+        }
+        return new BandKey(provider, band, value);
+    }
+
+    // Share of equal MinHash values, an estimate of the Jaccard similarity of the trigram sets
+    private static double similarity(int[] a, int[] b) {
+        int equal = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) equal++;
+        }
+        return (double) equal / a.length;
+    }
+
+    // Word for word in order: the trigram sets of reordered prompts are nearly the same
+    private static boolean sameWords(List<String> a, List<String> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).equals(b.get(i)) && !typo(a.get(i), b.get(i))) return false;
+        }
+        return true;
+    }
+
+    // One substitution, insertion, deletion or swap of neighbours in a word of six or more letters, never in
+    // numbers. Shorter words are too often other terms one letter apart, mysql and mssql
+    private static boolean typo(String a, String b) {
+        if (a.length() < 6 || b.length() < 6 || Math.abs(a.length() - b.length()) > 1) return false;
+        if (a.chars().anyMatch(Character::isDigit) || b.chars().anyMatch(Character::isDigit)) return false;
+
+        int i = 0;
+        while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i)) i++;
+        if (a.length() != b.length()) {
+            String longer = a.length() > b.length() ? a : b;
+            String shorter = longer == a ? b : a;
+            return longer.substring(i + 1).equals(shorter.substring(i));
+        }
+        if (i == a.length() || a.substring(i + 1).equals(b.substring(i + 1))) return true;
+        return i + 1 < a.length() && a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i)
+                && a.substring(i + 2).equals(b.substring(i + 2));
+    }
+
+    private static boolean mentions(String answer, String userName) {
+        if (userName == null) return false;
+        String text = answer.toLowerCase(Locale.ROOT);
+        for (String part : userName.toLowerCase(Locale.ROOT).split("\\s+")) {
+            if (part.length() >= 3 && text.contains(part)) return true;
+        }
+        return false;
+    }
+
+    private static List<String> chunks(String answer) {
+        List<String> chunks = new ArrayList<>(answer.length() / CHUNK_CHARS + 1);
+        int start = 0;
+        while (start < answer.length()) {
+            int end = Math.min(answer.length(), start + CHUNK_CHARS);
+            if (end < answer.length()) {
+                // Cut after a space where there is one, so words are not split between frames
+                int space = answer.lastIndexOf(' ', end - 1);
+                if (space > start) end = space + 1;
+            }
+            chunks.add(answer.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static String key(String provider, String canonical) {
+        return provider + '\u0000' + canonical;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private record BandKey(String provider, int band, long value) {
+    }
+
+    private record Match(Entry entry, boolean exact, double similarity) {
+    }
+
+    private record Prompt(String canonical, List<String> words, int[] signature) {
+    }
+
+    private static final class Entry {
+
+        private final String provider;
+        private final String canonical;
+        private final List<String> words;
+        private final int[] signature;
+        private final String answer;
+        private final long createdAt = System.nanoTime();
+
+        private Entry(String provider, Prompt prompt, String answer) {
+            this.provider = provider;
+            this.canonical = prompt.canonical();
+            this.words = prompt.words();
+            this.signature = prompt.signature();
+            this.answer = answer;
+        }
+    }
+}
@@ -3,95 +3,205 @@ package com.ai.chat.cache;
 import com.ai.chat.dto.ChatMessageDto;
 import com.ai.chat.entities.ChatMessage;
 import com.ai.chat.entities.ChatSession;
-import com.ai.chat.repositories.ChatMessageRepository;
-import com.ai.chat.repositories.ChatSessionRepository;
+import com.ai.chat.store.ChatHistoryStore;
 import org.springframework.stereotype.Component;
-import tools.jackson.databind.ObjectMapper;
-import tools.jackson.databind.node.ObjectNode;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The cached message trees of sessions. Each session keeps its messages by sequence number and the
+ * tip of its active branch; requests are built from the last {@code MAX_MESSAGES} messages of that
+ * branch, walked back from the tip. Edits and regenerated answers are siblings sharing everything
+ * before them, see {@link HistoryMessage}, so switching to another branch only moves the tip.
+ */
 @Component
 public class SessionHistory {
 
-    private static ChatSessionRepository chatSessionRepository = null;
+    private static ChatHistoryStore chatHistoryStore = null;
+
+    private static HistorySnapshot historySnapshot = null;
 
     private static final Map<String, ChatSession> CHAT_SESSION_MAP = new ConcurrentHashMap<>();
 
-    private static final Map<String, Deque<ObjectNode>> STORE =
+    private static final Map<String, Tree> STORE =
             new ConcurrentHashMap<>();
 
     private static final int MAX_MESSAGES = 12;
-    private static final ObjectMapper mapper = new ObjectMapper();
 
-    public SessionHistory(ChatSessionRepository chatSessionRepository) {
-        SessionHistory.chatSessionRepository = chatSessionRepository;
+    // How long a turn waits for the previous turn to be stored before its own is dropped
+    private static final Duration PARENT_TIMEOUT = Duration.ofSeconds(30);
+
+    public SessionHistory(ChatHistoryStore chatHistoryStore, HistorySnapshot historySnapshot) {
+        SessionHistory.chatHistoryStore = chatHistoryStore;
+        SessionHistory.historySnapshot = historySnapshot;
     }
 
 
-    private static String key(String userId, Long sessionId) {
+    static String key(String userId, Long sessionId) {
         return userId + ":" + sessionId;
     }
 
     public static void getOrLoadHistory(
             String userId,
-            Long sessionId,
-            ChatMessageRepository repository
+            Long sessionId
     ) {
 
         String key = key(userId, sessionId);
 
         STORE.computeIfAbsent(key, k -> {
 
-            Deque<ObjectNode> deque = new ArrayDeque<>();
-
-            List<ChatMessage> dbMessages =
-                    repository.findBySession_SessionIdOrderByCreatedDateAsc(sessionId);
+            Tree restored = restored(userId, sessionId);
+            if (restored != null) return restored;
 
-            // Take only last N messages (sliding window)
-            int start = Math.max(0, dbMessages.size() - MAX_MESSAGES);
-
-            for (int i = start; i < dbMessages.size(); i++) {
-
-                ChatMessage msg = dbMessages.get(i);
+            // Only the last N messages of the latest branch (sliding window)
+            return Tree.of(chatHistoryStore.tail(sessionId, MAX_MESSAGES));
+        });
+    }
 
-                ObjectNode node = mapper.createObjectNode();
-                node.put("role", msg.getRole());
-                node.put("content", msg.getContent());
+    /**
+     * The cached active branch, or the one kept in the snapshot of the previous run if it is still
+     * current. Null when neither has it.
+     */
+    public static List<HistoryMessage> getOrRestoreHistory(String userId, Long sessionId) {
+        Tree tree = STORE.computeIfAbsent(key(userId, sessionId), k -> restored(userId, sessionId));
+        return tree == null ? null : tree.branch(Integer.MAX_VALUE);
+    }
 
-                deque.addLast(node);
-            }
+    private static Tree restored(String userId, Long sessionId) {
+        List<ChatMessageDto> messages = historySnapshot.restore(userId, sessionId);
+        return messages == null ? null : Tree.of(messages);
+    }
 
-            return deque;
-        });
+    /**
+     * Adds a message after the tip of the active branch, which it becomes.
+     */
+    public static HistoryMessage addMessage(
+            String userId,
+            Long sessionId,
+            String role,
+            String content
+    ) {
+        return addMessage(userId, sessionId, getActive(userId, sessionId), role, content);
     }
 
-    public static void addMessage(
+    /**
+     * Adds a message after {@code parent}, null for a first message, and makes it the tip of the
+     * active branch.
+     */
+    public static HistoryMessage addMessage(
             String userId,
             Long sessionId,
+            HistoryMessage parent,
             String role,
             String content
     ) {
+        HistoryMessage message = parent == null ? new HistoryMessage(role, content) : parent.reply(role, content);
+
+        Tree history = STORE.get(key(userId, sessionId));
+        if (history != null) history.activate(message);
+        return message;
+    }
+
+    /**
+     * Drops a message that will never be stored, a question whose answer never came. The tip of the
+     * active branch moves back off it, turns already following it follow the message before it.
+     */
+    public static void discard(String userId, Long sessionId, HistoryMessage message) {
+        message.failed(new IllegalStateException("No answer"));
+        Tree history = STORE.get(key(userId, sessionId));
+        if (history != null) history.retreat();
+    }
+
+    /**
+     * @return the last {@code MAX_MESSAGES} messages of the active branch, oldest first, or null
+     * if the session is not loaded
+     */
+    public static List<HistoryMessage> getHistory(String userId, Long sessionId) {
+        Tree history = STORE.get(key(userId, sessionId));
+        return history == null ? null : history.branch(MAX_MESSAGES);
+    }
 
-        Deque<ObjectNode> history =
-                STORE.get(key(userId, sessionId));
+    /**
+     * @return the tip of the active branch, null if it is empty or the session is not loaded
+     */
+    public static HistoryMessage getActive(String userId, Long sessionId) {
+        Tree history = STORE.get(key(userId, sessionId));
+        return history == null ? null : history.active;
+    }
 
-        if (history == null) return;
+    /**
+     * Message {@code seq} of a loaded session, from the cache or else read with its branch from the
+     * store. Null if the session has no such message. Blocks when it reads.
+     */
+    public static HistoryMessage getMessage(String userId, Long sessionId, long seq) {
+        Tree history = STORE.get(key(userId, sessionId));
+        if (history == null) return null;
+
+        HistoryMessage message = history.bySeq.get(seq);
+        if (message != null) return message;
+        List<ChatMessageDto> branch = chatHistoryStore.branch(sessionId, seq, MAX_MESSAGES);
+        return branch.isEmpty() ? null : history.graft(branch);
+    }
 
-        ObjectNode node = mapper.createObjectNode();
-        node.put("role", role);
-        node.put("content", content);
+    /**
+     * Makes the branch ending at message {@code seq} the active one, 0 for an empty branch before
+     * the first message. Only the tip moves; messages the window needs that were never loaded are
+     * read from the store. Blocks when it reads.
+     *
+     * @return false if the session is not loaded or has no such message
+     */
+    public static boolean switchBranch(String userId, Long sessionId, long seq) {
+        Tree history = STORE.get(key(userId, sessionId));
+        if (history == null) return false;
+        if (seq == 0) {
+            history.activate(null);
+            return true;
+        }
 
-        history.addLast(node);
+        HistoryMessage tip = getMessage(userId, sessionId, seq);
+        if (tip == null) return false;
 
-        while (history.size() > MAX_MESSAGES) {
-            history.pollFirst();
+        // The window may run into the start of a branch that was loaded only in part
+        List<HistoryMessage> window = tip.branch(MAX_MESSAGES);
+        HistoryMessage first = window.getFirst();
+        if (window.size() < MAX_MESSAGES && first.parent() == null && first.getParentSeq() != 0) {
+            HistoryMessage before = history.graft(chatHistoryStore.branch(sessionId, first.getParentSeq(), MAX_MESSAGES - window.size()));
+            if (before != null) first.link(before);
         }
+        history.activate(tip);
+        return true;
     }
 
-    public static Deque<ObjectNode> getHistory(String userId, Long sessionId) {
-        return STORE.get(key(userId, sessionId));
+    /**
+     * Stores the messages of a turn, each following the one before it in the list and the first
+     * following its parent, then hands their sequence numbers to the cached messages. Waits for the
+     * parent to be stored first, the previous turn may still be appending. Blocks.
+     */
+    public static void persist(ChatSession session, List<HistoryMessage> messages) {
+        try {
+            List<ChatMessage> rows = new ArrayList<>(messages.size());
+            for (HistoryMessage message : messages) {
+                rows.add(ChatMessage.builder().role(message.getRole()).content(message.getContent()).session(session).build());
+            }
+            rows.getFirst().setParentSeq(messages.getFirst().awaitParentSeq(PARENT_TIMEOUT));
+
+            chatHistoryStore.append(session, rows);
+
+            for (int i = 0; i < messages.size(); i++) {
+                Long seq = rows.get(i).getSeq();
+                if (seq != null) messages.get(i).stored(seq);
+            }
+            Tree history = STORE.get(key(session.getUserId(), session.getSessionId()));
+            if (history != null) history.index(messages);
+        } catch (RuntimeException e) {
+            // Turns after this one follow the last stored message instead of waiting for these
+            messages.forEach(message -> message.failed(e));
+            Tree history = STORE.get(key(session.getUserId(), session.getSessionId()));
+            if (history != null) history.retreat();
+            throw e;
+        }
     }
 
     public static ChatSession getOrLoadSession(
@@ -102,29 +212,126 @@ public class SessionHistory {
         String key = key(userId, sessionId);
 
         return CHAT_SESSION_MAP.computeIfAbsent(key, k ->
-                chatSessionRepository
-                        .findTopByUserIdAndSessionId(userId, sessionId)
+                chatHistoryStore
+                        .findSession(userId, sessionId)
                         .orElseThrow()
         );
     }
 
     public static void loadChatMessageCache(Long sessionId, String userId, List<ChatMessageDto> chatMessageDtoList) {
         String key = key(userId, sessionId);
-        STORE.computeIfAbsent(key, k -> {
-            Deque<ObjectNode> deque = new ArrayDeque<>();
-            for (ChatMessageDto chatMessageDto : chatMessageDtoList) {
-                ObjectNode node = mapper.createObjectNode();
-                node.put("role", chatMessageDto.getRole());
-                node.put("content", chatMessageDto.getContent());
-                deque.addLast(node);
-            }
-            return deque;
-        });
+        STORE.computeIfAbsent(key, k -> Tree.of(chatMessageDtoList));
+    }
+
+    public static boolean isHistoryLoaded(String userId, Long sessionId) {
+        return STORE.containsKey(key(userId, sessionId));
+    }
+
+    /**
+     * Seeds sessions and their histories fetched ahead of time. Entries that were loaded
+     * in the meantime by a real request are left untouched.
+     */
+    public static void warm(String userId, ChatSession session, List<ChatMessageDto> messages) {
+        String key = key(userId, session.getSessionId());
+        CHAT_SESSION_MAP.putIfAbsent(key, session);
+
+        int start = Math.max(0, messages.size() - MAX_MESSAGES);
+        STORE.putIfAbsent(key, Tree.of(messages.subList(start, messages.size())));
+    }
+
+    public static int maxMessages() {
+        return MAX_MESSAGES;
+    }
+
+    /**
+     * The windows of the active branches of at most {@code limit} cached sessions, for the snapshot.
+     */
+    static List<Cached> cached(int limit) {
+        List<Cached> cached = new ArrayList<>();
+        for (Map.Entry<String, Tree> entry : STORE.entrySet()) {
+            if (cached.size() >= limit) break;
+            String key = entry.getKey();
+            int separator = key.lastIndexOf(':');
+            cached.add(new Cached(key.substring(0, separator), Long.valueOf(key.substring(separator + 1)),
+                    entry.getValue().branch(MAX_MESSAGES)));
+        }
+        return cached;
+    }
+
+    record Cached(String userId, Long sessionId, List<HistoryMessage> messages) {
     }
 
     public static void removeHistory(String userId, Long sessionId) {
         String key = key(userId, sessionId);
         STORE.remove(key);
+        CHAT_SESSION_MAP.remove(key);
     }
-}
 
+    /**
+     * Holds the window of the active branch only, like the sliding window it replaced: the message
+     * starting it is cut off from the ones before, and messages of other branches are dropped once
+     * the tip moves. Both are read from the store again when they are asked for.
+     */
+    private static final class Tree {
+
+        // Stored messages; one still being appended is reachable from the messages after it only
+        private final Map<Long, HistoryMessage> bySeq = new ConcurrentHashMap<>();
+        private volatile HistoryMessage active;
+
+        // The last message becomes the tip, for tails and full histories that is the latest one
+        private static Tree of(List<ChatMessageDto> messages) {
+            Tree tree = new Tree();
+            tree.activate(tree.graft(messages));
+            return tree;
+        }
+
+        private List<HistoryMessage> branch(int limit) {
+            HistoryMessage tip = active;
+            return tip == null ? List.of() : tip.branch(limit);
+        }
+
+        private synchronized void activate(HistoryMessage tip) {
+            active = tip;
+            trim();
+        }
+
+        // Messages stored since they were added
+        private synchronized void index(List<HistoryMessage> messages) {
+            for (HistoryMessage message : messages) {
+                Long seq = message.getSeq();
+                if (seq != null) bySeq.put(seq, message);
+            }
+            trim();
+        }
+
+        private void trim() {
+            List<HistoryMessage> window = branch(MAX_MESSAGES);
+            if (!window.isEmpty()) window.getFirst().detach();
+            Set<HistoryMessage> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+            kept.addAll(window);
+            bySeq.values().removeIf(message -> !kept.contains(message));
+        }
+
+        // Moves the tip back off messages that will never be stored
+        private synchronized void retreat() {
+            HistoryMessage tip = active;
+            while (tip != null && tip.isDropped()) tip = tip.parent();
+            active = tip;
+        }
+
+        /**
+         * Adds stored messages, oldest first, each after its parent when that is known.
+         *
+         * @return the last of them
+         */
+        private synchronized HistoryMessage graft(List<ChatMessageDto> messages) {
+            HistoryMessage last = null;
+            for (ChatMessageDto message : messages) {
+                HistoryMessage parent = bySeq.get(message.getParentSeq());
+                last = bySeq.computeIfAbsent(message.getSeq(), seq -> HistoryMessage.stored(message, parent));
+                if (parent != null) last.link(parent);
+            }
+            return last;
+        }
+    }
+}
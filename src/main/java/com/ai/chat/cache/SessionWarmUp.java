@@ -0,0 +1,113 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.dto.ChatMessageDto;
+import com.ai.chat.entities.ChatSession;
+import com.ai.chat.store.ChatHistoryStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prefetches the histories of a user's most recent sessions into {@link SessionHistory} the first
+ * time the user is seen, so the first getMessages/stream after a restart does not go to the database.
+ * Warm-ups are best effort: they are skipped when the rate or concurrency limit is reached and can
+ * be cancelled when the node is under load.
+ */
+@Slf4j
+@Component
+public class SessionWarmUp {
+
+    private static final int MAX_TRACKED_USERS = 100_000;
+
+    private final ChatHistoryStore chatHistoryStore;
+    private final ChatProperties.WarmUp properties;
+    private final Semaphore running;
+    private final AtomicLong nextStartNanos = new AtomicLong();
+
+    private final Set<String> warmedUsers = ConcurrentHashMap.newKeySet();
+    private final Map<String, Disposable> inFlight = new ConcurrentHashMap<>();
+
+    public SessionWarmUp(ChatHistoryStore chatHistoryStore, ChatProperties chatProperties) {
+        this.chatHistoryStore = chatHistoryStore;
+        this.properties = chatProperties.getWarmUp();
+        this.running = new Semaphore(properties.getMaxConcurrent());
+    }
+
+    /**
+     * @param sessions the user's sessions, most recent first
+     */
+    public void warmUp(String userId, List<ChatSession> sessions) {
+        if (!properties.isEnabled() || sessions.isEmpty()) return;
+
+        if (warmedUsers.size() > MAX_TRACKED_USERS) warmedUsers.clear();
+        if (!warmedUsers.add(userId)) return;
+
+        List<ChatSession> recent = sessions.stream()
+                .limit(properties.getSessions())
+                .filter(session -> !SessionHistory.isHistoryLoaded(userId, session.getSessionId()))
+                .toList();
+        if (recent.isEmpty()) return;
+
+        if (!tryStart()) {
+            // Try again on the user's next request
+            warmedUsers.remove(userId);
+            return;
+        }
+
+        List<Long> sessionIds = recent.stream().map(ChatSession::getSessionId).toList();
+        Disposable.Swap task = Disposables.swap();
+        inFlight.put(userId, task);
+
+        task.update(Mono.fromCallable(() -> {
+                    // Sessions still current in the snapshot of the previous run need no query
+                    List<Long> missing = sessionIds.stream()
+                            .filter(sessionId -> SessionHistory.getOrRestoreHistory(userId, sessionId) == null)
+                            .toList();
+                    return missing.isEmpty()
+                            ? Map.<Long, List<ChatMessageDto>>of()
+                            : chatHistoryStore.tails(missing, SessionHistory.maxMessages());
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .doFinally(signal -> {
+                    running.release();
+                    inFlight.remove(userId, task);
+                    // Cancelled or failed, try again on the user's next request
+                    if (signal == SignalType.CANCEL || signal == SignalType.ON_ERROR) warmedUsers.remove(userId);
+                })
+                .subscribe(
+                        messages -> apply(userId, recent, messages),
+                        e -> log.warn("Session warm-up failed for {}: {}", userId, e.getMessage())
+                ));
+    }
+
+    /**
+     * Drops all running warm-ups, e.g. when requests are being shed.
+     */
+    public void cancelAll() {
+        inFlight.values().forEach(Disposable::dispose);
+    }
+
+    private boolean tryStart() {
+        long interval = 1_000_000_000L / Math.max(1, properties.getPerSecond());
+        long now = System.nanoTime();
+        long next = nextStartNanos.get();
+        if (now < next || !nextStartNanos.compareAndSet(next, now + interval)) return false;
+        return running.tryAcquire();
+    }
+
+    private static void apply(String userId, List<ChatSession> sessions, Map<Long, List<ChatMessageDto>> bySession) {
+        for (ChatSession session : sessions) {
+            SessionHistory.warm(userId, session, bySession.getOrDefault(session.getSessionId(), List.of()));
+        }
+    }
+}
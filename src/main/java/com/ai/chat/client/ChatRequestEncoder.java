@@ -0,0 +1,142 @@
+package com.ai.chat.client;
+
+import com.ai.chat.cache.HistoryMessage;
+import com.ai.chat.config.GeminiProperties;
+import com.ai.chat.config.GroqProperties;
+import com.ai.chat.constants.ApplicationConstants;
+import com.ai.chat.dto.GeminiRequestDto;
+import com.ai.chat.dto.GroqRequestDto;
+import com.ai.chat.records.GeminiMessagesRecord;
+import com.ai.chat.records.GeminiPartsRecord;
+import com.ai.chat.records.GeminiTextRecord;
+import com.ai.chat.records.GroqMessagesRecord;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserter;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Builds streaming request bodies from pre-encoded fragments. The static prefix (model, params,
+ * system prompt) is encoded once per provider and user, and every history message once per
+ * provider, so a turn only serializes the newly added messages. The fragments are handed to
+ * the connector as one composite buffer without copying.
+ */
+@Component
+public class ChatRequestEncoder {
+
+    private static final int MAX_CACHED_PREFIXES = 10_000;
+    private static final byte[] COMMA = {','};
+    private static final byte[] SUFFIX = {']', '}'};
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final GroqProperties groqProperties;
+    private final GeminiProperties geminiProperties;
+
+    private final Map<String, byte[]> prefixes = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                    return size() > MAX_CACHED_PREFIXES;
+                }
+            });
+
+    public ChatRequestEncoder(GroqProperties groqProperties, GeminiProperties geminiProperties) {
+        this.groqProperties = groqProperties;
+        this.geminiProperties = geminiProperties;
+    }
+
+    public BodyInserter<byte[], ReactiveHttpOutputMessage> groq(Collection<HistoryMessage> history, String username) {
+        byte[] prefix = prefixes.computeIfAbsent("groq:" + groqProperties.getModel() + ":" + username, k ->
+                openArray(GroqRequestDto.builder()
+                        .model(groqProperties.getModel())
+                        .stream(true)
+                        // Token counts in a final chunk, see TokenAccounting
+                        .stream_options(Map.of("include_usage", true))
+                        .messages(List.of(GroqMessagesRecord.builder()
+                                .role("system")
+                                .content(systemPrompt(username))
+                                .build()))
+                        .temperature(0.2)
+                        .top_p(0.9)
+                        .build()));
+
+        List<byte[]> parts = new ArrayList<>(history.size() * 2 + 2);
+        parts.add(prefix);
+        for (HistoryMessage message : history) {
+            parts.add(COMMA);
+            parts.add(message.encoded("groq", this::encodeGroqMessage));
+        }
+        parts.add(SUFFIX);
+        return compose(parts);
+    }
+
+    public BodyInserter<byte[], ReactiveHttpOutputMessage> gemini(Collection<HistoryMessage> history, String username) {
+        byte[] prefix = prefixes.computeIfAbsent("gemini:" + geminiProperties.getModel() + ":" + username, k ->
+                openArray(GeminiRequestDto.builder()
+                        .systemInstruction(GeminiPartsRecord.builder()
+                                .parts(List.of(GeminiTextRecord.builder()
+                                        .text(systemPrompt(username)).build())
+                                ).build())
+                        .contents(List.of())
+                        .build()));
+
+        List<byte[]> parts = new ArrayList<>(history.size() * 2 + 2);
+        parts.add(prefix);
+        for (HistoryMessage message : history) {
+            if (parts.size() > 1) parts.add(COMMA);
+            parts.add(message.encoded("gemini", this::encodeGeminiMessage));
+        }
+        parts.add(SUFFIX);
+        return compose(parts);
+    }
+
+    private byte[] encodeGroqMessage(HistoryMessage message) {
+        return mapper.writeValueAsBytes(GroqMessagesRecord.builder()
+                .role(message.getRole())
+                .content(message.getContent())
+                .build());
+    }
+
+    private byte[] encodeGeminiMessage(HistoryMessage message) {
+        // Map to Gemini's strict roles
+        String geminiRole = "assistant".equals(message.getRole()) ? "model" : "user";
+        return mapper.writeValueAsBytes(GeminiMessagesRecord.builder()
+                .role(geminiRole)
+                .parts(List.of(GeminiTextRecord.builder()
+                        .text(message.getContent())
+                        .build()))
+                .build());
+    }
+
+    private static String systemPrompt(String username) {
+        return ApplicationConstants.SYSTEM_PROMPT + " - User name is " + username;
+    }
+
+    /**
+     * Serializes a request whose last property is the message array and drops the closing "]}",
+     * leaving the array open for the history fragments.
+     */
+    private byte[] openArray(Object request) {
+        byte[] json = mapper.writeValueAsBytes(request);
+        String tail = new String(json, json.length - SUFFIX.length, SUFFIX.length, StandardCharsets.UTF_8);
+        if (!"]}".equals(tail)) {
+            throw new IllegalStateException("Message array must be the last property of " + request.getClass().getSimpleName());
+        }
+        return Arrays.copyOf(json, json.length - SUFFIX.length);
+    }
+
+    private static BodyInserter<byte[], ReactiveHttpOutputMessage> compose(List<byte[]> parts) {
+        long length = parts.stream().mapToLong(part -> part.length).sum();
+        return (message, context) -> {
+            DataBufferFactory factory = message.bufferFactory();
+            message.getHeaders().setContentLength(length);
+            return message.writeWith(Mono.fromSupplier(() ->
+                    factory.join(parts.stream().map(factory::wrap).toList())));
+        };
+    }
+}
@@ -1,23 +1,23 @@
 package com.ai.chat.client;
 
+import com.ai.chat.cache.HistoryMessage;
+import com.ai.chat.cache.PromptCache;
 import com.ai.chat.cache.SessionHistory;
 import com.ai.chat.config.GeminiProperties;
-import com.ai.chat.constants.ApplicationConstants;
 import com.ai.chat.dto.GeminiGenerationConfigDto;
 import com.ai.chat.dto.GeminiRequestDto;
 import com.ai.chat.dto.UserContext;
-import com.ai.chat.entities.ChatMessage;
 import com.ai.chat.entities.ChatSession;
 import com.ai.chat.records.GeminiMessagesRecord;
-import com.ai.chat.records.GeminiPartsRecord;
 import com.ai.chat.records.GeminiTextRecord;
-import com.ai.chat.repositories.ChatMessageRepository;
-import com.ai.chat.repositories.ChatSessionRepository;
+import com.ai.chat.store.ChatHistoryStore;
+import com.ai.chat.tracing.Span;
+import com.ai.chat.tracing.Tracer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
-import org.springframework.web.reactive.function.client.WebClientRequestException;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -25,111 +25,136 @@ import reactor.core.scheduler.Schedulers;
 import reactor.util.retry.Retry;
 import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.ObjectMapper;
-import tools.jackson.databind.node.ObjectNode;
 
-import java.time.Duration;
-import java.util.Deque;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+@Lazy
 @Component
 public class GeminiClient implements LLMClient {
 
     private final WebClient webClient;
     private final GeminiProperties geminiProperties;
+    private final ChatRequestEncoder requestEncoder;
 
     @Autowired
-    ChatMessageRepository chatMessageRepository;
+    ChatHistoryStore chatHistoryStore;
 
     @Autowired
-    ChatSessionRepository chatSessionRepository;
+    Tracer tracer;
+
+    @Autowired
+    ProviderCall providerCall;
+
+    @Autowired
+    PromptCache promptCache;
 
     private final ObjectMapper mapper = new ObjectMapper();
 
-    public GeminiClient(GeminiProperties geminiProperties, WebClient webClient) {
+    public GeminiClient(GeminiProperties geminiProperties, WebClient webClient, ChatRequestEncoder requestEncoder) {
         this.geminiProperties = geminiProperties;
         this.webClient = webClient;
+        this.requestEncoder = requestEncoder;
     }
 
 
     @Override
-    public Flux<String> stream(String prompt, UserContext userContext, ChatSession chatSession) {
+    public Flux<String> streamText(String prompt, UserContext userContext, ChatSession chatSession) {
+        HistoryMessage question = SessionHistory.addMessage(userContext.getUserId(), chatSession.getSessionId(), "user", prompt);
+        return answer(question, true, userContext, chatSession);
+    }
+
+    @Override
+    public Flux<String> regenerateText(UserContext userContext, ChatSession chatSession) {
+        HistoryMessage question = SessionHistory.getActive(userContext.getUserId(), chatSession.getSessionId());
+        return answer(question, false, userContext, chatSession);
+    }
+
+    // Stores the question too when it is new, a regenerated answer joins the stored one
+    private Flux<String> answer(HistoryMessage question, boolean newQuestion, UserContext userContext, ChatSession chatSession) {
 
         String user = userContext.getUserId();
         Long sessionId = chatSession.getSessionId();
-        SessionHistory.addMessage(user, sessionId, "user", prompt);
         StringBuilder aiBuffer = new StringBuilder();
 
+        return Flux.deferContextual(ctx -> {
+            Span turn = Tracer.current(ctx);
+            List<HistoryMessage> history = question.branch(SessionHistory.maxMessages());
+            Flux<String> deltas = newQuestion
+                    ? promptCache.complete(getProviderName(), history, userContext.getUserName(),
+                            () -> complete(history, userContext.getUserName()))
+                    : complete(history, userContext.getUserName());
+            return deltas
+                    .doOnNext(aiBuffer::append)
+                    .doFinally(signalType -> {
+                        if (aiBuffer.isEmpty()) {
+                            // Failed or cancelled before the first token, the question is not kept
+                            if (newQuestion) SessionHistory.discard(user, sessionId, question);
+                            return;
+                        }
+
+                        HistoryMessage aiMsg = SessionHistory.addMessage(user, sessionId, question, "assistant", aiBuffer.toString());
+                        List<HistoryMessage> messages = newQuestion ? List.of(question, aiMsg) : List.of(aiMsg);
+
+                        Mono.fromRunnable(() -> tracer.run(turn, "history.append", () ->
+                                SessionHistory.persist(chatSession, messages)))
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .subscribe();
+
+                        if (chatSession.getTitle() == null || chatSession.getTitle().isBlank()) {
+                            generateTitle(question.getContent(), chatSession);
+                        }
+                    });
+        });
+    }
+
+    @Override
+    public Flux<String> complete(Collection<HistoryMessage> history, String userName) {
+
         String url = UriComponentsBuilder.fromUriString(geminiProperties.getBaseUrl())
                 .pathSegment(geminiProperties.getModel(), ":generateContent")
                 .queryParam("alt", "sse")
                 .toUriString();
 
-        return webClient.post()
+        return providerCall.stream(getProviderName(), geminiProperties.getModel(), history, usage -> webClient.post()
                 .uri(url)
                 .headers(httpHeaders -> {
                     httpHeaders.setContentType(MediaType.APPLICATION_JSON);
                     httpHeaders.setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
                     httpHeaders.set("x-goog-api-key", geminiProperties.getApiKey());
                 })
-                .bodyValue(buildRequest(SessionHistory.getHistory(user, sessionId), userContext.getUserName()))
+                .body(requestEncoder.gemini(history, userName))
                 .retrieve()
                 .bodyToFlux(String.class)
                 .checkpoint("AI_STREAM_START")
-                .retryWhen(Retry.backoff(3, Duration.ofSeconds(2))
-                        .filter(throwable -> throwable instanceof WebClientRequestException))
-                .doOnError(e -> System.err.println("Stream failed after retries: " + e.getMessage()))
                 .flatMap(chunk -> {
-                    if (chunk.contains("[DONE]")) return Flux.just("{\"done\":true}");
+                    if (chunk.contains("[DONE]")) return Flux.empty();
                     try {
                         int start = chunk.indexOf("{");
                         if (start == -1) return Flux.empty();
 
                         JsonNode root = mapper.readTree(chunk.substring(start));
+
+                        // Running totals on every chunk, the last one is final
+                        JsonNode tokens = root.path("usageMetadata");
+                        if (tokens.isObject()) {
+                            usage.report(tokens.path("promptTokenCount").asLong(), tokens.path("candidatesTokenCount").asLong());
+                        }
+
                         String content = root.path("candidates").get(0)
                                 .at("/content/parts").get(0)
                                 .path("text").asString(""); // Use .asText()
 
                         if (content.isEmpty()) return Flux.empty();
 
-                        aiBuffer.append(content);
-
                         String[] words = content.split("(?<= )");
 
-                        return Flux.fromArray(words).map(word -> {
-                            ObjectNode response = mapper.createObjectNode();
-                            response.put("content", word);
-                            return response.toString();
-                        });
+                        return Flux.fromArray(words);
                     } catch (Exception e) {
                         return Flux.empty();
                     }
-                })
-                .delayElements(Duration.ofMillis(30))
-                .doFinally(signalType -> {
-                    SessionHistory.addMessage(user, sessionId, "assistant", aiBuffer.toString());
-
-                    ChatMessage userPrompt = ChatMessage.builder().
-                            role("user")
-                            .content(prompt)
-                            .session(chatSession)
-                            .build();
-
-                    ChatMessage aiMsg = ChatMessage.builder()
-                            .role("assistant")
-                            .content(aiBuffer.toString())
-                            .session(chatSession)
-                            .build();
-
-                    Mono.fromCallable(() -> chatMessageRepository.saveAll(List.of(userPrompt, aiMsg)))
-                            .subscribeOn(Schedulers.boundedElastic())
-                            .subscribe();
-
-                    if (chatSession.getTitle() == null || chatSession.getTitle().isBlank()) {
-                        generateTitle(prompt, chatSession);
-                    }
-                });
-
+                }));
     }
 
     @Override
@@ -156,7 +181,7 @@ public class GeminiClient implements LLMClient {
                             ? cleanTitle.substring(0, 60) + "..."
                             : cleanTitle;
                     session.setTitle(safeTitle);
-                    return Mono.fromCallable(() -> chatSessionRepository.save(session))
+                    return Mono.fromRunnable(() -> chatHistoryStore.saveTitle(session))
                             .subscribeOn(Schedulers.boundedElastic());
                 })
                 .subscribeOn(Schedulers.boundedElastic())
@@ -169,38 +194,6 @@ public class GeminiClient implements LLMClient {
         return "gemini";
     }
 
-    private GeminiRequestDto buildRequest(Deque<ObjectNode> history, String username) {
-
-        String userSystem = ApplicationConstants.SYSTEM_PROMPT + String.format(" - User name is %s", username);
-
-        List<GeminiMessagesRecord> geminiMessagesRecords = history
-                .stream()
-                .map(msg -> {
-                    // Safely extract the exact text without Jackson adding extra quotes
-                    String originalRole = msg.path("role").asString("user");
-                    String content = msg.path("content").asString("");
-
-                    // Map to Gemini's strict roles
-                    String geminiRole = originalRole.equals("assistant") ? "model" : "user";
-
-                    return GeminiMessagesRecord.builder()
-                            .role(geminiRole)
-                            .parts(List.of(
-                                    GeminiTextRecord.builder()
-                                            .text(content)
-                                            .build()
-                            )).build();
-                }).toList();
-
-        return GeminiRequestDto.builder()
-                .systemInstruction(GeminiPartsRecord.builder()
-                        .parts(List.of(GeminiTextRecord.builder()
-                                .text(userSystem).build())
-                        ).build())
-                .contents(geminiMessagesRecords)
-                .build();
-    }
-
     private GeminiRequestDto buildTitleRequest(String prompt) {
 
         String instruction = "Summarize this into a 3-word title: " + prompt +
@@ -1,53 +1,60 @@
 package com.ai.chat.client;
 
+import com.ai.chat.cache.HistoryMessage;
+import com.ai.chat.cache.PromptCache;
 import com.ai.chat.cache.SessionHistory;
 import com.ai.chat.config.GroqProperties;
 import com.ai.chat.constants.ApplicationConstants;
 import com.ai.chat.dto.GroqRequestDto;
 import com.ai.chat.dto.UserContext;
-import com.ai.chat.entities.ChatMessage;
 import com.ai.chat.entities.ChatSession;
 import com.ai.chat.records.GroqMessagesRecord;
-import com.ai.chat.repositories.ChatMessageRepository;
-import com.ai.chat.repositories.ChatSessionRepository;
+import com.ai.chat.store.ChatHistoryStore;
+import com.ai.chat.tracing.Span;
+import com.ai.chat.tracing.Tracer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
-import org.springframework.web.reactive.function.client.WebClientRequestException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 import reactor.util.retry.Retry;
 import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.ObjectMapper;
-import tools.jackson.databind.node.ObjectNode;
 
-import java.time.Duration;
-import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 
+@Lazy
 @Component
 public class GroqClient implements LLMClient {
 
     private final WebClient webClient;
     private final GroqProperties properties;
+    private final ChatRequestEncoder requestEncoder;
     private final ObjectMapper mapper = new ObjectMapper();
 
     @Autowired
-    ChatMessageRepository chatMessageRepository;
+    ChatHistoryStore chatHistoryStore;
 
     @Autowired
-    ChatSessionRepository chatSessionRepository;
+    Tracer tracer;
 
-    public GroqClient(GroqProperties properties, WebClient webClient) {
+    @Autowired
+    ProviderCall providerCall;
+
+    @Autowired
+    PromptCache promptCache;
+
+    public GroqClient(GroqProperties properties, WebClient webClient, ChatRequestEncoder requestEncoder) {
         this.properties = properties;
         this.webClient = webClient;
+        this.requestEncoder = requestEncoder;
     }
 
 
@@ -57,28 +64,71 @@ public class GroqClient implements LLMClient {
     }
 
     @Override
-    public Flux<String> stream(String prompt, UserContext userContext, ChatSession chatSession) {
+    public Flux<String> streamText(String prompt, UserContext userContext, ChatSession chatSession) {
+        HistoryMessage question = SessionHistory.addMessage(userContext.getUserId(), chatSession.getSessionId(), "user", prompt);
+        return answer(question, true, userContext, chatSession);
+    }
+
+    @Override
+    public Flux<String> regenerateText(UserContext userContext, ChatSession chatSession) {
+        HistoryMessage question = SessionHistory.getActive(userContext.getUserId(), chatSession.getSessionId());
+        return answer(question, false, userContext, chatSession);
+    }
+
+    // Stores the question too when it is new, a regenerated answer joins the stored one
+    private Flux<String> answer(HistoryMessage question, boolean newQuestion, UserContext userContext, ChatSession chatSession) {
         String user = userContext.getUserId();
         Long sessionId = chatSession.getSessionId();
-        SessionHistory.addMessage(user, sessionId, "user", prompt);
         StringBuffer aiResponseBuffer = new StringBuffer();
 
-        return webClient.post()
+        return Flux.deferContextual(ctx -> {
+            Span turn = Tracer.current(ctx);
+            List<HistoryMessage> history = question.branch(SessionHistory.maxMessages());
+            Flux<String> deltas = newQuestion
+                    ? promptCache.complete(getProviderName(), history, userContext.getUserName(),
+                            () -> complete(history, userContext.getUserName()))
+                    : complete(history, userContext.getUserName());
+            return deltas
+                    .doOnNext(aiResponseBuffer::append)
+                    .doFinally(signalType -> {
+
+                        String finalAiContent = aiResponseBuffer.toString();
+
+                        if (!finalAiContent.isEmpty()) {
+                            HistoryMessage aiMsg = SessionHistory.addMessage(user, sessionId, question, "assistant", finalAiContent);
+                            List<HistoryMessage> messages = newQuestion ? List.of(question, aiMsg) : List.of(aiMsg);
+
+                            Mono.fromRunnable(() -> tracer.run(turn, "history.append", () ->
+                                        SessionHistory.persist(chatSession, messages)))
+                                    .subscribeOn(Schedulers.boundedElastic())
+                                    .subscribe();
+
+                            if (chatSession.getTitle() == null || chatSession.getTitle().isBlank()) {
+                                generateTitle(question.getContent(), chatSession);
+                            }
+                        } else if (newQuestion) {
+                            // Failed or cancelled before the first token, the question is not kept
+                            SessionHistory.discard(user, sessionId, question);
+                        }
+                    });
+        });
+    }
+
+    @Override
+    public Flux<String> complete(Collection<HistoryMessage> history, String userName) {
+        return providerCall.stream(getProviderName(), properties.getModel(), history, usage -> webClient.post()
                 .uri(properties.getBaseUrl() + "/chat/completions")
                 .headers(httpHeaders -> {
                     httpHeaders.setBearerAuth(properties.getApiKey());
                     httpHeaders.setContentType(MediaType.APPLICATION_JSON);
                     httpHeaders.setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
                 })
-                .bodyValue(buildRequest(SessionHistory.getHistory(user, sessionId), userContext.getUserName()))
+                .body(requestEncoder.groq(history, userName))
                 .retrieve()
                 .bodyToFlux(String.class)
                 .checkpoint("AI_STREAM_START")
-                .retryWhen(Retry.backoff(3, Duration.ofSeconds(2))
-                        .filter(throwable -> throwable instanceof WebClientRequestException))
-                .doOnError(e -> System.err.println("Stream failed after retries: " + e.getMessage()))
                 .map(chunk -> {
-                    if (chunk.contains("[DONE]")) return "{\"done\":true}";
+                    if (chunk.contains("[DONE]")) return "";
 
                     try {
                         int start = chunk.indexOf("{");
@@ -86,40 +136,18 @@ public class GroqClient implements LLMClient {
 
                         JsonNode root = mapper.readTree(chunk.substring(start));
 
-                        String content = root.path("choices").get(0).path("delta").path("content").asString("");
-
-                        aiResponseBuffer.append(content);
-
-                        ObjectNode response = mapper.createObjectNode();
-                        response.put("content", content);
+                        // Last chunk, requested with stream_options.include_usage; older responses only carry x_groq.usage
+                        JsonNode tokens = root.path("usage").isObject() ? root.path("usage") : root.path("x_groq").path("usage");
+                        if (tokens.isObject()) {
+                            usage.report(tokens.path("prompt_tokens").asLong(), tokens.path("completion_tokens").asLong());
+                        }
 
-                        return response.toString();
+                        return root.path("choices").get(0).path("delta").path("content").asString("");
                     } catch (Exception e) {
                         return "";
                     }
                 })
-                .filter(text -> !text.isEmpty())
-                // delayElements gives that smooth typing effect
-                .delayElements(Duration.ofMillis(30))
-                .doFinally(signalType -> {
-
-                    String finalAiContent = aiResponseBuffer.toString();
-
-                    if (!finalAiContent.isEmpty()) {
-                        SessionHistory.addMessage(user, sessionId, "assistant", finalAiContent);
-
-                        ChatMessage userMsg = ChatMessage.builder().role("user").content(prompt).session(chatSession).build();
-                        ChatMessage aiMsg = ChatMessage.builder().role("assistant").content(finalAiContent).session(chatSession).build();
-
-                        Mono.fromCallable(() -> chatMessageRepository.saveAll(List.of(userMsg, aiMsg)))
-                                .subscribeOn(Schedulers.boundedElastic())
-                                .subscribe();
-
-                        if (chatSession.getTitle() == null || chatSession.getTitle().isBlank()) {
-                            generateTitle(prompt, chatSession);
-                        }
-                    }
-                });
+                .filter(text -> !text.isEmpty()));
     }
 
     @Override
@@ -137,7 +165,7 @@ public class GroqClient implements LLMClient {
                             ? cleanTitle.substring(0, 30) + "..."
                             : cleanTitle;
                     session.setTitle(safeTitle);
-                    return Mono.fromCallable(() -> chatSessionRepository.save(session))
+                    return Mono.fromRunnable(() -> chatHistoryStore.saveTitle(session))
                             .subscribeOn(Schedulers.boundedElastic());
                 })
                 .subscribeOn(Schedulers.boundedElastic())
@@ -145,26 +173,6 @@ public class GroqClient implements LLMClient {
                 .subscribe();
     }
 
-    private GroqRequestDto buildRequest(Deque<ObjectNode> history, String username) {
-        String userSystem = ApplicationConstants.SYSTEM_PROMPT + String.format(" - User name is %s", username);
-        List<GroqMessagesRecord> groqMessagesRecords = new ArrayList<>();
-        groqMessagesRecords.add(GroqMessagesRecord.builder()
-                .role("system")
-                .content(userSystem).build());
-
-        history.forEach(objectNode -> groqMessagesRecords.add(GroqMessagesRecord.builder()
-                .role(objectNode.get("role").asString())
-                .content(objectNode.get("content").asString()).build()));
-
-        return GroqRequestDto.builder()
-                .model(properties.getModel())
-                .stream(true)
-                .messages(groqMessagesRecords)
-                .temperature(0.2)
-                .top_p(0.9)
-                .build();
-    }
-
     private GroqRequestDto buildTitleRequest(String prompt) {
 
         List<GroqMessagesRecord> titleMessages = List.of(GroqMessagesRecord.builder()
@@ -1,14 +1,50 @@
 package com.ai.chat.client;
 
+import com.ai.chat.cache.HistoryMessage;
 import com.ai.chat.dto.UserContext;
 import com.ai.chat.entities.ChatSession;
+import com.ai.chat.utils.ChatFrames;
 import reactor.core.publisher.Flux;
 
+import java.time.Duration;
+import java.util.Collection;
+
 public interface LLMClient {
 
     String getProviderName();
 
-    Flux<String> stream(String prompt, UserContext userContext, ChatSession chatSession);
+    /**
+     * Raw text deltas of the assistant response. History and persistence are updated
+     * exactly as for {@link #stream}.
+     */
+    Flux<String> streamText(String prompt, UserContext userContext, ChatSession chatSession);
+
+    /**
+     * Raw text deltas of another answer to the user message at the tip of the session's active
+     * branch, stored as a sibling of the earlier answers. Never served from the prompt cache.
+     */
+    Flux<String> regenerateText(UserContext userContext, ChatSession chatSession);
+
+    /**
+     * Raw text deltas for the given history without touching the session cache or the database.
+     */
+    Flux<String> complete(Collection<HistoryMessage> history, String userName);
+
+    default Flux<String> stream(String prompt, UserContext userContext, ChatSession chatSession) {
+        return frames(streamText(prompt, userContext, chatSession));
+    }
+
+    default Flux<String> regenerate(UserContext userContext, ChatSession chatSession) {
+        return frames(regenerateText(userContext, chatSession));
+    }
+
+    private static Flux<String> frames(Flux<String> deltas) {
+        return deltas
+                .map(ChatFrames::content)
+                .concatWithValues(ChatFrames.DONE)
+                // delayElements gives that smooth typing effect
+                .delayElements(Duration.ofMillis(30));
+    }
 
     void generateTitle(String prompt,ChatSession session);
 }
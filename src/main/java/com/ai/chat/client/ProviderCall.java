@@ -0,0 +1,49 @@
+package com.ai.chat.client;
+
+import com.ai.chat.cache.HistoryMessage;
+import com.ai.chat.retry.ProviderRetry;
+import com.ai.chat.routing.ProviderStats;
+import com.ai.chat.tracing.Span;
+import com.ai.chat.tracing.Tracer;
+import com.ai.chat.usage.TokenAccounting;
+import com.ai.chat.usage.TokenUsage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * What every provider stream goes through, outermost first: token accounting, the routing stats,
+ * an {@code llm.<provider>} client span counting the deltas, and retries. A client only builds its
+ * request and reports the token counts it finds in the response.
+ */
+@Slf4j
+@Component
+public class ProviderCall {
+
+    private final TokenAccounting tokenAccounting;
+    private final ProviderStats providerStats;
+    private final Tracer tracer;
+    private final ProviderRetry providerRetry;
+
+    public ProviderCall(TokenAccounting tokenAccounting, ProviderStats providerStats, Tracer tracer, ProviderRetry providerRetry) {
+        this.tokenAccounting = tokenAccounting;
+        this.providerStats = providerStats;
+        this.tracer = tracer;
+        this.providerRetry = providerRetry;
+    }
+
+    /**
+     * @param request one attempt: the text deltas of the provider's response, subscribed again on a retry
+     */
+    public Flux<String> stream(String provider, String model, Collection<HistoryMessage> history,
+                               Function<TokenUsage, Flux<String>> request) {
+        return tokenAccounting.track(provider, history, usage ->
+                providerStats.observe(provider, model,
+                        tracer.flux("llm." + provider, Span.Kind.CLIENT, span ->
+                                Tracer.recordDeltas(span, providerRetry.execute(provider, span, request.apply(usage))
+                                        .doOnError(e -> log.warn("{} stream failed: {}", provider, e.getMessage()))))));
+    }
+}
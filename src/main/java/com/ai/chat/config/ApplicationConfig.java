@@ -1,10 +1,13 @@
 package com.ai.chat.config;
 
+import com.ai.chat.limiter.LoadSignals;
+import com.ai.chat.tracing.Span;
+import com.ai.chat.tracing.Tracer;
 import io.netty.channel.ChannelOption;
-import io.netty.handler.timeout.ReadTimeoutHandler;
 import io.netty.handler.timeout.WriteTimeoutHandler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
@@ -13,27 +16,41 @@ import reactor.netty.http.client.HttpClient;
 import reactor.netty.resources.ConnectionProvider;
 
 import java.time.Duration;
+import java.util.Map;
 
 @Configuration
 public class ApplicationConfig {
 
+    // Created with the first provider call instead of at startup
     @Bean
-    public WebClient webClientConfig() {
+    @Lazy
+    public WebClient webClientConfig(LoadSignals loadSignals) {
         ConnectionProvider provider = ConnectionProvider.builder("custom")
                 .maxConnections(500)
                 .maxIdleTime(Duration.ofSeconds(20))
                 .maxLifeTime(Duration.ofMinutes(5))
-                .pendingAcquireTimeout(Duration.ofSeconds(60))
+                .pendingAcquireTimeout(Duration.ofSeconds(10))
                 .evictInBackground(Duration.ofSeconds(30))
                 .lifo()
+                // Pending acquires feed the concurrency limiter
+                .metrics(true, () -> loadSignals)
                 .build();
 
         HttpClient httpClient = HttpClient.create(provider)
+                // Safety net only, provider streams get their own timeouts from ProviderRetry
                 .responseTimeout(Duration.ofSeconds(120))
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 30000)
-                .doOnConnected(conn ->
-                        conn.addHandlerLast(new ReadTimeoutHandler(60))
-                                .addHandlerLast(new WriteTimeoutHandler(60)));
+                // Runs once a pooled connection is acquired, in the context of the calling provider span
+                .doOnRequest((request, connection) -> {
+                    Span span = Tracer.current(request.currentContextView());
+                    if (span.isRecording()) {
+                        span.event("connection.acquired");
+                        request.header("traceparent", span.traceparent());
+                    }
+                })
+                .doOnResponse((response, connection) -> Tracer.current(response.currentContextView())
+                        .event("response.headers", Map.of("http.status_code", response.status().code())))
+                .doOnConnected(conn -> conn.addHandlerLast(new WriteTimeoutHandler(60)));
 
         return WebClient.builder()
                 .codecs(configurer -> configurer
@@ -0,0 +1,244 @@
+package com.ai.chat.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat")
+public class ChatProperties {
+
+    private Partition partition = new Partition();
+    private Transfer transfer = new Transfer();
+    private WarmUp warmUp = new WarmUp();
+    private Idempotency idempotency = new Idempotency();
+    private Limiter limiter = new Limiter();
+    private Store store = new Store();
+    private Tracing tracing = new Tracing();
+    private Router router = new Router();
+    private Datasource datasource = new Datasource();
+    private Archive archive = new Archive();
+    private Purge purge = new Purge();
+    private Usage usage = new Usage();
+    private Retry retry = new Retry();
+    private PromptCache promptCache = new PromptCache();
+    private HistorySnapshot historySnapshot = new HistorySnapshot();
+    private StallSampler stallSampler = new StallSampler();
+
+    @Data
+    public static class Partition {
+        // Monthly partitions of t_chat_message created ahead of the current month
+        private int monthsAhead = 2;
+        private String cron = "0 0 3 * * *";
+    }
+
+    @Data
+    public static class Transfer {
+        // Rows pulled per round trip from the export cursor
+        private int fetchSize = 500;
+        // Messages per JDBC batch on import
+        private int batchSize = 500;
+    }
+
+    @Data
+    public static class WarmUp {
+        private boolean enabled = true;
+        // Most recent sessions of a user whose history is prefetched
+        private int sessions = 5;
+        // Warm-ups running at the same time, further ones are skipped
+        private int maxConcurrent = 4;
+        // Warm-ups started per second across all users
+        private int perSecond = 20;
+    }
+
+    @Data
+    public static class Idempotency {
+        // How long a completed response is replayed for a repeated Idempotency-Key
+        private Duration ttl = Duration.ofMinutes(10);
+        private int maxEntries = 10_000;
+        // Frames kept per response; a longer one is not replayed and a repeat runs it again
+        private int maxReplayFrames = 4096;
+    }
+
+    @Data
+    public static class Limiter {
+        private boolean enabled = true;
+        // Concurrent streaming requests, adjusted between min and max at runtime
+        private int initialLimit = 100;
+        private int minLimit = 10;
+        private int maxLimit = 1000;
+        // Fixed cap for everything that is not a stream
+        private int maxCheapInFlight = 2000;
+        // Pressure beyond any of these cuts the limit and sheds new streams
+        private Duration maxEventLoopLag = Duration.ofMillis(50);
+        private int maxPendingAcquires = 50;
+        private int maxDbWaiters = 5;
+        private double backoffRatio = 0.8;
+        // Slowdown in time to first byte over the baseline that still counts as healthy
+        private double tolerance = 1.5;
+        // Event loop probes and limit adjustments, each on its own thread
+        private Duration probeInterval = Duration.ofMillis(50);
+        private Duration adjustInterval = Duration.ofMillis(500);
+    }
+
+    @Data
+    public static class Store {
+        // jpa (PostgreSQL) or log (local segment files, no database)
+        private String type = "jpa";
+        private Log log = new Log();
+        // jpa: sessions whose last sequence number is kept in memory, and for how long it is trusted
+        private int lastSeqEntries = 100_000;
+        private Duration lastSeqTtl = Duration.ofSeconds(10);
+
+        @Data
+        public static class Log {
+            private String directory = "data/chat-log";
+            private DataSize segmentSize = DataSize.ofMegabytes(64);
+            // Sealed segments with a smaller share of live records are rewritten
+            private double compactionThreshold = 0.5;
+            private Duration compactionInterval = Duration.ofSeconds(60);
+            // fsync every record instead of leaving it to the OS page cache
+            private boolean forceOnAppend = false;
+        }
+    }
+
+    @Data
+    public static class Tracing {
+        // none, log, file or otlp
+        private String exporter = "none";
+        private String serviceName = "chat";
+        // Share of requests traced when the caller sends no traceparent
+        private double sampleRatio = 1.0;
+        private String file = "data/traces.jsonl";
+        private String otlpEndpoint = "http://localhost:4318/v1/traces";
+        private int maxQueuedSpans = 10_000;
+        private Duration flushInterval = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Router {
+        // Usable context window per provider, in tokens
+        private Map<String, Long> contextTokens = new HashMap<>(Map.of("groq", 8_192L, "gemini", 1_048_576L));
+        // Requests up to this size go to the lowest TTFT
+        private long shortPromptTokens = 500;
+        // Requests from this size go to the largest context window
+        private long largeContextTokens = 6_000;
+        private long expectedOutputTokens = 400;
+        // Added to a provider's score per unit of error rate: one that only fails scores this much
+        private Duration errorPenalty = Duration.ofSeconds(10);
+        // Calls in flight that double a provider's score
+        private int concurrencyHint = 50;
+    }
+
+    @Data
+    public static class Datasource {
+        // Read-only transactions go to these; empty keeps every query on spring.datasource
+        private List<Replica> replicas = new ArrayList<>();
+        // Replicas further behind than this are skipped, and reads of data written within it stay on the primary
+        private Duration maxLag = Duration.ofSeconds(5);
+        private Duration healthCheckInterval = Duration.ofSeconds(2);
+        private int replicaPoolSize = 10;
+
+        @Data
+        public static class Replica {
+            private String url;
+            private String username;
+            private String password;
+        }
+    }
+
+    @Data
+    public static class Archive {
+        private boolean enabled = true;
+        // Sessions without a new message for this long move to t_chat_session_archive
+        private Duration idleAfter = Duration.ofDays(7);
+        private Duration interval = Duration.ofMinutes(10);
+        // Sessions moved per transaction
+        private int batchSize = 100;
+        private int maxBatchesPerRun = 50;
+    }
+
+    @Data
+    public static class Purge {
+        private boolean enabled = true;
+        private Duration interval = Duration.ofMinutes(1);
+        // Deleted sessions whose messages are removed together
+        private int batchSize = 100;
+        private int maxBatchesPerRun = 20;
+        // Messages removed per statement, and the pause between statements so replicas and vacuum keep up
+        private int chunkSize = 5000;
+        private int maxChunksPerBatch = 20;
+        private Duration pause = Duration.ofMillis(100);
+    }
+
+    @Data
+    public static class Usage {
+        private Duration flushInterval = Duration.ofSeconds(10);
+        // Prompt plus completion tokens per user and UTC day / calendar month, 0 for no limit
+        private long dailyTokens = 0;
+        private long monthlyTokens = 0;
+    }
+
+    @Data
+    public static class Retry {
+        private int maxRetries = 3;
+        // Exponential backoff from baseDelay up to maxDelay, with jitter
+        private Duration baseDelay = Duration.ofMillis(250);
+        private Duration maxDelay = Duration.ofSeconds(4);
+        // A 429 asking to wait longer than this fails right away
+        private Duration maxRetryAfter = Duration.ofSeconds(10);
+        // Whole provider call including retries and streaming
+        private Duration deadline = Duration.ofSeconds(120);
+        private Duration firstDeltaTimeout = Duration.ofSeconds(30);
+        private Duration idleTimeout = Duration.ofSeconds(60);
+        // Retries earned per provider call, the bucket holds at most budgetCapacity
+        private double budgetRatio = 0.2;
+        private int budgetCapacity = 20;
+        private int minRetriesPerSecond = 2;
+    }
+
+    @Data
+    public static class PromptCache {
+        private boolean enabled = true;
+        private int maxEntries = 10_000;
+        private Duration ttl = Duration.ofHours(24);
+        // Longer first prompts are rarely asked twice
+        private int maxPromptChars = 500;
+        // MinHash LSH: bands * rows hashes, prompts sharing all rows of any band are compared.
+        // Candidates start to show up around a trigram similarity of (1 / bands) ^ (1 / rows)
+        private int bands = 16;
+        private int rows = 4;
+        // Estimated trigram Jaccard similarity needed to serve a cached answer
+        private double minSimilarity = 0.7;
+    }
+
+    @Data
+    public static class HistorySnapshot {
+        private boolean enabled = true;
+        private String path = "data/session-history.snapshot";
+        // Written on shutdown and at this interval, so a crash loses at most this much
+        private Duration interval = Duration.ofMinutes(5);
+        private int maxSessions = 50_000;
+    }
+
+    @Data
+    public static class StallSampler {
+        private boolean enabled = true;
+        // Probe tasks are posted to every server event loop this often
+        private Duration interval = Duration.ofMillis(10);
+        // A probe waiting longer than this is a stall, the loop's stack is sampled until it runs
+        private Duration threshold = Duration.ofMillis(30);
+        private int stackDepth = 32;
+        private int maxStacks = 200;
+        // Stalls at least this long are also logged with their stack
+        private Duration logThreshold = Duration.ofMillis(500);
+    }
+}
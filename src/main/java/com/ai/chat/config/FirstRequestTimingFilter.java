@@ -0,0 +1,50 @@
+package com.ai.chat.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Logs JVM start to application ready and JVM start to the first completed request,
+ * which is what bench/startup.sh compares across run modes.
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class FirstRequestTimingFilter implements WebFilter {
+
+    private final AtomicBoolean firstRequestSeen = new AtomicBoolean();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        log.info("Startup: application ready {} ms after JVM start", sinceJvmStart());
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (firstRequestSeen.get()) {
+            return chain.filter(exchange);
+        }
+        return chain.filter(exchange)
+                .doFinally(signal -> {
+                    if (firstRequestSeen.compareAndSet(false, true)) {
+                        log.info("Startup: first request {} completed {} ms after JVM start",
+                                exchange.getRequest().getPath(), sinceJvmStart());
+                    }
+                });
+    }
+
+    private static long sinceJvmStart() {
+        return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+}
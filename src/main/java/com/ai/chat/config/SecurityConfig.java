@@ -1,6 +1,7 @@
 package com.ai.chat.config;
 
 import com.ai.chat.dto.UserContext;
+import com.ai.chat.tracing.Tracer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
@@ -9,21 +10,28 @@ import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.security.oauth2.server.resource.web.server.authentication.ServerBearerTokenAuthenticationConverter;
 import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.ServerAuthenticationConverter;
 
 @Configuration
 @EnableWebFluxSecurity
 public class SecurityConfig {
 
+    // The "admin" scope of the token, mapped by the resource server's default authorities converter
+    private static final String ADMIN = "SCOPE_admin";
+
     @Bean
-    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http) {
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http, Tracer tracer) {
 
         return http
                 .csrf(ServerHttpSecurity.CsrfSpec::disable)
                 .requestCache(ServerHttpSecurity.RequestCacheSpec::disable)
                 .headers(headers -> headers
+                        // Cache headers stay on: no-store for the API, static resources set their own
                         .frameOptions(ServerHttpSecurity.HeaderSpec.FrameOptionsSpec::disable)
-                        .cache(ServerHttpSecurity.HeaderSpec.CacheSpec::disable)
                 )
                 .authorizeExchange(exchanges -> exchanges
                         .pathMatchers("/login.html",
@@ -32,10 +40,18 @@ public class SecurityConfig {
                                 "favicon.ico",
                                 "/css/**",
                                 "/js/**").permitAll()
+                        // Operational stats and resets, not for every user
+                        .pathMatchers("/v1/api/limiter",
+                                "/v1/api/event-loop-stalls",
+                                "/v1/api/router",
+                                "/v1/api/retries",
+                                "/v1/api/prompt-cache",
+                                "/v1/api/db-stats").hasAuthority(ADMIN)
                         .anyExchange().authenticated()
                 )
-                .oauth2ResourceServer(oauth -> oauth.jwt(
-                        jwtSpec -> jwtSpec.jwkSetUri("http://localhost:8081/auth/.well-known/jwks.json")
+                .oauth2ResourceServer(oauth -> oauth
+                        .bearerTokenConverter(bearerTokenConverter())
+                        .jwt(jwtSpec -> jwtSpec.jwtDecoder(jwtDecoder(tracer))
                 )).addFilterAfter((exchange, chain) ->
                                 ReactiveSecurityContextHolder.getContext()
                                         .map(SecurityContext::getAuthentication)
@@ -59,5 +75,23 @@ public class SecurityConfig {
                         SecurityWebFiltersOrder.AUTHENTICATION)
                 .build();
     }
-}
 
+    private ReactiveJwtDecoder jwtDecoder(Tracer tracer) {
+        ReactiveJwtDecoder decoder = NimbusReactiveJwtDecoder
+                .withJwkSetUri("http://localhost:8081/auth/.well-known/jwks.json")
+                .build();
+        // Includes the JWK set fetch when the keys are not cached yet
+        return token -> tracer.mono("jwt.decode", span -> decoder.decode(token));
+    }
+
+    private ServerAuthenticationConverter bearerTokenConverter() {
+        ServerBearerTokenAuthenticationConverter header = new ServerBearerTokenAuthenticationConverter();
+        // Browsers cannot set headers on the websocket handshake, so /v1/ws/chat?access_token=... is accepted
+        // there only; anywhere else a token in the URL would end up in access logs and proxies
+        ServerBearerTokenAuthenticationConverter query = new ServerBearerTokenAuthenticationConverter();
+        query.setAllowUriQueryParameter(true);
+        return exchange -> WebSocketConfig.CHAT_PATH.equals(exchange.getRequest().getPath().pathWithinApplication().value())
+                ? query.convert(exchange)
+                : header.convert(exchange);
+    }
+}
@@ -0,0 +1,63 @@
+package com.ai.chat.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.reactive.config.ResourceHandlerRegistry;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.reactive.resource.EncodedResourceResolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves the files prepared by the static-assets build step (see pom.xml). The .br/.gz sibling
+ * matching Accept-Encoding is sent as is, nothing is compressed per request. Files with a content
+ * hash in their name, the css/js, are cached for a year; anything else, the pages and any asset that
+ * missed the build step, is revalidated against the ETag. API responses keep Spring Security's no-store headers.
+ */
+@Configuration
+public class StaticResourceConfig implements WebFluxConfigurer {
+
+    private static final CacheControl FINGERPRINTED = CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable();
+    // chat-<md5>.css, as named by the build step
+    private static final String FINGERPRINTED_NAME = "{file:.+-[0-9a-f]{32}\\..+}";
+
+    // Keyed by URL, so each encoding of a file gets its own tag
+    private final Map<String, String> etags = new ConcurrentHashMap<>();
+
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        register(registry, "/css/" + FINGERPRINTED_NAME, "classpath:/static/css/", FINGERPRINTED);
+        register(registry, "/js/" + FINGERPRINTED_NAME, "classpath:/static/js/", FINGERPRINTED);
+        register(registry, "/**", "classpath:/static/", CacheControl.noCache());
+    }
+
+    private void register(ResourceHandlerRegistry registry, String pattern, String location, CacheControl cacheControl) {
+        registry.addResourceHandler(pattern)
+                .addResourceLocations(location)
+                .setCacheControl(cacheControl)
+                .setEtagGenerator(this::etag)
+                .resourceChain(true)
+                .addResolver(new EncodedResourceResolver());
+    }
+
+    private String etag(Resource resource) {
+        try {
+            return etags.computeIfAbsent(resource.getURL().toString(), url -> {
+                try (InputStream in = resource.getInputStream()) {
+                    return DigestUtils.md5DigestAsHex(in);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
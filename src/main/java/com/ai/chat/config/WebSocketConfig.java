@@ -0,0 +1,21 @@
+package com.ai.chat.config;
+
+import com.ai.chat.controller.ChatWebSocketHandler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
+
+import java.util.Map;
+
+@Configuration
+public class WebSocketConfig {
+
+    public static final String CHAT_PATH = "/v1/ws/chat";
+
+    @Bean
+    public HandlerMapping webSocketHandlerMapping(ChatWebSocketHandler chatWebSocketHandler) {
+        return new SimpleUrlHandlerMapping(Map.of(CHAT_PATH, chatWebSocketHandler), Ordered.HIGHEST_PRECEDENCE);
+    }
+}
@@ -1,12 +1,27 @@
 package com.ai.chat.controller;
 
+import com.ai.chat.cache.IdempotencyStore;
+import com.ai.chat.cache.PromptCache;
+import com.ai.chat.dto.CompareSelectionDto;
 import com.ai.chat.dto.UserContext;
 import com.ai.chat.dto.UserPromptDto;
+import com.ai.chat.limiter.AdaptiveConcurrencyLimiter;
+import com.ai.chat.limiter.EventLoopStallSampler;
+import com.ai.chat.retry.ProviderRetry;
+import com.ai.chat.routing.ProviderRouter;
 import com.ai.chat.service.ChatService;
+import com.ai.chat.service.ChatTransferService;
+import com.ai.chat.store.HibernateStatistics;
+import com.ai.chat.tracing.Tracer;
+import com.ai.chat.usage.TokenAccounting;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -19,12 +34,107 @@ public class ChatController {
     @Autowired
     private ChatService chatService;
 
+    // Only available with the jpa history store
+    @Autowired(required = false)
+    private ChatTransferService chatTransferService;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    @Autowired
+    private Tracer tracer;
+
+    @Autowired
+    private ProviderRouter providerRouter;
+
+    // Only available with the jpa history store
+    @Autowired(required = false)
+    private HibernateStatistics hibernateStatistics;
+
+    @Autowired
+    private TokenAccounting tokenAccounting;
+
+    @Autowired
+    private ProviderRetry providerRetry;
+
+    @Autowired
+    private PromptCache promptCache;
+
+    @Autowired
+    private EventLoopStallSampler stallSampler;
+
     @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> stream(@RequestBody UserPromptDto userPromptDto) {
+    public Flux<String> stream(@RequestBody UserPromptDto userPromptDto,
+                               @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
 
+        return tracer.flux("chat.stream", span -> Flux.deferContextual(ctx -> {
+            UserContext user = ctx.get("USER_DATA");
+            span.tag("provider", userPromptDto.getProvider())
+                    .tag("session.id", userPromptDto.getSessionId());
+            if (idempotencyKey == null || idempotencyKey.isBlank()) {
+                return streamOrCompare(userPromptDto, user);
+            }
+            span.tag("idempotency.key", idempotencyKey);
+            return idempotencyStore.execute(user.getUserId(), idempotencyKey, userPromptDto,
+                    () -> streamOrCompare(userPromptDto, user));
+        }));
+    }
+
+    private Flux<String> streamOrCompare(UserPromptDto userPromptDto, UserContext user) {
+        if (userPromptDto.getProviders() != null && userPromptDto.getProviders().size() > 1) {
+            return chatService.compareChat(userPromptDto.getProviders(), userPromptDto.getPrompt(), user, userPromptDto.getSessionId());
+        }
+        return chatService.streamChat(userPromptDto.getProvider(), userPromptDto.getPrompt(), user, userPromptDto.getSessionId());
+    }
+
+    // A new version of user message seq, answered on its own branch
+    @PostMapping(value = "/sessions/{sessionId}/messages/{seq}/edit", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<String> editMessage(@PathVariable Long sessionId, @PathVariable long seq,
+                                    @RequestBody UserPromptDto userPromptDto) {
+        return Flux.deferContextual(ctx -> {
+            UserContext user = ctx.get("USER_DATA");
+            return chatService.editChat(userPromptDto.getProvider(), userPromptDto.getPrompt(), seq, user, sessionId);
+        });
+    }
+
+    // Another answer next to assistant message seq
+    @PostMapping(value = "/sessions/{sessionId}/messages/{seq}/regenerate", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<String> regenerateMessage(@PathVariable Long sessionId, @PathVariable long seq,
+                                          @RequestParam(required = false) String provider) {
+        return Flux.deferContextual(ctx -> {
+            UserContext user = ctx.get("USER_DATA");
+            return chatService.regenerateChat(provider, seq, user, sessionId);
+        });
+    }
+
+    @PostMapping("/sessions/{sessionId}/messages/{seq}/switch")
+    public Mono<ResponseEntity<?>> switchBranch(@PathVariable Long sessionId, @PathVariable long seq) {
+        return Mono.deferContextual(ctx -> {
+            UserContext user = ctx.get("USER_DATA");
+            return Mono.fromCallable(() -> chatService.switchBranch(user.getUserId(), sessionId, seq))
+                    .subscribeOn(Schedulers.boundedElastic());
+        });
+    }
+
+    // Follows the turns of a session started from another tab or device, see LiveSessions
+    @GetMapping(value = "/sessions/{sessionId}/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<String> watchSession(@PathVariable Long sessionId) {
         return Flux.deferContextual(ctx -> {
             UserContext user = ctx.get("USER_DATA");
-            return chatService.streamChat(userPromptDto.getProvider(), userPromptDto.getPrompt(), user, userPromptDto.getSessionId());
+            return chatService.watchSession(user.getUserId(), sessionId);
+        });
+    }
+
+    @PostMapping("/compare/{compareId}/select")
+    public Mono<ResponseEntity<?>> selectComparisonWinner(@PathVariable String compareId,
+                                                          @RequestBody CompareSelectionDto selection) {
+        return Mono.deferContextual(ctx -> {
+            UserContext user = ctx.get("USER_DATA");
+            return Mono.fromCallable(() -> chatService.selectComparisonWinner(user, compareId, selection.getProvider()))
+                    .subscribeOn(Schedulers.boundedElastic());
         });
     }
 
@@ -47,7 +157,9 @@ public class ChatController {
     }
 
     @GetMapping("/sessions/{sessionId}/messages")
-    public Mono<ResponseEntity<?>> getMessages(@PathVariable Long sessionId) {
+    public Mono<ResponseEntity<?>> getMessages(@PathVariable Long sessionId,
+                                               @RequestParam(required = false) Long since,
+                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         return Mono.deferContextual(ctx -> {
             // 1. Safe pull: if key is missing, user is null instead of crashing
             UserContext user = ctx.getOrDefault("USER_DATA", null);
@@ -59,8 +171,7 @@ public class ChatController {
             }
 
             // 2. Proceed with the blocking call on the correct scheduler
-            return Mono.fromCallable(() -> chatService.getMessages(sessionId, user.getUserId()))
-                    .map(ResponseEntity::ok)
+            return Mono.<ResponseEntity<?>>fromCallable(() -> chatService.getMessages(sessionId, user.getUserId(), since, ifNoneMatch))
                     .subscribeOn(Schedulers.boundedElastic());
         });
     }
@@ -73,4 +184,95 @@ public class ChatController {
                     .subscribeOn(Schedulers.boundedElastic());
         });
     }
+
+    @DeleteMapping("/sessions/deleteAll")
+    public Mono<ResponseEntity<?>> deleteAllSessions() {
+        return Mono.deferContextual(ctx -> {
+            UserContext user = ctx.get("USER_DATA");
+            return Mono.fromCallable(() -> chatService.deleteAllSessions(user.getUserId()))
+                    .subscribeOn(Schedulers.boundedElastic());
+        });
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<Void> exportHistory(ServerHttpResponse response) {
+        if (chatTransferService == null) {
+            response.setStatusCode(HttpStatus.NOT_IMPLEMENTED);
+            return response.setComplete();
+        }
+        return Mono.deferContextual(ctx -> {
+            UserContext user = ctx.get("USER_DATA");
+            response.getHeaders().setContentType(MediaType.APPLICATION_NDJSON);
+            response.getHeaders().setContentDisposition(ContentDisposition.attachment()
+                    .filename("chat-history.ndjson")
+                    .build());
+            return response.writeWith(chatTransferService.exportHistory(user.getUserId(), response.bufferFactory()));
+        });
+    }
+
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<?>> importHistory(ServerHttpRequest request) {
+        if (chatTransferService == null) {
+            return Mono.just(ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build());
+        }
+        return Mono.deferContextual(ctx -> {
+            UserContext user = ctx.get("USER_DATA");
+            return chatTransferService.importHistory(user, request.getBody());
+        });
+    }
+
+    @GetMapping("/limiter")
+    public Mono<ResponseEntity<?>> limiterStats() {
+        return Mono.just(ResponseEntity.ok(concurrencyLimiter.snapshot()));
+    }
+
+    // Stacks that held up the server event loops, by the time they cost
+    @GetMapping("/event-loop-stalls")
+    public Mono<ResponseEntity<?>> eventLoopStalls() {
+        return Mono.just(ResponseEntity.ok(stallSampler.snapshot()));
+    }
+
+    // Per-provider statistics and the latest "auto" routing decisions
+    @GetMapping("/router")
+    public Mono<ResponseEntity<?>> routerStats() {
+        return Mono.just(ResponseEntity.ok(providerRouter.snapshot()));
+    }
+
+    // Retries per provider, the latency they added and the shared retry budget
+    @GetMapping("/retries")
+    public Mono<ResponseEntity<?>> retryStats() {
+        return Mono.just(ResponseEntity.ok(providerRetry.snapshot()));
+    }
+
+    // Hit rate of the near-duplicate first-prompt cache
+    @GetMapping("/prompt-cache")
+    public Mono<ResponseEntity<?>> promptCacheStats() {
+        return Mono.just(ResponseEntity.ok(promptCache.snapshot()));
+    }
+
+    // The caller's token usage against the quotas
+    @GetMapping("/usage")
+    public Mono<ResponseEntity<?>> usage() {
+        return Mono.deferContextual(ctx -> {
+            UserContext user = ctx.get("USER_DATA");
+            return Mono.just(ResponseEntity.ok(tokenAccounting.usage(user.getUserId())));
+        });
+    }
+
+    @GetMapping("/db-stats")
+    public Mono<ResponseEntity<?>> dbStats() {
+        if (hibernateStatistics == null) {
+            return Mono.just(ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build());
+        }
+        return Mono.just(ResponseEntity.ok(hibernateStatistics.snapshot()));
+    }
+
+    @DeleteMapping("/db-stats")
+    public Mono<ResponseEntity<?>> resetDbStats() {
+        if (hibernateStatistics == null) {
+            return Mono.just(ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build());
+        }
+        hibernateStatistics.reset();
+        return Mono.just(ResponseEntity.noContent().build());
+    }
 }
@@ -0,0 +1,206 @@
+package com.ai.chat.controller;
+
+import com.ai.chat.dto.UserContext;
+import com.ai.chat.service.ChatService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One authenticated connection carrying many chat streams, multiplexed by a client chosen stream id.
+ * <p>
+ * Client to server (text frames, JSON):
+ * <pre>
+ * {"type":"prompt","streamId":1,"sessionId":42,"provider":"groq","prompt":"..."}
+ * {"type":"cancel","streamId":1}
+ * </pre>
+ * Server to client (binary frames): {@code [type:1][streamId:4]} followed by
+ * <ul>
+ *     <li>{@code S} session, first frame of a stream: {@code [sessionId:8]}, the session to send later
+ *     prompts of the conversation to, new when the prompt had none</li>
+ *     <li>{@code D} delta: one or more {@code [length:2][utf-8 text]} pieces</li>
+ *     <li>{@code F} finished, {@code C} cancelled: no payload</li>
+ *     <li>{@code E} error: utf-8 message</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class ChatWebSocketHandler implements WebSocketHandler {
+
+    private static final byte SESSION = 'S';
+    private static final byte DELTA = 'D';
+    private static final byte FINISHED = 'F';
+    private static final byte CANCELLED = 'C';
+    private static final byte ERROR = 'E';
+
+    private static final int MAX_STREAMS_PER_CONNECTION = 16;
+    private static final int MAX_DELTAS_PER_FRAME = 64;
+    private static final Duration FRAME_WINDOW = Duration.ofMillis(20);
+    // Keeps every piece below the 2 byte length prefix even for 4 byte code points
+    private static final int MAX_PIECE_CHARS = 16 * 1024;
+
+    private final ChatService chatService;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public ChatWebSocketHandler(ChatService chatService) {
+        this.chatService = chatService;
+    }
+
+    @Override
+    public Mono<Void> handle(WebSocketSession session) {
+        return session.getHandshakeInfo().getPrincipal()
+                .cast(JwtAuthenticationToken.class)
+                .map(auth -> toUserContext(auth.getToken()))
+                .flatMap(user -> {
+                    Map<Integer, ActiveStream> active = new ConcurrentHashMap<>();
+                    Sinks.Many<Flux<WebSocketMessage>> streams = Sinks.many().unicast().onBackpressureBuffer();
+
+                    Mono<Void> input = session.receive()
+                            .filter(message -> message.getType() == WebSocketMessage.Type.TEXT)
+                            .map(WebSocketMessage::getPayloadAsText)
+                            .doOnNext(text -> onClientMessage(session, user, text, active, streams))
+                            .doFinally(signal -> {
+                                active.values().forEach(ActiveStream::cancel);
+                                streams.tryEmitComplete();
+                            })
+                            .then();
+
+                    Mono<Void> output = session.send(streams.asFlux().flatMap(frames -> frames, MAX_STREAMS_PER_CONNECTION));
+
+                    return Mono.when(input, output);
+                });
+    }
+
+    private void onClientMessage(WebSocketSession session, UserContext user, String text,
+                                 Map<Integer, ActiveStream> active,
+                                 Sinks.Many<Flux<WebSocketMessage>> streams) {
+        JsonNode request;
+        try {
+            request = mapper.readTree(text);
+        } catch (Exception e) {
+            log.warn("Invalid websocket message: {}", e.getMessage());
+            return;
+        }
+
+        int streamId = request.path("streamId").asInt();
+        String type = request.path("type").asString("");
+
+        if ("cancel".equals(type)) {
+            ActiveStream stream = active.get(streamId);
+            if (stream != null) stream.cancel();
+            return;
+        }
+
+        if (!"prompt".equals(type) || active.containsKey(streamId)) return;
+
+        ActiveStream stream = new ActiveStream(Sinks.empty(), new AtomicBoolean());
+        active.put(streamId, stream);
+
+        Long sessionId = request.hasNonNull("sessionId") ? request.get("sessionId").asLong() : null;
+        String provider = request.path("provider").asString("groq");
+        String prompt = request.path("prompt").asString("");
+
+        // Resolved before the provider is called, so the session frame goes out ahead of every delta
+        Sinks.One<Long> resolved = Sinks.one();
+        Flux<WebSocketMessage> deltas = Flux.defer(() -> chatService.streamText(provider, prompt, user, sessionId,
+                        chatSession -> resolved.tryEmitValue(chatSession.getSessionId())))
+                .subscribeOn(Schedulers.boundedElastic())
+                .bufferTimeout(MAX_DELTAS_PER_FRAME, FRAME_WINDOW)
+                .map(batch -> deltaFrame(session, streamId, batch))
+                .doFinally(signal -> resolved.tryEmitEmpty());
+
+        Flux<WebSocketMessage> frames = Flux.merge(resolved.asMono().map(id -> sessionFrame(session, streamId, id)), deltas)
+                .concatWith(Mono.fromSupplier(() -> controlFrame(session, FINISHED, streamId, null)))
+                .onErrorResume(e -> Mono.just(controlFrame(session, ERROR, streamId, String.valueOf(e.getMessage()))))
+                // Cancelling completes this stream and cancels the provider Flux upstream of it
+                .takeUntilOther(stream.signal().asMono())
+                .concatWith(Mono.defer(() -> stream.cancelled().get()
+                        ? Mono.just(controlFrame(session, CANCELLED, streamId, null))
+                        : Mono.empty()))
+                .doFinally(signal -> active.remove(streamId, stream));
+
+        streams.tryEmitNext(frames);
+    }
+
+    private WebSocketMessage deltaFrame(WebSocketSession session, int streamId, List<String> deltas) {
+        List<byte[]> pieces = new ArrayList<>(deltas.size());
+        int size = 5;
+        for (String delta : deltas) {
+            for (int start = 0; start < delta.length(); ) {
+                int end = Math.min(delta.length(), start + MAX_PIECE_CHARS);
+                if (end < delta.length() && Character.isHighSurrogate(delta.charAt(end - 1))) end--;
+                byte[] piece = delta.substring(start, end).getBytes(StandardCharsets.UTF_8);
+                pieces.add(piece);
+                size += 2 + piece.length;
+                start = end;
+            }
+        }
+
+        DataBuffer buffer = session.bufferFactory().allocateBuffer(size);
+        writeHeader(buffer, DELTA, streamId);
+        for (byte[] piece : pieces) {
+            buffer.write((byte) (piece.length >>> 8));
+            buffer.write((byte) piece.length);
+            buffer.write(piece);
+        }
+        return session.binaryMessage(factory -> buffer);
+    }
+
+    private WebSocketMessage sessionFrame(WebSocketSession session, int streamId, long sessionId) {
+        DataBuffer buffer = session.bufferFactory().allocateBuffer(5 + 8);
+        writeHeader(buffer, SESSION, streamId);
+        for (int shift = 56; shift >= 0; shift -= 8) buffer.write((byte) (sessionId >>> shift));
+        return session.binaryMessage(factory -> buffer);
+    }
+
+    private WebSocketMessage controlFrame(WebSocketSession session, byte type, int streamId, String message) {
+        byte[] payload = message == null ? new byte[0] : message.getBytes(StandardCharsets.UTF_8);
+        DataBuffer buffer = session.bufferFactory().allocateBuffer(5 + payload.length);
+        writeHeader(buffer, type, streamId);
+        buffer.write(payload);
+        return session.binaryMessage(factory -> buffer);
+    }
+
+    private static void writeHeader(DataBuffer buffer, byte type, int streamId) {
+        buffer.write(type);
+        buffer.write((byte) (streamId >>> 24));
+        buffer.write((byte) (streamId >>> 16));
+        buffer.write((byte) (streamId >>> 8));
+        buffer.write((byte) streamId);
+    }
+
+    private record ActiveStream(Sinks.Empty<Void> signal, AtomicBoolean cancelled) {
+
+        void cancel() {
+            cancelled.set(true);
+            signal.tryEmitEmpty();
+        }
+    }
+
+    private static UserContext toUserContext(Jwt jwt) {
+        return new UserContext(
+                jwt.getSubject(),
+                jwt.getClaimAsString("username"),
+                jwt.getClaimAsString("email")
+        );
+    }
+}
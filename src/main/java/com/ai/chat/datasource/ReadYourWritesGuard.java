@@ -0,0 +1,74 @@
+package com.ai.chat.datasource;
+
+import com.ai.chat.config.ChatProperties;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Remembers which users and sessions were written in the last {@code chat.datasource.max-lag} and
+ * pins reads of those to the primary, so a user never sees a reply disappear on a lagging replica.
+ * The pin is thread-bound and read by {@link ReplicaRoutingDataSource} when the read-only
+ * transaction obtains its connection. Writes are only seen on this instance.
+ */
+@Component
+public class ReadYourWritesGuard {
+
+    private static final ThreadLocal<Boolean> PRIMARY = new ThreadLocal<>();
+
+    private final Map<String, Long> recentWrites = new ConcurrentHashMap<>();
+    private final long windowNanos;
+
+    public ReadYourWritesGuard(ChatProperties chatProperties) {
+        this.windowNanos = chatProperties.getDatasource().getMaxLag().toNanos();
+    }
+
+    static boolean primaryRequired() {
+        return PRIMARY.get() != null;
+    }
+
+    public void userWritten(String userId) {
+        recentWrites.put("u:" + userId, System.nanoTime());
+    }
+
+    public void sessionWritten(Long sessionId) {
+        recentWrites.put("s:" + sessionId, System.nanoTime());
+    }
+
+    public <T> T readUser(String userId, Supplier<T> read) {
+        return read(recent("u:" + userId), read);
+    }
+
+    public <T> T readSession(Long sessionId, Supplier<T> read) {
+        return read(recent("s:" + sessionId), read);
+    }
+
+    public <T> T readSessions(Collection<Long> sessionIds, Supplier<T> read) {
+        return read(sessionIds.stream().anyMatch(sessionId -> recent("s:" + sessionId)), read);
+    }
+
+    private boolean recent(String key) {
+        Long writtenAt = recentWrites.get(key);
+        return writtenAt != null && System.nanoTime() - writtenAt < windowNanos;
+    }
+
+    private static <T> T read(boolean primary, Supplier<T> read) {
+        if (!primary || primaryRequired()) return read.get();
+        PRIMARY.set(Boolean.TRUE);
+        try {
+            return read.get();
+        } finally {
+            PRIMARY.remove();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.datasource.max-lag:5s}")
+    public void expire() {
+        long now = System.nanoTime();
+        recentWrites.values().removeIf(writtenAt -> now - writtenAt >= windowNanos);
+    }
+}
@@ -0,0 +1,65 @@
+package com.ai.chat.datasource;
+
+import com.ai.chat.config.ChatProperties;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.autoconfigure.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Routes read-only transactions to the replicas in {@code chat.datasource.replicas} and everything
+ * else to {@code spring.datasource}. The routing DataSource is a {@link LazyConnectionDataSourceProxy}:
+ * it only fetches a physical connection at the first statement, after the transaction manager marked
+ * the connection read-only, and then takes it from {@link ReplicaRoutingDataSource}.
+ * <p>
+ * For a local test point a replica at a second PostgreSQL started with
+ * {@code pg_basebackup -R} from the first; any database holding the same schema, including the
+ * primary itself, also works as a stand-in since it reports no lag.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "chat.datasource.replicas[0]", name = "url")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaDataSource(HikariDataSource primaryDataSource,
+                                                      ChatProperties chatProperties) {
+        ChatProperties.Datasource properties = chatProperties.getDatasource();
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (ChatProperties.Datasource.Replica replica : properties.getReplicas()) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("replica-" + replicas.size());
+            dataSource.setJdbcUrl(replica.getUrl());
+            dataSource.setUsername(replica.getUsername());
+            dataSource.setPassword(replica.getPassword());
+            dataSource.setReadOnly(true);
+            dataSource.setMaximumPoolSize(properties.getReplicaPoolSize());
+            // A replica that is down must neither fail startup nor hold a read up for long
+            dataSource.setInitializationFailTimeout(-1);
+            dataSource.setConnectionTimeout(1_000);
+            replicas.add(dataSource);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, properties.getMaxLag());
+    }
+
+    @Bean
+    @Primary
+    public LazyConnectionDataSourceProxy dataSource(HikariDataSource primaryDataSource,
+                                                    ReplicaRoutingDataSource replicaDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        dataSource.setReadOnlyDataSource(replicaDataSource);
+        return dataSource;
+    }
+}
@@ -0,0 +1,119 @@
+package com.ai.chat.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only side of the routing set up in {@link ReplicaDataSourceConfig}: hands out connections
+ * round robin from replicas that passed their last health check and are within the allowed lag,
+ * and falls back to the primary when none is, or when {@link ReadYourWritesGuard} pins the read.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractDataSource implements DisposableBean {
+
+    // Zero when the replica has replayed everything it received, so an idle primary does not look like lag
+    private static final String LAG_QUERY = """
+            SELECT CASE
+                       WHEN NOT pg_is_in_recovery() THEN 0
+                       WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                       ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0)
+                   END""";
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final long maxLagMillis;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicas, Duration maxLag) {
+        this.primary = primary;
+        this.replicas = replicas.stream().map(Replica::new).toList();
+        this.maxLagMillis = maxLag.toMillis();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!ReadYourWritesGuard.primaryRequired()) {
+            int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+            for (int i = 0; i < replicas.size(); i++) {
+                Replica replica = replicas.get((start + i) % replicas.size());
+                if (!replica.usable(maxLagMillis)) continue;
+                try {
+                    return replica.dataSource.getConnection();
+                } catch (SQLException e) {
+                    replica.down(e);
+                }
+            }
+        }
+        Connection connection = primary.getConnection();
+        connection.setReadOnly(true);
+        return connection;
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new UnsupportedOperationException("Replica connections use the configured credentials");
+    }
+
+    @Scheduled(fixedDelayString = "${chat.datasource.health-check-interval:2s}")
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.setQueryTimeout(1);
+                try (ResultSet lag = statement.executeQuery(LAG_QUERY)) {
+                    lag.next();
+                    replica.up(lag.getLong(1), maxLagMillis);
+                }
+            } catch (SQLException e) {
+                replica.down(e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        replicas.forEach(replica -> replica.dataSource.close());
+    }
+
+    private static final class Replica {
+
+        private final HikariDataSource dataSource;
+        // Unusable until the first health check passes
+        private volatile boolean healthy;
+        private volatile long lagMillis = Long.MAX_VALUE;
+
+        private Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        private boolean usable(long maxLagMillis) {
+            return healthy && lagMillis <= maxLagMillis;
+        }
+
+        private void up(long lagMillis, long maxLagMillis) {
+            boolean wasUsable = usable(maxLagMillis);
+            this.lagMillis = lagMillis;
+            this.healthy = true;
+            if (wasUsable != usable(maxLagMillis)) {
+                log.info("Replica {} {} {} ms", dataSource.getPoolName(), wasUsable ? "lagging" : "in use, lag", lagMillis);
+            }
+        }
+
+        private void down(SQLException e) {
+            if (healthy) log.warn("Replica {} down: {}", dataSource.getPoolName(), e.getMessage());
+            healthy = false;
+        }
+    }
+}
@@ -15,4 +15,7 @@ public class ChatMessageDto {
     private String content;
     @JsonFormat(pattern = "dd-MM-yyyy HH:mm:ss", timezone = "IST")
     private Timestamp createdDate;
+    private Long seq;
+    // seq of the message this one follows, 0 for the first message of a branch
+    private Long parentSeq;
 }
@@ -0,0 +1,8 @@
+package com.ai.chat.dto;
+
+import lombok.Data;
+
+@Data
+public class CompareSelectionDto {
+    private String provider;
+}
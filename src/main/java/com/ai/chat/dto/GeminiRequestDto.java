@@ -3,6 +3,7 @@ package com.ai.chat.dto;
 import com.ai.chat.records.GeminiMessagesRecord;
 import com.ai.chat.records.GeminiPartsRecord;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import lombok.Builder;
 import lombok.Data;
 
@@ -11,6 +12,8 @@ import java.util.List;
 @Data
 @Builder
 @JsonInclude(JsonInclude.Include.NON_NULL)
+// contents last so ChatRequestEncoder can append history fragments
+@JsonPropertyOrder({"systemInstruction", "generationConfig", "contents"})
 public class GeminiRequestDto {
 
     private GeminiPartsRecord systemInstruction;
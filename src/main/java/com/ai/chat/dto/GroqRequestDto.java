@@ -2,17 +2,22 @@ package com.ai.chat.dto;
 
 import com.ai.chat.records.GroqMessagesRecord;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import lombok.Builder;
 import lombok.Data;
 
 import java.util.List;
+import java.util.Map;
 
 @Data
 @Builder
 @JsonInclude(JsonInclude.Include.NON_NULL)
+// messages last so ChatRequestEncoder can append history fragments
+@JsonPropertyOrder({"model", "stream", "stream_options", "temperature", "top_p", "messages"})
 public class GroqRequestDto {
     private String model;
     private boolean stream;
+    private Map<String, Object> stream_options;
     private List<GroqMessagesRecord> messages;
     private Double temperature;
     private Double top_p;
@@ -2,9 +2,14 @@ package com.ai.chat.dto;
 
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 public class UserPromptDto {
     private String prompt;
     private Long sessionId;
+    // "auto" or missing lets ProviderRouter pick one
     private String provider;
+    // Compare mode when more than one provider is given
+    private List<String> providers;
 }
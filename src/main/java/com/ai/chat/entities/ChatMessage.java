@@ -5,7 +5,9 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.hibernate.annotations.CreationTimestamp;
 
 import java.sql.Timestamp;
@@ -23,6 +25,14 @@ public class ChatMessage {
     @Column(name = "message_id")
     private Long messageId;
 
+    // Position in the session, 1, 2, 3... assigned by the store on append
+    @Column(name = "seq")
+    private Long seq;
+
+    // seq of the message this one follows, 0 for none; null on rows written before branching, meaning seq - 1
+    @Column(name = "parent_seq")
+    private Long parentSeq;
+
     @Column(name = "role")
     private String role; // system, user, assistant
 
@@ -34,7 +44,10 @@ public class ChatMessage {
     @Column(name = "created_date")
     private Timestamp createdDate;
 
-    @ManyToOne
+    // Only the id is needed on the hot paths; reading it does not initialize the proxy
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "session_id")
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private ChatSession session;
 }
@@ -5,8 +5,11 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.SQLRestriction;
 
 import java.sql.Timestamp;
 import java.util.List;
@@ -17,6 +20,8 @@ import java.util.List;
 @Data
 @Entity
     @Table(name = "t_chat_session", schema = "ai_chat")
+// Deleted sessions wait for SessionPurger, no query of the application sees them
+@SQLRestriction("deleted_date IS NULL")
 public class ChatSession {
 
     @Id
@@ -33,11 +38,21 @@ public class ChatSession {
     @Column(name = "title")
     private String title;
 
+    // Owned by MessageSequence, a cached session entity must never write it back
+    @Column(name = "last_seq", insertable = false, updatable = false)
+    private Long lastSeq;
+
     @CreationTimestamp
     @JsonFormat(pattern = "dd-MM-yyyy HH:mm:ss", timezone = "IST")
     @Column(name = "created_date")
     private Timestamp createdDate;
 
+    // Owned by SessionPurger, set with a bulk update
+    @Column(name = "deleted_date", insertable = false, updatable = false)
+    private Timestamp deletedDate;
+
     @OneToMany(mappedBy = "session", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private List<ChatMessage> messages;
 }
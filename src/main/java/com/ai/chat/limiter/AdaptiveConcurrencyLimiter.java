@@ -0,0 +1,151 @@
+package com.ai.chat.limiter;
+
+import com.ai.chat.config.ChatProperties;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit for streaming requests in the gradient style: the limit follows the ratio of the
+ * best recent time to first byte to the current one and grows by sqrt(limit) while latency holds,
+ * and is cut multiplicatively whenever {@link LoadSignals} reports event loop, provider pool or
+ * database pool pressure. Cheap requests are only bounded by a fixed cap, so they keep being
+ * served while new streams are shed.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    // Rebase the no-load latency every minute so a slower provider does not pin the limit down
+    private static final int BASELINE_RESET_TICKS = 120;
+    private static final double SMOOTHING = 0.2;
+
+    private final ChatProperties.Limiter properties;
+    private final LoadSignals signals;
+
+    private final AtomicInteger streams = new AtomicInteger();
+    private final AtomicInteger cheap = new AtomicInteger();
+    private volatile double limit;
+
+    private long latencyNanos;
+    private long baselineNanos = Long.MAX_VALUE;
+    private int ticks;
+    private long shed;
+
+    private ScheduledExecutorService adjuster;
+
+    public AdaptiveConcurrencyLimiter(ChatProperties chatProperties, LoadSignals signals) {
+        this.properties = chatProperties.getLimiter();
+        this.signals = signals;
+        this.limit = properties.getInitialLimit();
+    }
+
+    public boolean tryAcquireStream() {
+        if (!properties.isEnabled()) return true;
+        if (!signals.overloaded()) {
+            int max = (int) limit;
+            for (int current = streams.get(); current < max; current = streams.get()) {
+                if (streams.compareAndSet(current, current + 1)) return true;
+            }
+        }
+        recordShed();
+        return false;
+    }
+
+    /**
+     * @param firstByteNanos time until the response was committed, or a negative value if it never was
+     */
+    public void releaseStream(long firstByteNanos) {
+        if (!properties.isEnabled()) return;
+        streams.decrementAndGet();
+        if (firstByteNanos >= 0) {
+            synchronized (this) {
+                latencyNanos = latencyNanos == 0
+                        ? firstByteNanos
+                        : (long) (latencyNanos + SMOOTHING * (firstByteNanos - latencyNanos));
+            }
+        }
+    }
+
+    public boolean tryAcquireCheap() {
+        if (!properties.isEnabled()) return true;
+        if (cheap.incrementAndGet() > properties.getMaxCheapInFlight()) {
+            cheap.decrementAndGet();
+            recordShed();
+            return false;
+        }
+        return true;
+    }
+
+    public void releaseCheap() {
+        if (properties.isEnabled()) cheap.decrementAndGet();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!properties.isEnabled() || adjuster != null) return;
+
+        // Its own thread, the limit must keep following the load while a blocking @Scheduled job runs
+        adjuster = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "concurrency-limiter-adjust");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getAdjustInterval().toNanos();
+        adjuster.scheduleAtFixedRate(this::adjust, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (adjuster != null) adjuster.shutdownNow();
+    }
+
+    public synchronized void adjust() {
+        double current = limit;
+        double next;
+
+        if (signals.overloaded()) {
+            next = current * properties.getBackoffRatio();
+        } else if (streams.get() < current / 2) {
+            // Nothing learned about a limit that is not being used
+            next = current;
+        } else {
+            double gradient = 1.0;
+            if (latencyNanos > 0) {
+                if (++ticks >= BASELINE_RESET_TICKS) {
+                    baselineNanos = latencyNanos;
+                    ticks = 0;
+                }
+                baselineNanos = Math.min(baselineNanos, latencyNanos);
+                gradient = Math.clamp(properties.getTolerance() * baselineNanos / latencyNanos, 0.5, 1.0);
+            }
+            next = current * gradient + Math.sqrt(current);
+        }
+
+        limit = Math.clamp(next, properties.getMinLimit(), properties.getMaxLimit());
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("limit", (int) limit);
+        snapshot.put("streams", streams.get());
+        snapshot.put("cheap", cheap.get());
+        snapshot.put("shed", shed);
+        snapshot.put("firstByteMillis", TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        snapshot.put("eventLoopLagMillis", signals.eventLoopLagMillis());
+        snapshot.put("pendingConnectionAcquires", signals.pendingConnectionAcquires());
+        snapshot.put("threadsAwaitingDbConnection", signals.threadsAwaitingDbConnection());
+        return snapshot;
+    }
+
+    private synchronized void recordShed() {
+        shed++;
+    }
+}
@@ -0,0 +1,200 @@
+package com.ai.chat.limiter;
+
+import com.ai.chat.config.ChatProperties;
+import io.netty.util.concurrent.EventExecutor;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds what stalls the server event loops in production. A probe task is posted to every loop
+ * each {@code interval}; while a probe is overdue by more than {@code threshold}, the loop thread's
+ * stack is sampled, since whatever it is running is holding up every connection on that loop.
+ * When the probe finally runs, the stall's duration is shared out among the stacks sampled during
+ * it. Stacks are counted by their frames, the ones costing the most time come first in the
+ * snapshot. Only stalled loops are sampled, a healthy node pays for the probe tasks alone.
+ */
+@Slf4j
+@Component
+public class EventLoopStallSampler {
+
+    // Stacks past the limit are counted under this one
+    private static final String OTHER = "(other stacks)";
+
+    private final LoadSignals loadSignals;
+    private final ChatProperties.StallSampler properties;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final Map<String, StackStats> stacks = new ConcurrentHashMap<>();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+    // Stalls that ended before a sample was taken
+    private final LongAdder unsampled = new LongAdder();
+
+    private List<Probe> probes;
+    private ScheduledExecutorService sampler;
+
+    public EventLoopStallSampler(LoadSignals loadSignals, ChatProperties chatProperties) {
+        this.loadSignals = loadSignals;
+        this.properties = chatProperties.getStallSampler();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!properties.isEnabled() || sampler != null) return;
+
+        probes = loadSignals.serverEventLoops().stream().map(Probe::new).toList();
+        // Its own thread, a slow @Scheduled job must not delay the samples
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-loop-stall-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getInterval().toNanos();
+        sampler.scheduleAtFixedRate(this::tick, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (sampler != null) sampler.shutdownNow();
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", properties.isEnabled());
+        snapshot.put("thresholdMs", properties.getThreshold().toMillis());
+        snapshot.put("stalls", stalls.sum());
+        snapshot.put("stalledMs", TimeUnit.NANOSECONDS.toMillis(stallNanos.sum()));
+        snapshot.put("unsampledStalls", unsampled.sum());
+        snapshot.put("stacks", stacks.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, StackStats> e) -> e.getValue().nanos.sum()).reversed())
+                .limit(20)
+                .map(e -> e.getValue().snapshot(e.getKey()))
+                .toList());
+        return snapshot;
+    }
+
+    private void tick() {
+        try {
+            long now = System.nanoTime();
+            long threshold = properties.getThreshold().toNanos();
+            for (Probe probe : probes) {
+                if (probe.pending) {
+                    if (now - probe.postedAt >= threshold) sample(probe);
+                    continue;
+                }
+                if (probe.posted) {
+                    long delay = probe.ranAt - probe.postedAt;
+                    if (delay >= threshold) record(probe, delay);
+                    probe.samples.clear();
+                }
+                probe.posted = true;
+                probe.pending = true;
+                probe.postedAt = System.nanoTime();
+                probe.executor.execute(probe::run);
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule
+            log.warn("Event loop stall sampling failed: {}", e.getMessage());
+        }
+    }
+
+    private void sample(Probe probe) {
+        Thread thread = probe.thread;
+        if (thread == null) return;
+        ThreadInfo info = threads.getThreadInfo(thread.threadId(), properties.getStackDepth());
+        if (info == null || info.getStackTrace().length == 0) return;
+
+        StringBuilder frames = new StringBuilder();
+        for (StackTraceElement frame : info.getStackTrace()) {
+            frames.append(frame).append('\n');
+        }
+        probe.samples.merge(frames.toString(), 1, Integer::sum);
+    }
+
+    private void record(Probe probe, long delay) {
+        stalls.increment();
+        stallNanos.add(delay);
+        if (probe.samples.isEmpty()) {
+            unsampled.increment();
+            return;
+        }
+
+        int total = probe.samples.values().stream().mapToInt(Integer::intValue).sum();
+        String worst = null;
+        int worstCount = 0;
+        for (Map.Entry<String, Integer> sample : probe.samples.entrySet()) {
+            String key = stacks.size() < properties.getMaxStacks() || stacks.containsKey(sample.getKey()) ? sample.getKey() : OTHER;
+            stacks.computeIfAbsent(key, k -> new StackStats()).add(sample.getValue(), delay * sample.getValue() / total);
+            if (sample.getValue() > worstCount) {
+                worst = sample.getKey();
+                worstCount = sample.getValue();
+            }
+        }
+
+        if (delay >= properties.getLogThreshold().toNanos()) {
+            log.warn("Event loop {} stalled for {} ms in:\n\tat {}", probe.thread.getName(),
+                    TimeUnit.NANOSECONDS.toMillis(delay), worst.strip().replace("\n", "\n\tat "));
+        }
+    }
+
+    private static final class Probe {
+
+        private final EventExecutor executor;
+        // Only touched by the sampler thread
+        private final Map<String, Integer> samples = new HashMap<>();
+        private boolean posted;
+        private long postedAt;
+        private volatile boolean pending;
+        private volatile long ranAt;
+        private volatile Thread thread;
+
+        private Probe(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        private void run() {
+            thread = Thread.currentThread();
+            ranAt = System.nanoTime();
+            pending = false;
+        }
+    }
+
+    private static final class StackStats {
+
+        private final LongAdder stalls = new LongAdder();
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private volatile long maxNanos;
+
+        private void add(int samples, long nanos) {
+            stalls.increment();
+            this.samples.add(samples);
+            this.nanos.add(nanos);
+            // Single writer, the sampler thread
+            if (nanos > maxNanos) maxNanos = nanos;
+        }
+
+        private Map<String, Object> snapshot(String frames) {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("stalls", stalls.sum());
+            snapshot.put("samples", samples.sum());
+            snapshot.put("totalMs", TimeUnit.NANOSECONDS.toMillis(nanos.sum()));
+            snapshot.put("maxMs", TimeUnit.NANOSECONDS.toMillis(maxNanos));
+            snapshot.put("stack", frames.lines().toList());
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.ai.chat.limiter;
+
+import com.ai.chat.cache.SessionWarmUp;
+import com.ai.chat.config.WebSocketConfig;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admits requests through the {@link AdaptiveConcurrencyLimiter} ahead of authentication, so a
+ * request that is going to be shed costs no token validation. Long running requests (streams,
+ * export, import) are limited adaptively, everything else only by a fixed cap. Websocket
+ * handshakes are refused while the node reports pressure.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class LoadSheddingFilter implements WebFilter {
+
+    private static final Set<String> STREAMING_PATHS = Set.of("/v1/api/stream", "/v1/api/export", "/v1/api/import");
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final LoadSignals signals;
+    private final SessionWarmUp sessionWarmUp;
+
+    public LoadSheddingFilter(AdaptiveConcurrencyLimiter limiter, LoadSignals signals, SessionWarmUp sessionWarmUp) {
+        this.limiter = limiter;
+        this.signals = signals;
+        this.sessionWarmUp = sessionWarmUp;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getPath().pathWithinApplication().value();
+
+        if (request.getMethod() == HttpMethod.OPTIONS) {
+            return chain.filter(exchange);
+        }
+
+        if (WebSocketConfig.CHAT_PATH.equals(path)) {
+            return signals.overloaded() ? reject(exchange) : chain.filter(exchange);
+        }
+
+        if (STREAMING_PATHS.contains(path)) {
+            if (!limiter.tryAcquireStream()) return reject(exchange);
+
+            long start = System.nanoTime();
+            AtomicLong firstByte = new AtomicLong(-1);
+            exchange.getResponse().beforeCommit(() -> {
+                firstByte.compareAndSet(-1, System.nanoTime() - start);
+                return Mono.empty();
+            });
+            return chain.filter(exchange)
+                    .doFinally(signal -> limiter.releaseStream(firstByte.get()));
+        }
+
+        if (!path.startsWith("/v1/api/")) {
+            return chain.filter(exchange);
+        }
+
+        if (!limiter.tryAcquireCheap()) return reject(exchange);
+        return chain.filter(exchange).doFinally(signal -> limiter.releaseCheap());
+    }
+
+    private Mono<Void> reject(ServerWebExchange exchange) {
+        // Prefetching histories is the first work to give up under load
+        sessionWarmUp.cancelAll();
+
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+        return response.setComplete();
+    }
+}
@@ -0,0 +1,183 @@
+package com.ai.chat.limiter;
+
+import com.ai.chat.config.ChatProperties;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.ReactorResourceFactory;
+import org.springframework.stereotype.Component;
+import reactor.netty.http.HttpResources;
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import javax.sql.DataSource;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pressure readings the concurrency limiter reacts to: how late tasks run on the server event loops,
+ * how many requests wait for a provider connection, and how many threads wait for a database connection.
+ * Registered as the {@link ConnectionProvider.MeterRegistrar} of the provider WebClient pool.
+ */
+@Slf4j
+@Component
+public class LoadSignals implements ConnectionProvider.MeterRegistrar {
+
+    private final ObjectProvider<ReactorResourceFactory> resourceFactory;
+    private final ObjectProvider<DataSource> dataSource;
+    private final ChatProperties.Limiter properties;
+
+    private final Map<String, ConnectionPoolMetrics> connectionPools = new ConcurrentHashMap<>();
+    private volatile Map<EventExecutor, AtomicLong> eventLoops;
+    private volatile HikariPoolMXBean hikariPool;
+    private volatile long eventLoopLagNanos;
+
+    private ScheduledExecutorService prober;
+
+    public LoadSignals(ObjectProvider<ReactorResourceFactory> resourceFactory,
+                       ObjectProvider<DataSource> dataSource,
+                       ChatProperties chatProperties) {
+        this.resourceFactory = resourceFactory;
+        this.dataSource = dataSource;
+        this.properties = chatProperties.getLimiter();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (prober != null) return;
+
+        // Its own thread, the readings must not freeze while a blocking @Scheduled job runs
+        prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-signals-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getProbeInterval().toNanos();
+        prober.scheduleAtFixedRate(() -> {
+            try {
+                probeEventLoops();
+            } catch (RuntimeException e) {
+                // An exception would cancel the schedule
+                log.warn("Event loop probe failed: {}", e.getMessage());
+            }
+        }, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (prober != null) prober.shutdownNow();
+    }
+
+    /**
+     * Posts a probe task to every server event loop and records how long the previous probe
+     * waited before it ran. A probe that has not run yet counts with its age so far, so a
+     * loop that is blocked outright shows up right away.
+     */
+    public void probeEventLoops() {
+        Map<EventExecutor, AtomicLong> loops = eventLoops();
+        long now = System.nanoTime();
+        long lag = 0;
+
+        for (Map.Entry<EventExecutor, AtomicLong> loop : loops.entrySet()) {
+            AtomicLong postedAt = loop.getValue();
+            long pending = postedAt.get();
+            if (pending != 0) {
+                lag = Math.max(lag, now - pending);
+                continue;
+            }
+            postedAt.set(now);
+            loop.getKey().execute(() -> postedAt.set(0));
+        }
+        eventLoopLagNanos = lag;
+    }
+
+    public long eventLoopLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(eventLoopLagNanos);
+    }
+
+    public int pendingConnectionAcquires() {
+        int pending = 0;
+        for (ConnectionPoolMetrics metrics : connectionPools.values()) {
+            pending += metrics.pendingAcquireSize();
+        }
+        return pending;
+    }
+
+    public int threadsAwaitingDbConnection() {
+        HikariPoolMXBean pool = hikariPool();
+        return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+    }
+
+    public boolean overloaded() {
+        return eventLoopLagMillis() > properties.getMaxEventLoopLag().toMillis()
+                || pendingConnectionAcquires() > properties.getMaxPendingAcquires()
+                || threadsAwaitingDbConnection() > properties.getMaxDbWaiters();
+    }
+
+    @Override
+    public void registerMetrics(String poolName, String id, SocketAddress remoteAddress, ConnectionPoolMetrics metrics) {
+        connectionPools.put(poolName + ":" + id + ":" + remoteAddress, metrics);
+    }
+
+    @Override
+    public void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress) {
+        connectionPools.remove(poolName + ":" + id + ":" + remoteAddress);
+    }
+
+    private Map<EventExecutor, AtomicLong> eventLoops() {
+        Map<EventExecutor, AtomicLong> loops = eventLoops;
+        if (loops == null) {
+            loops = new IdentityHashMap<>();
+            for (EventExecutor executor : serverEventLoops()) {
+                loops.put(executor, new AtomicLong());
+            }
+            eventLoops = loops;
+        }
+        return loops;
+    }
+
+    public List<EventExecutor> serverEventLoops() {
+        ReactorResourceFactory factory = resourceFactory.getIfAvailable();
+        LoopResources resources = factory != null ? factory.getLoopResources() : HttpResources.get();
+        // Same group the server runs on, see HttpServer#runOn
+        EventLoopGroup group = resources.onServer(LoopResources.DEFAULT_NATIVE);
+
+        List<EventExecutor> executors = new ArrayList<>();
+        for (EventExecutor executor : group) {
+            executors.add(executor);
+        }
+        return executors;
+    }
+
+    private HikariPoolMXBean hikariPool() {
+        HikariPoolMXBean pool = hikariPool;
+        if (pool == null) {
+            DataSource source = dataSource.getIfAvailable();
+            try {
+                if (source != null && source.isWrapperFor(HikariDataSource.class)) {
+                    // Null until the pool has started
+                    pool = source.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+                    hikariPool = pool;
+                }
+            } catch (Exception e) {
+                log.warn("Could not read the database pool state: {}", e.getMessage());
+            }
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,12 @@
+package com.ai.chat.records;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+
+import java.time.Instant;
+
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ChatExportLineRecord(String type, Long sessionId, String title, String role, String content,
+                                   Instant createdDate, Long seq, Long parentSeq) {
+}
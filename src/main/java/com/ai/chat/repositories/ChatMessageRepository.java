@@ -1,13 +1,89 @@
 package com.ai.chat.repositories;
 
 
+import com.ai.chat.dto.ChatMessageDto;
 import com.ai.chat.entities.ChatMessage;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
 import java.util.List;
 
+// Query methods run read-only so they can be served by a replica, see ReplicaDataSourceConfig
+@Transactional(readOnly = true)
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long> {
 
     List<ChatMessage> findTop20BySessionOrderByCreatedDateDesc(Long session);
 
-    List<ChatMessage> findBySession_SessionIdOrderByCreatedDateAsc(Long sessionId);
+    // Projections: no entity, no session join and nothing kept in the persistence context
+    @Query("""
+            SELECT new com.ai.chat.dto.ChatMessageDto(m.role, m.content, m.createdDate, m.seq, COALESCE(m.parentSeq, m.seq - 1))
+            FROM ChatMessage m
+            WHERE m.session.sessionId = :sessionId
+            ORDER BY m.seq ASC""")
+    List<ChatMessageDto> findMessages(@Param("sessionId") Long sessionId, Pageable pageable);
+
+    // Last :limit messages of the branch ending at each session's latest message, oldest first, in a single round trip
+    @Query(value = """
+            WITH RECURSIVE branch AS (
+                SELECT m.session_id, m.role, m.content, m.created_date, m.seq,
+                       COALESCE(m.parent_seq, m.seq - 1) AS parent_seq, 1 AS depth
+                FROM ai_chat.t_chat_session s
+                         JOIN ai_chat.t_chat_message m ON m.session_id = s.session_id AND m.seq = s.last_seq
+                WHERE s.session_id IN (:sessionIds)
+                UNION ALL
+                SELECT m.session_id, m.role, m.content, m.created_date, m.seq,
+                       COALESCE(m.parent_seq, m.seq - 1), b.depth + 1
+                FROM branch b
+                         JOIN ai_chat.t_chat_message m ON m.session_id = b.session_id AND m.seq = b.parent_seq
+                WHERE b.depth < :limit
+            )
+            SELECT session_id AS sessionId, role AS role, content AS content, created_date AS createdDate,
+                   seq AS seq, parent_seq AS parentSeq
+            FROM branch
+            ORDER BY session_id, seq
+            """, nativeQuery = true)
+    List<RecentMessage> findRecentBySessionIds(@Param("sessionIds") List<Long> sessionIds, @Param("limit") int limit);
+
+    // Last :limit messages of the branch ending at message :seq, oldest first
+    @Query(value = """
+            WITH RECURSIVE branch AS (
+                SELECT m.session_id, m.role, m.content, m.created_date, m.seq,
+                       COALESCE(m.parent_seq, m.seq - 1) AS parent_seq, 1 AS depth
+                FROM ai_chat.t_chat_message m
+                WHERE m.session_id = :sessionId AND m.seq = :seq
+                UNION ALL
+                SELECT m.session_id, m.role, m.content, m.created_date, m.seq,
+                       COALESCE(m.parent_seq, m.seq - 1), b.depth + 1
+                FROM branch b
+                         JOIN ai_chat.t_chat_message m ON m.session_id = b.session_id AND m.seq = b.parent_seq
+                WHERE b.depth < :limit
+            )
+            SELECT session_id AS sessionId, role AS role, content AS content, created_date AS createdDate,
+                   seq AS seq, parent_seq AS parentSeq
+            FROM branch
+            ORDER BY seq
+            """, nativeQuery = true)
+    List<RecentMessage> findBranch(@Param("sessionId") Long sessionId, @Param("seq") long seq, @Param("limit") int limit);
+
+    interface RecentMessage {
+        Long getSessionId();
+
+        String getRole();
+
+        String getContent();
+
+        Timestamp getCreatedDate();
+
+        Long getSeq();
+
+        Long getParentSeq();
+
+        default ChatMessageDto toDto() {
+            return new ChatMessageDto(getRole(), getContent(), getCreatedDate(), getSeq(), getParentSeq());
+        }
+    }
 }
\ No newline at end of file
@@ -4,13 +4,30 @@ package com.ai.chat.repositories;
 import com.ai.chat.client.LLMClient;
 import com.ai.chat.entities.ChatSession;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+@Transactional(readOnly = true)
 public interface ChatSessionRepository extends JpaRepository<ChatSession, Long> {
 
     Optional<ChatSession> findTopByUserIdAndSessionId(String userId, Long sessionId);
 
     List<ChatSession> findByUserIdOrderByCreatedDateDesc(String userId);
+
+    @Query("SELECT s.lastSeq FROM ChatSession s WHERE s.userId = :userId AND s.sessionId = :sessionId")
+    Optional<Long> findLastSeq(@Param("userId") String userId, @Param("sessionId") Long sessionId);
+
+    @Query("SELECT s.sessionId AS sessionId, s.lastSeq AS lastSeq FROM ChatSession s WHERE s.sessionId IN :sessionIds")
+    List<SessionSeq> findLastSeqs(@Param("sessionIds") Collection<Long> sessionIds);
+
+    interface SessionSeq {
+        Long getSessionId();
+
+        Long getLastSeq();
+    }
 }
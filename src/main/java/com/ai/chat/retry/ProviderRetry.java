@@ -0,0 +1,197 @@
+package com.ai.chat.retry;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.tracing.Span;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retry and timeout policy of the provider streams, shared by all clients:
+ * <ul>
+ *     <li>only retries before the first delta, a partial answer is never replayed</li>
+ *     <li>retries connection errors, 429, 5xx and a first delta that does not arrive in time</li>
+ *     <li>waits what Retry-After asks for, otherwise exponential backoff with jitter</li>
+ *     <li>gives up when the next attempt would start past the request deadline</li>
+ *     <li>every retry draws from a {@link RetryBudget} shared by all requests</li>
+ * </ul>
+ */
+@Component
+public class ProviderRetry {
+
+    private final ChatProperties.Retry properties;
+    private final RetryBudget budget;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    public ProviderRetry(ChatProperties chatProperties) {
+        this.properties = chatProperties.getRetry();
+        this.budget = new RetryBudget(properties.getBudgetRatio(), properties.getBudgetCapacity(), properties.getMinRetriesPerSecond());
+    }
+
+    /**
+     * @param attempt cold stream of parsed deltas, subscribed again for every attempt
+     */
+    public <T> Flux<T> execute(String provider, Span span, Flux<T> attempt) {
+        return Flux.defer(() -> {
+            budget.deposit();
+            Stats entry = stats.computeIfAbsent(provider, k -> new Stats());
+            entry.calls.increment();
+
+            long start = System.nanoTime();
+            long deadline = start + properties.getDeadline().toNanos();
+            AtomicBoolean emitted = new AtomicBoolean();
+            AtomicInteger retries = new AtomicInteger();
+            AtomicLong attemptStart = new AtomicLong(start);
+
+            Flux<T> attempts = Flux.defer(() -> {
+                        attemptStart.set(System.nanoTime());
+                        return attempt.timeout(Mono.delay(properties.getFirstDeltaTimeout()),
+                                delta -> Mono.delay(properties.getIdleTimeout()));
+                    })
+                    .doOnNext(delta -> {
+                        if (emitted.compareAndSet(false, true) && retries.get() > 0) {
+                            long added = attemptStart.get() - start;
+                            entry.recovered.increment();
+                            entry.addedNanos.add(added);
+                            span.event("retry.recovered", Map.of("retries", retries.get(), "added_ms", added / 1_000_000));
+                        }
+                    })
+                    .retryWhen(Retry.from(signals -> signals.concatMap(signal -> {
+                        Throwable failure = signal.failure();
+                        String reason = emitted.get() ? null : retryReason(failure);
+                        if (reason == null) return Mono.<Long>error(failure);
+
+                        if (retries.get() >= properties.getMaxRetries()) {
+                            entry.exhausted.increment();
+                            return Mono.<Long>error(failure);
+                        }
+                        Duration delay = delay(failure, retries.get());
+                        if (delay == null || System.nanoTime() + delay.toNanos() >= deadline) {
+                            entry.pastDeadline.increment();
+                            span.event("retry.past_deadline", Map.of("reason", reason));
+                            return Mono.<Long>error(failure);
+                        }
+                        if (!budget.tryWithdraw()) {
+                            entry.denied.increment();
+                            span.event("retry.denied", Map.of("reason", reason));
+                            return Mono.<Long>error(failure);
+                        }
+
+                        entry.retries.increment();
+                        span.event("retry", Map.of(
+                                "attempt", retries.incrementAndGet(),
+                                "reason", reason,
+                                "delay_ms", delay.toMillis()));
+                        return Mono.delay(delay);
+                    })));
+
+            return withDeadline(attempts, deadline);
+        });
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("budget", Math.round(budget.available() * 10) / 10.0);
+        Map<String, Object> providers = new LinkedHashMap<>();
+        stats.forEach((provider, entry) -> providers.put(provider, entry.snapshot()));
+        snapshot.put("providers", providers);
+        return snapshot;
+    }
+
+    private static String retryReason(Throwable failure) {
+        if (failure instanceof WebClientResponseException response) {
+            int status = response.getStatusCode().value();
+            if (status == 429) return "429";
+            if (status == 500 || status == 502 || status == 503 || status == 504) return "5xx";
+            return null;
+        }
+        if (failure instanceof WebClientRequestException) return "connect";
+        if (failure instanceof TimeoutException) return "first-delta-timeout";
+        return null;
+    }
+
+    /**
+     * @return null when the provider asks to wait longer than max-retry-after
+     */
+    private Duration delay(Throwable failure, int retries) {
+        long jitter = ThreadLocalRandom.current().nextLong(properties.getBaseDelay().toMillis() + 1);
+        if (failure instanceof WebClientResponseException response) {
+            Duration retryAfter = retryAfter(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+            if (retryAfter != null) {
+                if (retryAfter.compareTo(properties.getMaxRetryAfter()) > 0) return null;
+                // Jitter on top so the clients told the same time do not all come back at once
+                return retryAfter.plusMillis(jitter);
+            }
+        }
+        long ceiling = Math.min(properties.getMaxDelay().toMillis(), properties.getBaseDelay().toMillis() << Math.min(retries, 20));
+        return Duration.ofMillis(ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1));
+    }
+
+    private static Duration retryAfter(String value) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                Duration until = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return until.isNegative() ? Duration.ZERO : until;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    private static <T> Flux<T> withDeadline(Flux<T> source, long deadline) {
+        AtomicBoolean expired = new AtomicBoolean();
+        Duration remaining = Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+        return source
+                .takeUntilOther(Mono.delay(remaining).doOnNext(tick -> expired.set(true)))
+                .concatWith(Mono.defer(() -> expired.get()
+                        ? Mono.error(new TimeoutException("Provider request deadline of " + remaining.toMillis() + " ms exceeded"))
+                        : Mono.empty()));
+    }
+
+    private static final class Stats {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder recovered = new LongAdder();
+        private final LongAdder exhausted = new LongAdder();
+        private final LongAdder pastDeadline = new LongAdder();
+        private final LongAdder denied = new LongAdder();
+        // Time from the first attempt to the one that succeeded
+        private final LongAdder addedNanos = new LongAdder();
+
+        private Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("calls", calls.sum());
+            snapshot.put("retries", retries.sum());
+            snapshot.put("recovered", recovered.sum());
+            snapshot.put("exhausted", exhausted.sum());
+            snapshot.put("pastDeadline", pastDeadline.sum());
+            snapshot.put("deniedByBudget", denied.sum());
+            snapshot.put("addedLatencyMs", addedNanos.sum() / 1_000_000);
+            long recoveredCalls = recovered.sum();
+            snapshot.put("avgAddedLatencyMs", recoveredCalls == 0 ? 0 : addedNanos.sum() / 1_000_000 / recoveredCalls);
+            return snapshot;
+        }
+    }
+}
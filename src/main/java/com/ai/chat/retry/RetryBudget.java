@@ -0,0 +1,53 @@
+package com.ai.chat.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket shared by all provider calls: every call deposits {@code ratio} of a retry and
+ * every retry withdraws a whole one, so retries stay a fraction of the traffic when a provider
+ * fails everything. {@code minPerSecond} retries are always allowed so a quiet node can still retry.
+ */
+class RetryBudget {
+
+    private static final long UNIT = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final int minPerSecond;
+    private final AtomicLong balance;
+    // Second and retries taken from the floor in it, packed as second * 2^20 + count
+    private final AtomicLong floor = new AtomicLong();
+
+    RetryBudget(double ratio, int capacity, int minPerSecond) {
+        this.deposit = Math.round(ratio * UNIT);
+        this.capacity = capacity * UNIT;
+        this.minPerSecond = minPerSecond;
+        this.balance = new AtomicLong(this.capacity);
+    }
+
+    void deposit() {
+        balance.getAndUpdate(current -> Math.min(capacity, current + deposit));
+    }
+
+    boolean tryWithdraw() {
+        long current;
+        while ((current = balance.get()) >= UNIT) {
+            if (balance.compareAndSet(current, current - UNIT)) return true;
+        }
+        return tryFloor();
+    }
+
+    private boolean tryFloor() {
+        long second = System.currentTimeMillis() / 1000;
+        while (true) {
+            long packed = floor.get();
+            long count = packed >>> 20 == second ? packed & 0xFFFFF : 0;
+            if (count >= minPerSecond) return false;
+            if (floor.compareAndSet(packed, (second << 20) | (count + 1))) return true;
+        }
+    }
+
+    double available() {
+        return balance.get() / (double) UNIT;
+    }
+}
@@ -0,0 +1,122 @@
+package com.ai.chat.routing;
+
+import com.ai.chat.cache.HistoryMessage;
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.service.impl.LLMFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Resolves the "auto" provider for one request from the size of the request and the live
+ * {@link ProviderStats}:
+ * <ul>
+ *     <li>providers whose context window cannot hold the request are skipped</li>
+ *     <li>large requests go to the provider with the largest context window</li>
+ *     <li>short prompts go to the provider with the lowest TTFT</li>
+ *     <li>everything else to the lowest expected TTFT plus generation time</li>
+ * </ul>
+ * Scores grow with error rate and calls in flight. The error penalty is added rather than
+ * multiplied, a provider that has only failed has no TTFT to multiply. A provider without samples
+ * yet scores zero so it gets tried.
+ */
+@Component
+public class ProviderRouter {
+
+    public static final String AUTO = "auto";
+
+    private static final int MAX_DECISIONS = 100;
+
+    private final LLMFactory factory;
+    private final ProviderStats providerStats;
+    private final ChatProperties.Router properties;
+    private final Deque<RouteDecision> decisions = new ArrayDeque<>();
+
+    public ProviderRouter(LLMFactory factory, ProviderStats providerStats, ChatProperties chatProperties) {
+        this.factory = factory;
+        this.providerStats = providerStats;
+        this.properties = chatProperties.getRouter();
+    }
+
+    public static boolean isAuto(String provider) {
+        return provider == null || AUTO.equalsIgnoreCase(provider);
+    }
+
+    public RouteDecision route(String prompt, Collection<HistoryMessage> history) {
+        long chars = prompt.length();
+        if (history != null) {
+            for (HistoryMessage message : history) chars += message.getContent().length();
+        }
+        long tokens = chars / ProviderStats.CHARS_PER_TOKEN;
+
+        List<String> providers = new ArrayList<>(factory.providerNames());
+        List<String> fitting = providers.stream()
+                .filter(provider -> contextTokens(provider) >= tokens + properties.getExpectedOutputTokens())
+                .toList();
+        // Nothing fits: the largest window is still the best bet
+        List<String> candidates = fitting.isEmpty() ? providers : fitting;
+
+        String provider;
+        String reason;
+        if (tokens >= properties.getLargeContextTokens() || fitting.isEmpty()) {
+            provider = candidates.stream()
+                    .max(Comparator.comparingLong(this::contextTokens).thenComparing(this::expectedMillis, Comparator.reverseOrder()))
+                    .orElseThrow();
+            reason = "large-context";
+        } else if (tokens <= properties.getShortPromptTokens()) {
+            provider = candidates.stream().min(Comparator.comparingDouble(this::ttftScore)).orElseThrow();
+            reason = "fastest-ttft";
+        } else {
+            provider = candidates.stream().min(Comparator.comparingDouble(this::expectedMillis)).orElseThrow();
+            reason = "fastest-total";
+        }
+
+        RouteDecision decision = new RouteDecision(provider, reason, tokens, Instant.now());
+        synchronized (decisions) {
+            decisions.addFirst(decision);
+            if (decisions.size() > MAX_DECISIONS) decisions.removeLast();
+        }
+        return decision;
+    }
+
+    public Map<String, Object> snapshot() {
+        List<RouteDecision> recent;
+        synchronized (decisions) {
+            recent = List.copyOf(decisions);
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("providers", providerStats.snapshot());
+        snapshot.put("contextTokens", properties.getContextTokens());
+        snapshot.put("decisions", recent);
+        return snapshot;
+    }
+
+    private long contextTokens(String provider) {
+        return properties.getContextTokens().getOrDefault(provider, Long.MAX_VALUE);
+    }
+
+    private double ttftScore(String provider) {
+        ProviderStats.Stats stats = providerStats.stats(provider);
+        return (stats.ttftMillis() + errorMillis(stats)) * load(stats);
+    }
+
+    private double expectedMillis(String provider) {
+        ProviderStats.Stats stats = providerStats.stats(provider);
+        double generation = stats.tokensPerSecond() > 0
+                ? properties.getExpectedOutputTokens() * 1000.0 / stats.tokensPerSecond()
+                : 0;
+        return (stats.ttftMillis() + generation + errorMillis(stats)) * load(stats);
+    }
+
+    private double errorMillis(ProviderStats.Stats stats) {
+        return properties.getErrorPenalty().toMillis() * stats.errorRate();
+    }
+
+    private double load(ProviderStats.Stats stats) {
+        return 1 + (double) stats.inFlight() / properties.getConcurrencyHint();
+    }
+
+    public record RouteDecision(String provider, String reason, long estimatedTokens, Instant at) {
+    }
+}
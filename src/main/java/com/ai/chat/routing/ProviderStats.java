@@ -0,0 +1,125 @@
+package com.ai.chat.routing;
+
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Online statistics per provider, fed by every provider call: exponentially weighted TTFT,
+ * output tokens per second and error rate, plus the number of calls in flight.
+ */
+@Component
+public class ProviderStats {
+
+    private static final double ALPHA = 0.2;
+    // Rough token estimate, the providers do not report usage on every chunk
+    public static final int CHARS_PER_TOKEN = 4;
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Records the outcome of a provider stream. Cancelled streams only count towards in-flight.
+     */
+    public Flux<String> observe(String provider, String model, Flux<String> deltas) {
+        return Flux.defer(() -> {
+            Stats entry = stats(provider);
+            entry.model = model;
+            entry.inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            AtomicLong firstToken = new AtomicLong();
+            AtomicLong chars = new AtomicLong();
+
+            return deltas
+                    .doOnNext(delta -> {
+                        firstToken.compareAndSet(0, System.nanoTime());
+                        chars.addAndGet(delta.length());
+                    })
+                    .doOnComplete(() -> entry.success(start, firstToken.get(), chars.get(), System.nanoTime()))
+                    .doOnError(e -> entry.failure())
+                    .doFinally(signal -> entry.inFlight.decrementAndGet());
+        });
+    }
+
+    public Stats stats(String provider) {
+        return stats.computeIfAbsent(provider, k -> new Stats());
+    }
+
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> snapshot = new LinkedHashMap<>();
+        stats.forEach((provider, entry) -> snapshot.put(provider, entry.snapshot()));
+        return snapshot;
+    }
+
+    public static class Stats {
+
+        private volatile String model;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private long samples;
+        private long errors;
+        private long ttftSamples;
+        private long speedSamples;
+        private double ttftMillis;
+        private double tokensPerSecond;
+        private double errorRate;
+
+        private synchronized void success(long start, long firstToken, long chars, long end) {
+            samples++;
+            errorRate = ewma(errorRate, 0, samples);
+            if (firstToken == 0) return;
+
+            ttftMillis = ewma(ttftMillis, (firstToken - start) / 1e6, ++ttftSamples);
+            double streamingSeconds = (end - firstToken) / 1e9;
+            if (streamingSeconds > 0) {
+                tokensPerSecond = ewma(tokensPerSecond, chars / (double) CHARS_PER_TOKEN / streamingSeconds, ++speedSamples);
+            }
+        }
+
+        private synchronized void failure() {
+            samples++;
+            errors++;
+            errorRate = ewma(errorRate, 1, samples);
+        }
+
+        public int inFlight() {
+            return inFlight.get();
+        }
+
+        public synchronized long samples() {
+            return samples;
+        }
+
+        public synchronized double ttftMillis() {
+            return ttftMillis;
+        }
+
+        public synchronized double tokensPerSecond() {
+            return tokensPerSecond;
+        }
+
+        public synchronized double errorRate() {
+            return errorRate;
+        }
+
+        synchronized Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("model", model);
+            snapshot.put("samples", samples);
+            snapshot.put("errors", errors);
+            snapshot.put("inFlight", inFlight.get());
+            snapshot.put("ttftMillis", Math.round(ttftMillis));
+            snapshot.put("tokensPerSecond", Math.round(tokensPerSecond));
+            snapshot.put("errorRate", Math.round(errorRate * 1000) / 1000.0);
+            return snapshot;
+        }
+
+        // The first sample replaces the zero prior instead of being averaged with it
+        private static double ewma(double current, double sample, long samples) {
+            return samples == 1 ? sample : current + ALPHA * (sample - current);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.ai.chat.scheduler;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.store.ChatArchive;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves sessions idle for longer than chat.archive.idle-after out of t_chat_message, a batch per
+ * transaction, so the hot table and its indexes only hold recent history.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "jpa", matchIfMissing = true)
+public class ChatArchiveJob {
+
+    private final ChatArchive chatArchive;
+    private final ChatProperties.Archive properties;
+
+    private ScheduledExecutorService archiver;
+
+    public ChatArchiveJob(ChatArchive chatArchive, ChatProperties chatProperties) {
+        this.chatArchive = chatArchive;
+        this.properties = chatProperties.getArchive();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!properties.isEnabled() || archiver != null) return;
+
+        // Its own thread, a run is up to max-batches-per-run transactions and must not hold up the
+        // @Scheduled jobs sharing the scheduler thread
+        archiver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getInterval().toMillis();
+        archiver.scheduleWithFixedDelay(this::archiveIdleSessions, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (archiver != null) archiver.shutdownNow();
+    }
+
+    public void archiveIdleSessions() {
+        if (!properties.isEnabled()) return;
+
+        long start = System.nanoTime();
+        int archived = 0;
+        try {
+            for (int batch = 0; batch < properties.getMaxBatchesPerRun(); batch++) {
+                int moved = chatArchive.archiveIdle();
+                archived += moved;
+                if (moved < properties.getBatchSize()) break;
+            }
+        } catch (Exception e) {
+            log.warn("Chat archival failed after {} sessions: {}", archived, e.getMessage());
+        }
+        if (archived > 0) {
+            log.info("Archived {} idle sessions in {} ms", archived, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.ai.chat.scheduler;
+
+import com.ai.chat.config.ChatProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Date;
+import java.time.LocalDate;
+
+/**
+ * Keeps monthly partitions of t_chat_message created ahead of time so inserts never
+ * land on a month without a partition.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "jpa", matchIfMissing = true)
+public class ChatMessagePartitionJob {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ChatProperties chatProperties;
+
+    public ChatMessagePartitionJob(JdbcTemplate jdbcTemplate, ChatProperties chatProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.chatProperties = chatProperties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        ensurePartitions();
+    }
+
+    @Scheduled(cron = "${chat.partition.cron:0 0 3 * * *}")
+    public void ensurePartitions() {
+        LocalDate month = LocalDate.now().withDayOfMonth(1);
+        for (int i = 0; i <= chatProperties.getPartition().getMonthsAhead(); i++) {
+            try {
+                jdbcTemplate.queryForObject(
+                        "SELECT ai_chat.ensure_chat_message_partition(?)",
+                        String.class,
+                        Date.valueOf(month.plusMonths(i))
+                );
+            } catch (Exception e) {
+                log.warn("Partition creation failed for {}: {}", month.plusMonths(i), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.ai.chat.scheduler;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.store.SessionPurger;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the rows of sessions deleted by their users, a batch of sessions at a time, so a delete
+ * request only flags the session and never waits on its messages.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "jpa", matchIfMissing = true)
+public class ChatPurgeJob {
+
+    private final SessionPurger sessionPurger;
+    private final ChatProperties.Purge properties;
+
+    private ScheduledExecutorService purger;
+
+    public ChatPurgeJob(SessionPurger sessionPurger, ChatProperties chatProperties) {
+        this.sessionPurger = sessionPurger;
+        this.properties = chatProperties.getPurge();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!properties.isEnabled() || purger != null) return;
+
+        // Its own thread, a run pauses between chunks and must not hold up the @Scheduled jobs
+        // sharing the scheduler thread
+        purger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getInterval().toMillis();
+        purger.scheduleWithFixedDelay(this::purgeDeletedSessions, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (purger != null) purger.shutdownNow();
+    }
+
+    public void purgeDeletedSessions() {
+        if (!properties.isEnabled()) return;
+
+        long start = System.nanoTime();
+        int sessions = 0;
+        long messages = 0;
+        SessionPurger.Cursor after = SessionPurger.Cursor.START;
+        try {
+            for (int batch = 0; batch < properties.getMaxBatchesPerRun(); batch++) {
+                SessionPurger.Result result = sessionPurger.purge(after);
+                sessions += result.sessions();
+                messages += result.messages();
+                if (!result.more()) break;
+                after = result.next();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Session purge failed after {} sessions: {}", sessions, e.getMessage());
+        }
+        if (sessions > 0 || messages > 0) {
+            log.info("Purged {} deleted sessions and {} messages in {} ms", sessions, messages,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+}
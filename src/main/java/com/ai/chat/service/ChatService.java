@@ -1,18 +1,63 @@
 package com.ai.chat.service;
 
 import com.ai.chat.dto.UserContext;
+import com.ai.chat.entities.ChatSession;
 import org.springframework.http.ResponseEntity;
 import reactor.core.publisher.Flux;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 public interface ChatService {
 
     Flux<String> streamChat(String provider, String message, UserContext userContext, Long sessionId);
 
+    /**
+     * @param onSession called with the turn's session, a new one when {@code sessionId} is null, before
+     *                  the first delta
+     */
+    Flux<String> streamText(String provider, String message, UserContext userContext, Long sessionId,
+                            Consumer<ChatSession> onSession);
+
+    /**
+     * Answers {@code message} as a new version of the user message {@code seq}, on a new branch
+     * after the messages before it.
+     */
+    Flux<String> editChat(String provider, String message, long seq, UserContext userContext, Long sessionId);
+
+    /**
+     * Answers the prompt of the assistant message {@code seq} again, on a new branch next to it.
+     */
+    Flux<String> regenerateChat(String provider, long seq, UserContext userContext, Long sessionId);
+
+    Flux<String> compareChat(List<String> providers, String message, UserContext userContext, Long sessionId);
+
+    /**
+     * Frames of the session's turns as they stream, for the other tabs and devices of the owner.
+     */
+    Flux<String> watchSession(String userId, Long sessionId);
+
+    ResponseEntity<?> selectComparisonWinner(UserContext userContext, String compareId, String provider);
+
     ResponseEntity<?> loadSessions(String userId);
 
-    ResponseEntity<?> getMessages(Long sessionId, String userId);
+    /**
+     * @param since only the messages of the active branch after it, the tip the client holds; null for
+     *              the whole active branch. 409 when it is not on the active branch
+     * @param ifNoneMatch answered with 304 when it holds the current tag of the session
+     */
+    ResponseEntity<?> getMessages(Long sessionId, String userId, Long since, String ifNoneMatch);
+
+    /**
+     * Continues the session's turns after message {@code seq}, 0 for a new first message.
+     *
+     * @return the branch ending at it
+     */
+    ResponseEntity<?> switchBranch(String userId, Long sessionId, long seq);
 
     ResponseEntity<?> createNewSession(String userId, String userName);
 
     ResponseEntity<?> deleteSession(String userId, Long sessionId);
+
+    ResponseEntity<?> deleteAllSessions(String userId);
 }
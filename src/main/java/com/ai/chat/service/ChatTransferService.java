@@ -0,0 +1,15 @@
+package com.ai.chat.service;
+
+import com.ai.chat.dto.UserContext;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public interface ChatTransferService {
+
+    Flux<DataBuffer> exportHistory(String userId, DataBufferFactory bufferFactory);
+
+    Mono<ResponseEntity<?>> importHistory(UserContext userContext, Flux<DataBuffer> body);
+}
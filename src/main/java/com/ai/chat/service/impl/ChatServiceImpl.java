@@ -1,31 +1,48 @@
 package com.ai.chat.service.impl;
 
+import com.ai.chat.cache.HistoryMessage;
+import com.ai.chat.cache.LiveSessions;
+import com.ai.chat.cache.PendingComparisons;
 import com.ai.chat.cache.SessionHistory;
+import com.ai.chat.cache.SessionWarmUp;
 import com.ai.chat.client.LLMClient;
 import com.ai.chat.dto.ChatMessageDto;
 import com.ai.chat.dto.ChatSessionDto;
 import com.ai.chat.dto.UserContext;
-import com.ai.chat.entities.ChatMessage;
 import com.ai.chat.entities.ChatSession;
-import com.ai.chat.repositories.ChatMessageRepository;
-import com.ai.chat.repositories.ChatSessionRepository;
+import com.ai.chat.routing.ProviderRouter;
 import com.ai.chat.service.ChatService;
+import com.ai.chat.store.ChatHistoryStore;
+import com.ai.chat.tracing.Span;
+import com.ai.chat.tracing.Tracer;
+import com.ai.chat.usage.TokenAccounting;
+import com.ai.chat.utils.ChatFrames;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 import tools.jackson.databind.ObjectMapper;
-import tools.jackson.databind.node.ObjectNode;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static reactor.netty.http.HttpConnectionLiveness.log;
 
 @Service
 public class ChatServiceImpl implements ChatService {
 
+    // Browsers keep the messages but revalidate them with the ETag on every open
+    private static final CacheControl MESSAGES_CACHE = CacheControl.noCache().cachePrivate();
+
     private final LLMFactory factory;
 
     public ChatServiceImpl(LLMFactory factory) {
@@ -33,45 +50,240 @@ public class ChatServiceImpl implements ChatService {
     }
 
     @Autowired
-    ChatSessionRepository chatSessionRepository;
+    ChatHistoryStore chatHistoryStore;
+
+    @Autowired
+    SessionWarmUp sessionWarmUp;
+
+    @Autowired
+    PendingComparisons pendingComparisons;
+
+    @Autowired
+    Tracer tracer;
+
+    @Autowired
+    ProviderRouter providerRouter;
 
     @Autowired
-    ChatMessageRepository chatMessageRepository;
+    TokenAccounting tokenAccounting;
+
+    @Autowired
+    LiveSessions liveSessions;
 
     ObjectMapper mapper = new ObjectMapper();
 
     @Override
     public Flux<String> streamChat(String provider, String message, UserContext userContext, Long sessionId) {
+        return turn(provider, message, userContext, sessionId, chatSession -> {
+        });
+    }
+
+    @Override
+    public Flux<String> editChat(String provider, String message, long seq, UserContext userContext, Long sessionId) {
+        return turn(provider, message, userContext, sessionId,
+                chatSession -> branchBefore(userContext.getUserId(), sessionId, seq, "user"));
+    }
+
+    @Override
+    public Flux<String> regenerateChat(String provider, long seq, UserContext userContext, Long sessionId) {
+        String userId = userContext.getUserId();
+        return tracer.flux("chat.turn", span -> prepareTurn(userContext, sessionId, span,
+                chatSession -> branchBefore(userId, sessionId, seq, "assistant")).flatMapMany(chatSession -> {
+            String prompt = SessionHistory.getActive(userId, sessionId).getContent();
+            LLMClient client = resolveClient(provider, prompt, userContext, chatSession, span);
+            return liveSessions.publish(sessionId, prompt, client.regenerate(userContext, chatSession), Function.identity());
+        })).contextWrite(ctx -> ctx.put("USER_DATA", userContext));
+    }
+
+    /**
+     * @param position moves the session's active branch before the turn, off the event loop
+     */
+    private Flux<String> turn(String provider, String message, UserContext userContext, Long sessionId,
+                              Consumer<ChatSession> position) {
+        return tracer.flux("chat.turn", span -> prepareTurn(userContext, sessionId, span, position).flatMapMany(chatSession -> {
+            LLMClient client = resolveClient(provider, message, userContext, chatSession, span);
+            AtomicBoolean firstFrame = new AtomicBoolean();
+            // The gap between the provider span ending and this span ending is the typing-effect pacing
+            return liveSessions.publish(chatSession.getSessionId(), message, client.stream(message, userContext, chatSession)
+                    .doOnNext(frame -> {
+                        if (firstFrame.compareAndSet(false, true)) span.event("first_frame");
+                    }), Function.identity());
+        })).contextWrite(ctx -> ctx.put("USER_DATA", userContext));
+    }
+
+    @Override
+    public Flux<String> streamText(String provider, String message, UserContext userContext, Long sessionId,
+                                   Consumer<ChatSession> onSession) {
+        return tracer.flux("chat.turn", span -> prepareTurn(userContext, sessionId, span, onSession).flatMapMany(chatSession -> {
+            LLMClient client = resolveClient(provider, message, userContext, chatSession, span);
+            return liveSessions.publish(chatSession.getSessionId(), message,
+                    client.streamText(message, userContext, chatSession), ChatFrames::content);
+        })).contextWrite(ctx -> ctx.put("USER_DATA", userContext));
+    }
+
+    @Override
+    public Flux<String> compareChat(List<String> providers, String message, UserContext userContext, Long sessionId) {
+        return tracer.flux("chat.compare", span -> prepareTurn(userContext, sessionId, span)
+                .flatMapMany(chatSession -> compare(providers, message, userContext, chatSession)))
+                .contextWrite(ctx -> ctx.put("USER_DATA", userContext));
+    }
+
+    private Flux<String> compare(List<String> providers, String message, UserContext userContext, ChatSession chatSession) {
+        // Every provider sees the same snapshot; nothing enters the history until a winner is picked
+        List<HistoryMessage> history = new ArrayList<>(
+                SessionHistory.getHistory(userContext.getUserId(), chatSession.getSessionId()));
+        history.add(new HistoryMessage("user", message));
+
+        PendingComparisons.Comparison comparison =
+                pendingComparisons.create(userContext.getUserId(), chatSession, message);
+
+        List<Flux<String>> streams = providers.stream()
+                .map(String::toLowerCase)
+                .distinct()
+                .map(provider -> compareStream(provider, history, userContext.getUserName(), comparison))
+                .toList();
+
+        return Flux.concat(
+                Mono.just(ChatFrames.comparison(comparison.getId())),
+                Flux.merge(streams)
+        );
+    }
+
+    private Flux<String> compareStream(String provider, List<HistoryMessage> history, String userName,
+                                       PendingComparisons.Comparison comparison) {
+        LLMClient client = factory.getClient(provider);
+        if (client == null) return Flux.just(ChatFrames.providerError(provider, "Unknown provider"));
+
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicLong firstToken = new AtomicLong();
+            StringBuffer response = comparison.responseBuffer(provider);
+
+            return client.complete(history, userName)
+                    .doOnNext(delta -> {
+                        firstToken.compareAndSet(0, System.nanoTime());
+                        response.append(delta);
+                    })
+                    .map(delta -> ChatFrames.providerContent(provider, delta))
+                    .concatWith(Mono.fromSupplier(() -> {
+                        long end = System.nanoTime();
+                        long ttftMs = TimeUnit.NANOSECONDS.toMillis((firstToken.get() == 0 ? end : firstToken.get()) - start);
+                        long totalMs = TimeUnit.NANOSECONDS.toMillis(end - start);
+                        comparison.recordTiming(provider, ttftMs, totalMs);
+                        return ChatFrames.providerDone(provider, ttftMs, totalMs);
+                    }))
+                    .onErrorResume(e -> Mono.just(ChatFrames.providerError(provider, String.valueOf(e.getMessage()))));
+        });
+    }
+
+    @Override
+    public Flux<String> watchSession(String userId, Long sessionId) {
+        return Mono.fromCallable(() -> chatHistoryStore.findSession(userId, sessionId))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(Mono::justOrEmpty)
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "No session " + sessionId)))
+                .flatMapMany(session -> liveSessions.watch(sessionId));
+    }
+
+    @Override
+    public ResponseEntity<?> selectComparisonWinner(UserContext userContext, String compareId, String provider) {
+        PendingComparisons.Comparison comparison = pendingComparisons.get(userContext.getUserId(), compareId);
+        if (comparison == null) return ResponseEntity.notFound().build();
+
+        String winner = provider == null ? null : provider.toLowerCase();
+        StringBuffer answer = winner == null ? null : comparison.getResponses().get(winner);
+        if (answer == null || answer.isEmpty()) {
+            return ResponseEntity.badRequest().body("No answer from provider " + provider);
+        }
+        // Timings are recorded when a stream completes; until then the answer is partial
+        if (!comparison.getTimings().containsKey(winner)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("The answer from provider " + provider + " is not complete");
+        }
+        pendingComparisons.remove(compareId);
+
+        ChatSession chatSession = comparison.getSession();
+        String userId = userContext.getUserId();
+        HistoryMessage prompt = SessionHistory.addMessage(userId, chatSession.getSessionId(), "user", comparison.getPrompt());
+        HistoryMessage reply = SessionHistory.addMessage(userId, chatSession.getSessionId(), prompt, "assistant", answer.toString());
+
+        SessionHistory.persist(chatSession, List.of(prompt, reply));
+
+        if (chatSession.getTitle() == null || chatSession.getTitle().isBlank()) {
+            factory.getClient(winner).generateTitle(comparison.getPrompt(), chatSession);
+        }
+
+        return ResponseEntity.ok(Map.of(
+                "sessionId", chatSession.getSessionId(),
+                "provider", winner,
+                "timings", comparison.getTimings()
+        ));
+    }
+
+    private LLMClient resolveClient(String provider, String message, UserContext userContext,
+                                    ChatSession chatSession, Span span) {
+        if (!ProviderRouter.isAuto(provider)) return factory.getClient(provider);
+
+        ProviderRouter.RouteDecision decision = providerRouter.route(message,
+                SessionHistory.getHistory(userContext.getUserId(), chatSession.getSessionId()));
+        span.tag("router.provider", decision.provider())
+                .tag("router.reason", decision.reason())
+                .tag("router.estimated_tokens", decision.estimatedTokens());
+        return factory.getClient(decision.provider());
+    }
+
+    private Mono<ChatSession> prepareTurn(UserContext userContext, Long sessionId, Span span) {
+        return prepareTurn(userContext, sessionId, span, chatSession -> {
+        });
+    }
+
+    /**
+     * Quota check, session and history load, off the event loop: they query the database
+     * whenever the session is not cached yet.
+     */
+    private Mono<ChatSession> prepareTurn(UserContext userContext, Long sessionId, Span span, Consumer<ChatSession> position) {
+        return Mono.fromCallable(() -> {
+                    tokenAccounting.admit(userContext.getUserId());
+                    ChatSession chatSession = prepareSession(userContext, sessionId, span);
+                    position.accept(chatSession);
+                    return chatSession;
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // The turn then adds a sibling of message seq: an edited prompt, or another answer to the same prompt
+    private static void branchBefore(String userId, Long sessionId, long seq, String role) {
+        HistoryMessage message = SessionHistory.getMessage(userId, sessionId, seq);
+        if (message == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No message " + seq);
+        if (!role.equals(message.getRole())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Message " + seq + " is not a " + role + " message");
+        }
+        SessionHistory.switchBranch(userId, sessionId, message.getParentSeq());
+    }
+
+    private ChatSession prepareSession(UserContext userContext, Long sessionId, Span span) {
 
         ChatSession chatSession;
         if (sessionId == null) {
-            ChatSession newSession = ChatSession.builder()
-                    .userId(userContext.getUserId())
-                    .userName(userContext.getUserName())
-                    .build();
-            chatSession = chatSessionRepository.save(newSession);
+            chatSession = tracer.call(span, "session.create", () ->
+                    chatHistoryStore.createSession(userContext.getUserId(), userContext.getUserName()));
         } else {
-            chatSession = SessionHistory.getOrLoadSession(userContext.getUserId(), sessionId);
+            chatSession = tracer.call(span, "session.load", () ->
+                    SessionHistory.getOrLoadSession(userContext.getUserId(), sessionId));
         }
 
-        SessionHistory.getOrLoadHistory(
+        span.tag("session.id", chatSession.getSessionId())
+                .tag("history.cached", SessionHistory.isHistoryLoaded(userContext.getUserId(), chatSession.getSessionId()));
+        tracer.run(span, "history.load", () -> SessionHistory.getOrLoadHistory(
                 userContext.getUserId(),
-                chatSession.getSessionId(),
-                chatMessageRepository
-        );
+                chatSession.getSessionId()
+        ));
 
-        LLMClient client = factory.getClient(provider);
-        return client.stream(message, userContext, chatSession);
+        return chatSession;
     }
 
     @Override
     public ResponseEntity<?> createNewSession(String userId,String userName) {
-        ChatSession session = chatSessionRepository.save(
-                ChatSession.builder()
-                        .userId(userId)
-                        .userName(userName)
-                        .build()
-        );
+        ChatSession session = chatHistoryStore.createSession(userId, userName);
 
         return ResponseEntity.ok(
                 Map.of("sessionId", session.getSessionId())
@@ -80,19 +292,26 @@ public class ChatServiceImpl implements ChatService {
 
     @Override
     public ResponseEntity<?> deleteSession(String userId, Long sessionId) {
-        Optional<ChatSession> session = chatSessionRepository.findTopByUserIdAndSessionId(userId, sessionId);
-        if (session.isPresent()) {
-            chatSessionRepository.delete(session.get());
+        if (chatHistoryStore.deleteSession(userId, sessionId)) {
             SessionHistory.removeHistory(userId, sessionId);
             return ResponseEntity.ok("session deleted successfully");
         }
         return ResponseEntity.noContent().build();
     }
 
+    @Override
+    public ResponseEntity<?> deleteAllSessions(String userId) {
+        List<Long> sessionIds = chatHistoryStore.deleteAllSessions(userId);
+        sessionIds.forEach(sessionId -> SessionHistory.removeHistory(userId, sessionId));
+        return ResponseEntity.ok(Map.of("deleted", sessionIds.size()));
+    }
+
     @Override
     public ResponseEntity<?> loadSessions(String userId) {
-        List<ChatSessionDto> chatSessionDtoList = chatSessionRepository
-                .findByUserIdOrderByCreatedDateDesc(userId)
+        List<ChatSession> sessions = chatHistoryStore.listSessions(userId);
+        sessionWarmUp.warmUp(userId, sessions);
+
+        List<ChatSessionDto> chatSessionDtoList = sessions
                 .stream()
                 .map(session -> new ChatSessionDto(
                         session.getSessionId(),
@@ -104,22 +323,78 @@ public class ChatServiceImpl implements ChatService {
     }
 
     @Override
-    public ResponseEntity<?> getMessages(Long sessionId, String userId) {
-        Deque<ObjectNode> objectNodes = SessionHistory.getHistory(userId, sessionId);
-        if (objectNodes != null && !objectNodes.isEmpty())
-            return ResponseEntity.ok(new ArrayList<>(objectNodes));
+    public ResponseEntity<?> getMessages(Long sessionId, String userId, Long since, String ifNoneMatch) {
+        Optional<Long> lastSeq = chatHistoryStore.lastSeq(userId, sessionId);
+        if (lastSeq.isEmpty()) return ResponseEntity.notFound().build();
 
-        List<ChatMessageDto> chatMessageDtoList = chatMessageRepository
-                .findBySession_SessionIdOrderByCreatedDateAsc(sessionId)
-                .stream()
-                .map(msg -> new ChatMessageDto(
-                        msg.getRole(),
-                        msg.getContent(),
-                        msg.getCreatedDate()
-                ))
-                .toList();
-        SessionHistory.loadChatMessageCache(sessionId, userId, chatMessageDtoList);
-        return ResponseEntity.ok(chatMessageDtoList);
+        List<HistoryMessage> window = SessionHistory.getOrRestoreHistory(userId, sessionId);
+        // A session not cached yet opens on its latest branch
+        Long tip = window == null ? lastSeq.get() : window.isEmpty() ? Long.valueOf(0) : window.getLast().getSeq();
+        if (tip == null) {
+            // A turn in flight: its messages are not numbered yet, no tag could tell this body from the one before them
+            return branchAfter(ResponseEntity.ok().cacheControl(MESSAGES_CACHE), activeBranch(userId, sessionId, window), since);
+        }
+
+        // Taken before the messages are read, so the tag never stands for messages the body lacks;
+        // a branch switch changes the body without a new message, hence the tip
+        String eTag = "\"" + sessionId + "-" + lastSeq.get() + "-" + tip + "\"";
+        if (eTagMatches(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(MESSAGES_CACHE).build();
+        }
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().eTag(eTag).cacheControl(MESSAGES_CACHE);
+
+        if (tip.equals(since)) return ok.body(List.of());
+        return branchAfter(ok, activeBranch(userId, sessionId, window), since);
+    }
+
+    /**
+     * The messages of {@code branch} after message {@code since}, all of them for null or 0. A 409 when
+     * the message is not on the branch: the client holds another branch and has to fetch this one whole.
+     */
+    private static ResponseEntity<?> branchAfter(ResponseEntity.BodyBuilder ok, List<ChatMessageDto> branch, Long since) {
+        if (since == null || since == 0) return ok.body(branch);
+        for (int i = 0; i < branch.size(); i++) {
+            if (since.equals(branch.get(i).getSeq())) return ok.body(branch.subList(i + 1, branch.size()));
+        }
+        return ResponseEntity.status(HttpStatus.CONFLICT).build();
+    }
+
+    @Override
+    public ResponseEntity<?> switchBranch(String userId, Long sessionId, long seq) {
+        if (chatHistoryStore.lastSeq(userId, sessionId).isEmpty()) return ResponseEntity.notFound().build();
+
+        SessionHistory.getOrLoadHistory(userId, sessionId);
+        if (!SessionHistory.switchBranch(userId, sessionId, seq)) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(activeBranch(userId, sessionId, SessionHistory.getOrRestoreHistory(userId, sessionId)));
+    }
+
+    /**
+     * The whole active branch, oldest first: the cached window and the messages before it, which the
+     * cache does not keep. Null {@code window} for a session not cached, its latest branch is loaded.
+     */
+    private List<ChatMessageDto> activeBranch(String userId, Long sessionId, List<HistoryMessage> window) {
+        if (window == null) {
+            List<ChatMessageDto> branch = chatHistoryStore.tail(sessionId, Integer.MAX_VALUE);
+            SessionHistory.loadChatMessageCache(sessionId, userId, branch);
+            return branch;
+        }
+
+        List<ChatMessageDto> branch = new ArrayList<>();
+        if (!window.isEmpty() && window.getFirst().getParentSeq() != 0) {
+            branch.addAll(chatHistoryStore.branch(sessionId, window.getFirst().getParentSeq(), Integer.MAX_VALUE));
+        }
+        window.forEach(message -> branch.add(message.toDto()));
+        return branch;
+    }
+
+    private static boolean eTagMatches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals(eTag) || tag.equals("*")) return true;
+        }
+        return false;
     }
 
 }
@@ -0,0 +1,255 @@
+package com.ai.chat.service.impl;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.datasource.ReadYourWritesGuard;
+import com.ai.chat.dto.UserContext;
+import com.ai.chat.records.ChatExportLineRecord;
+import com.ai.chat.service.ChatTransferService;
+import com.ai.chat.store.ChatArchive;
+import com.ai.chat.store.MessageSequence;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.EntityTransaction;
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import tools.jackson.databind.ObjectMapper;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+@Service
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "jpa", matchIfMissing = true)
+public class ChatTransferServiceImpl implements ChatTransferService {
+
+    private static final String SESSION_EXPORT_QUERY = """
+            select s.sessionId, s.title, s.createdDate
+            from ChatSession s
+            where s.userId = :userId
+            order by s.sessionId""";
+
+    private static final String MESSAGE_EXPORT_QUERY = """
+            select m.session.sessionId, m.role, m.content, m.createdDate, m.seq, coalesce(m.parentSeq, m.seq - 1)
+            from ChatMessage m
+            where m.session.userId = :userId
+            order by m.session.sessionId, m.seq""";
+
+    private static final String INSERT_SESSION = """
+            INSERT INTO ai_chat.t_chat_session (user_id, user_name, title, created_date)
+            VALUES (?, ?, ?, ?) RETURNING session_id""";
+
+    private static final String INSERT_MESSAGE = """
+            INSERT INTO ai_chat.t_chat_message (session_id, role, content, created_date, seq, parent_seq)
+            VALUES (?, ?, ?, ?, ?, ?)""";
+
+    private static final ResolvableType STRING_TYPE = ResolvableType.forClass(String.class);
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ChatProperties chatProperties;
+    private final ReadYourWritesGuard readYourWrites;
+    private final ChatArchive chatArchive;
+    private final MessageSequence messageSequence;
+    private final StringDecoder lineDecoder = StringDecoder.allMimeTypes(List.of("\n"), true);
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public ChatTransferServiceImpl(EntityManagerFactory entityManagerFactory,
+                                   JdbcTemplate jdbcTemplate,
+                                   TransactionTemplate transactionTemplate,
+                                   ChatProperties chatProperties,
+                                   ReadYourWritesGuard readYourWrites,
+                                   ChatArchive chatArchive,
+                                   MessageSequence messageSequence) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.chatProperties = chatProperties;
+        this.readYourWrites = readYourWrites;
+        this.chatArchive = chatArchive;
+        this.messageSequence = messageSequence;
+        this.lineDecoder.setMaxInMemorySize(16 * 1024 * 1024);
+    }
+
+    @Override
+    public Flux<DataBuffer> exportHistory(String userId, DataBufferFactory bufferFactory) {
+        // The export cursors only read t_chat_message
+        Mono<Integer> rehydrate = Mono.fromCallable(() -> chatArchive.rehydrateUser(userId))
+                .subscribeOn(Schedulers.boundedElastic());
+        return rehydrate.thenMany(Flux.concat(
+                        streamRows(SESSION_EXPORT_QUERY, userId, row -> ChatExportLineRecord.builder()
+                                .type("session")
+                                .sessionId((Long) row[0])
+                                .title((String) row[1])
+                                .createdDate(toInstant(row[2]))
+                                .build()),
+                        streamRows(MESSAGE_EXPORT_QUERY, userId, row -> ChatExportLineRecord.builder()
+                                .type("message")
+                                .sessionId((Long) row[0])
+                                .role((String) row[1])
+                                .content((String) row[2])
+                                .createdDate(toInstant(row[3]))
+                                .seq((Long) row[4])
+                                .parentSeq((Long) row[5])
+                                .build())))
+                .map(line -> {
+                    byte[] json = mapper.writeValueAsBytes(line);
+                    return bufferFactory.allocateBuffer(json.length + 1)
+                            .write(json)
+                            .write((byte) '\n');
+                });
+    }
+
+    /**
+     * Pulls one row per downstream request from a server-side cursor, so at most
+     * fetchSize rows are held in memory regardless of the history size.
+     */
+    private Flux<ChatExportLineRecord> streamRows(String query, String userId,
+                                                  Function<Object[], ChatExportLineRecord> mapper) {
+        return Flux.<ChatExportLineRecord, ExportCursor>generate(
+                        () -> readYourWrites.readUser(userId, () -> new ExportCursor(entityManagerFactory, query, userId,
+                                chatProperties.getTransfer().getFetchSize())),
+                        (cursor, sink) -> {
+                            if (cursor.rows.hasNext()) {
+                                sink.next(mapper.apply(cursor.rows.next()));
+                            } else {
+                                sink.complete();
+                            }
+                            return cursor;
+                        },
+                        ExportCursor::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<ResponseEntity<?>> importHistory(UserContext userContext, Flux<DataBuffer> body) {
+        Map<Long, Long> sessionIds = new HashMap<>();
+        // Per imported session, exported sequence number -> new one
+        Map<Long, Map<Long, Long>> seqs = new HashMap<>();
+        long[] counts = new long[3];
+
+        return lineDecoder.decode(body, STRING_TYPE, null, Collections.emptyMap())
+                .filter(line -> !line.isBlank())
+                .map(line -> mapper.readValue(line, ChatExportLineRecord.class))
+                .buffer(chatProperties.getTransfer().getBatchSize())
+                .concatMap(batch -> Mono.fromRunnable(() -> transactionTemplate.executeWithoutResult(status ->
+                                importBatch(userContext, batch, sessionIds, seqs, counts)))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .then(Mono.fromSupplier(() -> ResponseEntity.ok(Map.of(
+                        "sessions", counts[0],
+                        "messages", counts[1],
+                        "skipped", counts[2]
+                ))));
+    }
+
+    private void importBatch(UserContext userContext, List<ChatExportLineRecord> batch,
+                             Map<Long, Long> sessionIds, Map<Long, Map<Long, Long>> seqs, long[] counts) {
+        List<Object[]> messages = new ArrayList<>(batch.size());
+        Map<Long, List<Object[]>> bySession = new LinkedHashMap<>();
+        Map<Object[], ChatExportLineRecord> lines = new IdentityHashMap<>();
+        Set<Date> months = new HashSet<>();
+
+        for (ChatExportLineRecord line : batch) {
+            Timestamp createdDate = Timestamp.from(line.createdDate() != null ? line.createdDate() : Instant.now());
+
+            if ("session".equals(line.type())) {
+                Long newId = jdbcTemplate.queryForObject(INSERT_SESSION, Long.class,
+                        userContext.getUserId(), userContext.getUserName(), line.title(), createdDate);
+                sessionIds.put(line.sessionId(), newId);
+                counts[0]++;
+            } else if ("message".equals(line.type()) && sessionIds.containsKey(line.sessionId())) {
+                Long sessionId = sessionIds.get(line.sessionId());
+                Object[] row = {sessionId, line.role(), line.content(), createdDate, null, null};
+                messages.add(row);
+                lines.put(row, line);
+                bySession.computeIfAbsent(sessionId, k -> new ArrayList<>()).add(row);
+                months.add(Date.valueOf(createdDate.toLocalDateTime().toLocalDate().withDayOfMonth(1)));
+            } else {
+                counts[2]++;
+            }
+        }
+
+        // Imported history may predate the partitions created by ChatMessagePartitionJob
+        months.forEach(month -> jdbcTemplate.queryForObject(
+                "SELECT ai_chat.ensure_chat_message_partition(?)", String.class, month));
+
+        // Numbered in file order, which is the export order; a parent always comes before its replies
+        bySession.forEach((sessionId, rows) -> {
+            Map<Long, Long> renumbered = seqs.computeIfAbsent(sessionId, k -> new HashMap<>());
+            long seq = messageSequence.allocate(sessionId, rows.size());
+            for (Object[] row : rows) {
+                ChatExportLineRecord line = lines.get(row);
+                // Files exported before branching are linear
+                row[5] = line.parentSeq() == null ? seq - 1 : renumbered.getOrDefault(line.parentSeq(), 0L);
+                row[4] = seq;
+                if (line.seq() != null) renumbered.put(line.seq(), seq);
+                seq++;
+            }
+        });
+
+        if (!messages.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_MESSAGE, messages);
+            counts[1] += messages.size();
+        }
+        readYourWrites.userWritten(userContext.getUserId());
+        sessionIds.values().forEach(readYourWrites::sessionWritten);
+    }
+
+    private static Instant toInstant(Object value) {
+        return value == null ? null : ((Timestamp) value).toInstant();
+    }
+
+    private static final class ExportCursor {
+
+        private final EntityManager entityManager;
+        private final EntityTransaction transaction;
+        private final Stream<Object[]> stream;
+        private final Iterator<Object[]> rows;
+
+        private ExportCursor(EntityManagerFactory entityManagerFactory, String query, String userId, int fetchSize) {
+            this.entityManager = entityManagerFactory.createEntityManager();
+            this.transaction = entityManager.getTransaction();
+            try {
+                // PostgreSQL only honours the fetch size inside a transaction
+                transaction.begin();
+                Session session = entityManager.unwrap(Session.class);
+                session.setDefaultReadOnly(true);
+                // Lets the cursor run on a replica when they are configured
+                session.doWork(connection -> connection.setReadOnly(true));
+                this.stream = entityManager.createQuery(query, Object[].class)
+                        .setParameter("userId", userId)
+                        .setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize)
+                        .getResultStream();
+                this.rows = stream.iterator();
+            } catch (RuntimeException e) {
+                if (transaction.isActive()) transaction.rollback();
+                entityManager.close();
+                throw e;
+            }
+        }
+
+        private void close() {
+            try {
+                stream.close();
+                if (transaction.isActive()) transaction.rollback();
+            } finally {
+                entityManager.close();
+            }
+        }
+    }
+}
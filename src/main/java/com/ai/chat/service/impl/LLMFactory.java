@@ -1,28 +1,49 @@
 package com.ai.chat.service.impl;
 
 import com.ai.chat.client.LLMClient;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Component;
 
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Component
 public class LLMFactory {
 
-    private final Map<String, LLMClient> clients;
+    private final ObjectProvider<LLMClient> clientProvider;
 
-    public LLMFactory(List<LLMClient> clientList) {
-        this.clients = clientList.stream()
-                .collect(Collectors.toMap(
-                        LLMClient::getProviderName,
-                        Function.identity()
-                ));
+    // Provider clients are @Lazy, they and their connection pool are created on the first lookup
+    private volatile Map<String, LLMClient> clients;
+
+    public LLMFactory(ObjectProvider<LLMClient> clientProvider) {
+        this.clientProvider = clientProvider;
     }
 
     public LLMClient getClient(String provider) {
-        return clients.get(provider.toLowerCase());
+        return clients().get(provider.toLowerCase());
+    }
+
+    public Set<String> providerNames() {
+        return clients().keySet();
     }
-}
 
+    private Map<String, LLMClient> clients() {
+        Map<String, LLMClient> current = clients;
+        if (current == null) {
+            synchronized (this) {
+                current = clients;
+                if (current == null) {
+                    current = clientProvider.orderedStream()
+                            .collect(Collectors.toMap(
+                                    LLMClient::getProviderName,
+                                    Function.identity()
+                            ));
+                    clients = current;
+                }
+            }
+        }
+        return current;
+    }
+}
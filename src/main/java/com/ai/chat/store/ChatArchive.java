@@ -0,0 +1,240 @@
+package com.ai.chat.store;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.datasource.ReadYourWritesGuard;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Moves the messages of idle sessions from t_chat_message into one compressed row per session in
+ * t_chat_session_archive, and back when the session is read again. A session can end up with
+ * rows in both places if a message is written while it is being archived; rehydrating merges them.
+ */
+@Component
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "jpa", matchIfMissing = true)
+public class ChatArchive {
+
+    // 2 added the sequence numbers, version 1 payloads hold the first messages of their session;
+    // 3 added the parent sequence numbers, older payloads are linear
+    private static final int FORMAT_VERSION = 3;
+
+    // Sessions with hot messages, none of them newer than the cutoff
+    private static final String SELECT_IDLE = """
+            SELECT s.session_id
+            FROM ai_chat.t_chat_session s
+            WHERE s.created_date < ?
+              AND s.deleted_date IS NULL
+              AND EXISTS (SELECT 1 FROM ai_chat.t_chat_message m WHERE m.session_id = s.session_id)
+              AND NOT EXISTS (SELECT 1 FROM ai_chat.t_chat_message m
+                              WHERE m.session_id = s.session_id AND m.created_date >= ?)
+            ORDER BY s.session_id
+            LIMIT ?""";
+
+    private static final String TAKE_MESSAGES = """
+            DELETE FROM ai_chat.t_chat_message
+            WHERE session_id = ANY (?)
+            RETURNING session_id, message_id, role, content, created_date, seq, COALESCE(parent_seq, seq - 1)""";
+
+    private static final String TAKE_ARCHIVES = """
+            DELETE FROM ai_chat.t_chat_session_archive
+            WHERE session_id = ANY (?)
+            RETURNING session_id, payload""";
+
+    private static final String INSERT_ARCHIVE = """
+            INSERT INTO ai_chat.t_chat_session_archive (session_id, message_count, payload)
+            VALUES (?, ?, ?)""";
+
+    private static final String INSERT_MESSAGE = """
+            INSERT INTO ai_chat.t_chat_message (message_id, session_id, role, content, created_date, seq, parent_seq)
+            VALUES (?, ?, ?, ?, ?, ?, ?)""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ReadYourWritesGuard readYourWrites;
+    private final ChatProperties.Archive properties;
+
+    public ChatArchive(JdbcTemplate jdbcTemplate,
+                       TransactionTemplate transactionTemplate,
+                       ReadYourWritesGuard readYourWrites,
+                       ChatProperties chatProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.readYourWrites = readYourWrites;
+        this.properties = chatProperties.getArchive();
+    }
+
+    /**
+     * Archives one batch of idle sessions in a single transaction.
+     *
+     * @return the number of sessions archived
+     */
+    public int archiveIdle() {
+        Timestamp cutoff = Timestamp.from(Instant.now().minus(properties.getIdleAfter()));
+        List<Long> sessionIds = jdbcTemplate.queryForList(SELECT_IDLE, Long.class, cutoff, cutoff, properties.getBatchSize());
+        if (sessionIds.isEmpty()) return 0;
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Map<Long, List<ArchivedMessage>> bySession = take(sessionIds);
+            jdbcTemplate.batchUpdate(INSERT_ARCHIVE, bySession.entrySet(), bySession.size(), (ps, session) -> {
+                ps.setLong(1, session.getKey());
+                ps.setInt(2, session.getValue().size());
+                ps.setBytes(3, encode(session.getValue()));
+            });
+        });
+        return sessionIds.size();
+    }
+
+    /**
+     * @return the sessions among {@code sessionIds} that have archived messages
+     */
+    public Set<Long> archived(Collection<Long> sessionIds) {
+        if (sessionIds.isEmpty()) return Set.of();
+        return new HashSet<>(jdbcTemplate.query(
+                con -> withIds(con.prepareStatement(
+                        "SELECT session_id FROM ai_chat.t_chat_session_archive WHERE session_id = ANY (?)"), sessionIds),
+                (rs, i) -> rs.getLong(1)));
+    }
+
+    public boolean rehydrateIfArchived(Long sessionId) {
+        return !archived(List.of(sessionId)).isEmpty() && rehydrate(List.of(sessionId)) > 0;
+    }
+
+    /**
+     * Moves all archived sessions of a user back, e.g. ahead of an export.
+     */
+    public int rehydrateUser(String userId) {
+        List<Long> sessionIds = jdbcTemplate.queryForList("""
+                SELECT a.session_id
+                FROM ai_chat.t_chat_session_archive a
+                         JOIN ai_chat.t_chat_session s ON s.session_id = a.session_id
+                WHERE s.user_id = ?
+              AND s.deleted_date IS NULL""", Long.class, userId);
+        if (sessionIds.isEmpty()) return 0;
+
+        int restored = rehydrate(sessionIds);
+        readYourWrites.userWritten(userId);
+        return restored;
+    }
+
+    /**
+     * @return the number of sessions moved back to t_chat_message
+     */
+    public int rehydrate(Collection<Long> sessionIds) {
+        Map<Long, List<ArchivedMessage>> bySession = transactionTemplate.execute(status -> {
+            Map<Long, List<ArchivedMessage>> restored = new HashMap<>();
+            jdbcTemplate.query(con -> withIds(con.prepareStatement(TAKE_ARCHIVES), sessionIds), rs -> {
+                restored.put(rs.getLong(1), decode(rs.getBytes(2)));
+            });
+
+            List<Object[]> rows = new ArrayList<>();
+            Set<Date> months = new HashSet<>();
+            restored.forEach((sessionId, messages) -> {
+                for (ArchivedMessage message : messages) {
+                    rows.add(new Object[]{message.messageId(), sessionId, message.role(), message.content(),
+                            message.createdDate(), message.seq(), message.parentSeq()});
+                    months.add(Date.valueOf(message.createdDate().toLocalDateTime().toLocalDate().withDayOfMonth(1)));
+                }
+            });
+            // Partitions of old months could have been dropped since the session was archived
+            months.forEach(month -> jdbcTemplate.queryForObject(
+                    "SELECT ai_chat.ensure_chat_message_partition(?)", String.class, month));
+            if (!rows.isEmpty()) jdbcTemplate.batchUpdate(INSERT_MESSAGE, rows);
+            return restored;
+        });
+
+        bySession.keySet().forEach(readYourWrites::sessionWritten);
+        return bySession.size();
+    }
+
+    // Removes the hot messages and any earlier archive of the sessions, merged in sequence order
+    private Map<Long, List<ArchivedMessage>> take(List<Long> sessionIds) {
+        Map<Long, List<ArchivedMessage>> bySession = new LinkedHashMap<>();
+        jdbcTemplate.query(con -> withIds(con.prepareStatement(TAKE_ARCHIVES), sessionIds), rs -> {
+            bySession.computeIfAbsent(rs.getLong(1), k -> new ArrayList<>()).addAll(decode(rs.getBytes(2)));
+        });
+        jdbcTemplate.query(con -> withIds(con.prepareStatement(TAKE_MESSAGES), sessionIds), rs -> {
+            bySession.computeIfAbsent(rs.getLong(1), k -> new ArrayList<>()).add(new ArchivedMessage(
+                    rs.getLong(2), rs.getString(3), rs.getString(4), rs.getTimestamp(5), rs.getLong(6), rs.getLong(7)));
+        });
+        bySession.values().forEach(messages -> messages.sort(Comparator.comparingLong(ArchivedMessage::seq)));
+        return bySession;
+    }
+
+    private static PreparedStatement withIds(PreparedStatement statement, Collection<Long> sessionIds) throws SQLException {
+        Array ids = statement.getConnection().createArrayOf("bigint", sessionIds.toArray());
+        statement.setArray(1, ids);
+        return statement;
+    }
+
+    static byte[] encode(List<ArchivedMessage> messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(messages.size());
+            for (ArchivedMessage message : messages) {
+                out.writeLong(message.messageId());
+                out.writeLong(message.seq());
+                out.writeLong(message.parentSeq());
+                out.writeLong(message.createdDate().getTime());
+                writeString(out, message.role());
+                writeString(out, message.content());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<ArchivedMessage> decode(byte[] payload) {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(payload)))) {
+            int version = in.readByte();
+            if (version < 1 || version > FORMAT_VERSION) throw new IllegalStateException("Unknown archive format " + version);
+
+            int count = in.readInt();
+            List<ArchivedMessage> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long messageId = in.readLong();
+                long seq = version == 1 ? i + 1 : in.readLong();
+                long parentSeq = version < 3 ? seq - 1 : in.readLong();
+                Timestamp createdDate = new Timestamp(in.readLong());
+                messages.add(new ArchivedMessage(messageId, readString(in), readString(in), createdDate, seq, parentSeq));
+            }
+            return messages;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // writeUTF is limited to 64 KB, assistant replies are not
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        return length < 0 ? null : new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    record ArchivedMessage(long messageId, String role, String content, Timestamp createdDate, long seq, long parentSeq) {
+    }
+}
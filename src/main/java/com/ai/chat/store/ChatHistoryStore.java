@@ -0,0 +1,84 @@
+package com.ai.chat.store;
+
+import com.ai.chat.dto.ChatMessageDto;
+import com.ai.chat.entities.ChatMessage;
+import com.ai.chat.entities.ChatSession;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Where sessions and messages are persisted. Selected with {@code chat.store.type}:
+ * {@code jpa} (default, PostgreSQL) or {@code log} (local segmented log files, no database).
+ * All methods block and must be called off the event loop. Message reads return DTOs, never entities.
+ */
+public interface ChatHistoryStore {
+
+    ChatSession createSession(String userId, String userName);
+
+    Optional<ChatSession> findSession(String userId, Long sessionId);
+
+    /**
+     * @return the user's sessions, most recent first
+     */
+    List<ChatSession> listSessions(String userId);
+
+    void saveTitle(ChatSession session);
+
+    /**
+     * Hides the session right away; its messages may be removed later in the background.
+     *
+     * @return false if the user has no such session
+     */
+    boolean deleteSession(String userId, Long sessionId);
+
+    /**
+     * Same as {@link #deleteSession} for all sessions of the user.
+     *
+     * @return the sessions that were deleted
+     */
+    List<Long> deleteAllSessions(String userId);
+
+    /**
+     * Assigns the next sequence numbers of the session to the messages, in list order. A message
+     * without a parent sequence number follows the one before it: the previous message of the list,
+     * or of the session for the first one.
+     */
+    void append(ChatSession session, List<ChatMessage> messages);
+
+    /**
+     * @return the sequence number of the session's latest message, 0 if it has none, or empty
+     * if the user has no such session
+     */
+    Optional<Long> lastSeq(String userId, Long sessionId);
+
+    /**
+     * Same as {@link #lastSeq} for several sessions at once, whoever they belong to. Sessions that do
+     * not exist are left out.
+     */
+    Map<Long, Long> lastSeqs(Collection<Long> sessionIds);
+
+    /**
+     * @return all messages of the session, oldest first
+     */
+    List<ChatMessageDto> messages(Long sessionId);
+
+    /**
+     * @return the last {@code limit} messages of the branch ending at the session's latest message,
+     * oldest first
+     */
+    List<ChatMessageDto> tail(Long sessionId, int limit);
+
+    /**
+     * @return the last {@code limit} messages of the branch ending at message {@code seq}, oldest
+     * first, or nothing if the session has no such message
+     */
+    List<ChatMessageDto> branch(Long sessionId, long seq, int limit);
+
+    /**
+     * Same as {@link #tail} for several sessions at once. Sessions without messages are left out.
+     */
+    Map<Long, List<ChatMessageDto>> tails(Collection<Long> sessionIds, int limit);
+}
@@ -0,0 +1,53 @@
+package com.ai.chat.store;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hibernate counters behind GET /v1/api/db-stats, to compare statements and loaded entities per
+ * transaction before and after a change. Only counts while
+ * {@code spring.jpa.properties.hibernate.generate_statistics} is true.
+ */
+@Component
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "jpa", matchIfMissing = true)
+public class HibernateStatistics {
+
+    private final Statistics statistics;
+
+    public HibernateStatistics(EntityManagerFactory entityManagerFactory) {
+        this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    public Map<String, Object> snapshot() {
+        long transactions = statistics.getTransactionCount();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", statistics.isStatisticsEnabled());
+        snapshot.put("since", statistics.getStart().toEpochMilli());
+        snapshot.put("transactions", transactions);
+        snapshot.put("statements", statistics.getPrepareStatementCount());
+        snapshot.put("queries", statistics.getQueryExecutionCount());
+        snapshot.put("entitiesLoaded", statistics.getEntityLoadCount());
+        snapshot.put("entitiesFetched", statistics.getEntityFetchCount());
+        snapshot.put("collectionsFetched", statistics.getCollectionFetchCount());
+        snapshot.put("flushes", statistics.getFlushCount());
+        snapshot.put("statementsPerTransaction", perTransaction(statistics.getPrepareStatementCount(), transactions));
+        snapshot.put("entitiesPerTransaction", perTransaction(statistics.getEntityLoadCount(), transactions));
+        snapshot.put("slowestQuery", statistics.getQueryExecutionMaxTimeQueryString());
+        snapshot.put("slowestQueryMillis", statistics.getQueryExecutionMaxTime());
+        return snapshot;
+    }
+
+    public void reset() {
+        statistics.clear();
+    }
+
+    private static double perTransaction(long count, long transactions) {
+        return transactions == 0 ? 0 : Math.round(count * 100.0 / transactions) / 100.0;
+    }
+}
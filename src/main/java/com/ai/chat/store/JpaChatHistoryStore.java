@@ -0,0 +1,215 @@
+package com.ai.chat.store;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.datasource.ReadYourWritesGuard;
+import com.ai.chat.dto.ChatMessageDto;
+import com.ai.chat.entities.ChatMessage;
+import com.ai.chat.entities.ChatSession;
+import com.ai.chat.repositories.ChatMessageRepository;
+import com.ai.chat.repositories.ChatSessionRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+@Component
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "jpa", matchIfMissing = true)
+public class JpaChatHistoryStore implements ChatHistoryStore {
+
+    // Session ids per IN list of lastSeqs
+    private static final int LAST_SEQS_BATCH = 1_000;
+
+    private final ChatSessionRepository chatSessionRepository;
+    private final ChatMessageRepository chatMessageRepository;
+    private final ReadYourWritesGuard readYourWrites;
+    private final ChatArchive chatArchive;
+    private final MessageSequence messageSequence;
+    private final SessionPurger sessionPurger;
+    private final TransactionTemplate transactionTemplate;
+    // Latest sequence number per session, so unchanged sessions are answered without a query. Bounded
+    // LRU; entries expire so appends made on other nodes show up within the TTL
+    private final Map<Long, KnownSeq> knownSeqs;
+    private final long knownSeqTtlNanos;
+
+    public JpaChatHistoryStore(ChatSessionRepository chatSessionRepository,
+                               ChatMessageRepository chatMessageRepository,
+                               ReadYourWritesGuard readYourWrites,
+                               ChatArchive chatArchive,
+                               MessageSequence messageSequence,
+                               SessionPurger sessionPurger,
+                               TransactionTemplate transactionTemplate,
+                               ChatProperties chatProperties) {
+        this.chatSessionRepository = chatSessionRepository;
+        this.chatMessageRepository = chatMessageRepository;
+        this.readYourWrites = readYourWrites;
+        this.chatArchive = chatArchive;
+        this.messageSequence = messageSequence;
+        this.sessionPurger = sessionPurger;
+        this.transactionTemplate = transactionTemplate;
+        ChatProperties.Store properties = chatProperties.getStore();
+        this.knownSeqTtlNanos = properties.getLastSeqTtl().toNanos();
+        this.knownSeqs = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, KnownSeq> eldest) {
+                return size() > properties.getLastSeqEntries();
+            }
+        });
+    }
+
+    @Override
+    public ChatSession createSession(String userId, String userName) {
+        ChatSession session = chatSessionRepository.save(ChatSession.builder()
+                .userId(userId)
+                .userName(userName)
+                .build());
+        readYourWrites.userWritten(userId);
+        readYourWrites.sessionWritten(session.getSessionId());
+        return session;
+    }
+
+    @Override
+    public Optional<ChatSession> findSession(String userId, Long sessionId) {
+        return readYourWrites.readUser(userId,
+                () -> chatSessionRepository.findTopByUserIdAndSessionId(userId, sessionId));
+    }
+
+    @Override
+    public List<ChatSession> listSessions(String userId) {
+        return readYourWrites.readUser(userId, () -> chatSessionRepository.findByUserIdOrderByCreatedDateDesc(userId));
+    }
+
+    @Override
+    public void saveTitle(ChatSession session) {
+        chatSessionRepository.save(session);
+        readYourWrites.userWritten(session.getUserId());
+    }
+
+    @Override
+    public boolean deleteSession(String userId, Long sessionId) {
+        // Only flagged here, loading the session would cascade to every message; ChatPurgeJob removes the rows
+        boolean deleted = sessionPurger.softDelete(userId, sessionId);
+        knownSeqs.remove(sessionId);
+        readYourWrites.userWritten(userId);
+        readYourWrites.sessionWritten(sessionId);
+        return deleted;
+    }
+
+    @Override
+    public List<Long> deleteAllSessions(String userId) {
+        List<Long> sessionIds = sessionPurger.softDeleteAll(userId);
+        for (Long sessionId : sessionIds) {
+            knownSeqs.remove(sessionId);
+            readYourWrites.sessionWritten(sessionId);
+        }
+        readYourWrites.userWritten(userId);
+        return sessionIds;
+    }
+
+    @Override
+    public void append(ChatSession session, List<ChatMessage> messages) {
+        if (messages.isEmpty()) return;
+        long last = transactionTemplate.execute(status -> {
+            long seq = messageSequence.allocate(session.getSessionId(), messages.size());
+            for (ChatMessage message : messages) {
+                message.setSession(session);
+                if (message.getParentSeq() == null) message.setParentSeq(seq - 1);
+                message.setSeq(seq++);
+            }
+            chatMessageRepository.saveAll(messages);
+            return seq - 1;
+        });
+        knownSeqs.merge(session.getSessionId(), new KnownSeq(session.getUserId(), last, System.nanoTime()),
+                (known, appended) -> known.seq() > appended.seq() ? known : appended);
+        readYourWrites.sessionWritten(session.getSessionId());
+    }
+
+    @Override
+    public Optional<Long> lastSeq(String userId, Long sessionId) {
+        KnownSeq known = knownSeqs.get(sessionId);
+        if (known != null && !isExpired(known)) {
+            return known.userId().equals(userId) ? Optional.of(known.seq()) : Optional.empty();
+        }
+
+        Optional<Long> seq = readYourWrites.readSession(sessionId,
+                () -> chatSessionRepository.findLastSeq(userId, sessionId));
+        // An append may have raced the query, the higher number wins
+        seq.ifPresent(value -> knownSeqs.merge(sessionId, new KnownSeq(userId, value, System.nanoTime()),
+                (current, loaded) -> !isExpired(current) && current.seq() > loaded.seq() ? current : loaded));
+        return seq;
+    }
+
+    private boolean isExpired(KnownSeq known) {
+        return System.nanoTime() - known.at() > knownSeqTtlNanos;
+    }
+
+    @Override
+    public Map<Long, Long> lastSeqs(Collection<Long> sessionIds) {
+        Map<Long, Long> lastSeqs = new HashMap<>();
+        List<Long> ids = List.copyOf(sessionIds);
+        for (int from = 0; from < ids.size(); from += LAST_SEQS_BATCH) {
+            List<Long> batch = ids.subList(from, Math.min(ids.size(), from + LAST_SEQS_BATCH));
+            readYourWrites.readSessions(batch, () -> chatSessionRepository.findLastSeqs(batch))
+                    .forEach(row -> lastSeqs.put(row.getSessionId(), row.getLastSeq()));
+        }
+        return lastSeqs;
+    }
+
+    @Override
+    public List<ChatMessageDto> messages(Long sessionId) {
+        chatArchive.rehydrateIfArchived(sessionId);
+        return readYourWrites.readSession(sessionId,
+                () -> chatMessageRepository.findMessages(sessionId, Pageable.unpaged()));
+    }
+
+    @Override
+    public List<ChatMessageDto> tail(Long sessionId, int limit) {
+        return tails(List.of(sessionId), limit).getOrDefault(sessionId, List.of());
+    }
+
+    @Override
+    public List<ChatMessageDto> branch(Long sessionId, long seq, int limit) {
+        List<ChatMessageDto> branch = findBranch(sessionId, seq, limit);
+        // A short branch may continue in the archive
+        if (branch.size() < limit && chatArchive.rehydrateIfArchived(sessionId)) {
+            branch = findBranch(sessionId, seq, limit);
+        }
+        return branch;
+    }
+
+    private List<ChatMessageDto> findBranch(Long sessionId, long seq, int limit) {
+        return readYourWrites.readSession(sessionId,
+                () -> chatMessageRepository.findBranch(sessionId, seq, limit)).stream()
+                .map(ChatMessageRepository.RecentMessage::toDto)
+                .toList();
+    }
+
+    @Override
+    public Map<Long, List<ChatMessageDto>> tails(Collection<Long> sessionIds, int limit) {
+        Map<Long, List<ChatMessageDto>> tails = recent(sessionIds, limit);
+        List<Long> partial = sessionIds.stream()
+                .filter(sessionId -> tails.getOrDefault(sessionId, List.of()).size() < limit)
+                .toList();
+        Set<Long> archived = chatArchive.archived(partial);
+        if (archived.isEmpty()) return tails;
+
+        chatArchive.rehydrate(archived);
+        tails.putAll(recent(archived, limit));
+        return tails;
+    }
+
+    private Map<Long, List<ChatMessageDto>> recent(Collection<Long> sessionIds, int limit) {
+        return readYourWrites.readSessions(sessionIds,
+                        () -> chatMessageRepository.findRecentBySessionIds(List.copyOf(sessionIds), limit)).stream()
+                .collect(Collectors.groupingBy(
+                        ChatMessageRepository.RecentMessage::getSessionId,
+                        LinkedHashMap::new,
+                        Collectors.mapping(ChatMessageRepository.RecentMessage::toDto, Collectors.toList())
+                ));
+    }
+
+    private record KnownSeq(String userId, long seq, long at) {
+    }
+}
@@ -0,0 +1,743 @@
+package com.ai.chat.store;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.dto.ChatMessageDto;
+import com.ai.chat.entities.ChatMessage;
+import com.ai.chat.entities.ChatSession;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Single node store on append-only segment files, for deployments without PostgreSQL.
+ * <p>
+ * Every change is a record {@code [length:4][crc32c:4][type:1][sessionId:8][fields]} appended to the
+ * active segment, which is memory mapped at its full size, so reads are plain buffer accesses. The
+ * in-memory index keeps, per session, the position of its latest session record and of every message
+ * in order, and is rebuilt by scanning the segments on startup; a torn record at the end of the last
+ * segment is discarded. A message that does not follow the one before it, an edit or a regenerated
+ * answer, is written as a branched record carrying its parent. Deleting a session appends a tombstone. Sealed segments whose live records
+ * fall below {@code compaction-threshold} are rewritten by copying the live records to the active
+ * segment and deleting the file. Dropping tombstones appends a high-water record with the next ids, so
+ * the ids of deleted sessions and messages are not handed out again after a restart.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "log")
+public class LogChatHistoryStore implements ChatHistoryStore {
+
+    private static final byte SESSION = 1;
+    private static final byte MESSAGE = 2;
+    private static final byte DELETED = 3;
+    // A message that does not follow the previous one of its session, with its parent's sequence number
+    private static final byte BRANCHED = 4;
+    // The next session and message ids, in place of the tombstones dropped by compaction
+    private static final byte HIGH_WATER = 5;
+
+    private static final int HEADER = 8;
+    // Move indexes of records that are not messages
+    private static final int META = -1;
+    private static final int TOMBSTONE = -2;
+
+    private final ChatProperties.Store.Log properties;
+    private final Path directory;
+    private final int segmentSize;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final NavigableMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<Long, SessionEntry> sessions = new HashMap<>();
+    private final Map<String, NavigableSet<Long>> userSessions = new HashMap<>();
+    // Tombstones stay until no segment holds records of the deleted session
+    private final Map<Long, Long> tombstones = new HashMap<>();
+    private Segment active;
+    private long nextSessionId = 1;
+    private long nextMessageId = 1;
+    private long highWater = -1;
+
+    private ScheduledExecutorService compactor;
+
+    public LogChatHistoryStore(ChatProperties chatProperties) throws IOException {
+        this.properties = chatProperties.getStore().getLog();
+        this.directory = Path.of(properties.getDirectory());
+        this.segmentSize = Math.toIntExact(properties.getSegmentSize().toBytes());
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    @Override
+    public ChatSession createSession(String userId, String userName) {
+        lock.writeLock().lock();
+        try {
+            ChatSession session = ChatSession.builder()
+                    .sessionId(nextSessionId++)
+                    .userId(userId)
+                    .userName(userName)
+                    .createdDate(new Timestamp(System.currentTimeMillis()))
+                    .build();
+            SessionEntry entry = new SessionEntry();
+            entry.session = session;
+            entry.metaPosition = append(session.getSessionId(), sessionRecord(session));
+            sessions.put(session.getSessionId(), entry);
+            userSessions.computeIfAbsent(userId, k -> new TreeSet<>()).add(session.getSessionId());
+            return copy(session);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<ChatSession> findSession(String userId, Long sessionId) {
+        lock.readLock().lock();
+        try {
+            SessionEntry entry = sessions.get(sessionId);
+            if (entry == null || !entry.session.getUserId().equals(userId)) return Optional.empty();
+            return Optional.of(copy(entry.session));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ChatSession> listSessions(String userId) {
+        lock.readLock().lock();
+        try {
+            NavigableSet<Long> ids = userSessions.getOrDefault(userId, Collections.emptyNavigableSet());
+            // Ids are handed out in creation order
+            return ids.descendingSet().stream()
+                    .map(id -> copy(sessions.get(id).session))
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveTitle(ChatSession session) {
+        lock.writeLock().lock();
+        try {
+            SessionEntry entry = sessions.get(session.getSessionId());
+            if (entry == null) return;
+            entry.session.setTitle(session.getTitle());
+            long previous = entry.metaPosition;
+            entry.metaPosition = append(session.getSessionId(), sessionRecord(entry.session));
+            release(previous);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteSession(String userId, Long sessionId) {
+        lock.writeLock().lock();
+        try {
+            SessionEntry entry = sessions.get(sessionId);
+            if (entry == null || !entry.session.getUserId().equals(userId)) return false;
+
+            tombstones.put(sessionId, append(sessionId, ByteBuffer.allocate(1 + 8).put(DELETED).putLong(sessionId).array()));
+            sessions.remove(sessionId);
+            userSessions.get(userId).remove(sessionId);
+
+            release(entry.metaPosition);
+            for (int i = 0; i < entry.size; i++) release(entry.positions[i]);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Long> deleteAllSessions(String userId) {
+        lock.writeLock().lock();
+        try {
+            List<Long> sessionIds = new ArrayList<>(userSessions.getOrDefault(userId, Collections.emptyNavigableSet()));
+            sessionIds.removeIf(sessionId -> !deleteSession(userId, sessionId));
+            return sessionIds;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void append(ChatSession session, List<ChatMessage> messages) {
+        lock.writeLock().lock();
+        try {
+            SessionEntry entry = sessions.get(session.getSessionId());
+            if (entry == null) {
+                log.warn("Dropping {} messages of unknown session {}", messages.size(), session.getSessionId());
+                return;
+            }
+            for (ChatMessage message : messages) {
+                message.setSession(session);
+                message.setMessageId(nextMessageId++);
+                message.setSeq(entry.size + 1L);
+                if (message.getParentSeq() == null) message.setParentSeq((long) entry.size);
+                if (message.getCreatedDate() == null) {
+                    message.setCreatedDate(new Timestamp(System.currentTimeMillis()));
+                }
+                entry.add(message.getMessageId(), append(session.getSessionId(), messageRecord(message)));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Long> lastSeq(String userId, Long sessionId) {
+        lock.readLock().lock();
+        try {
+            SessionEntry entry = sessions.get(sessionId);
+            if (entry == null || !entry.session.getUserId().equals(userId)) return Optional.empty();
+            return Optional.of((long) entry.size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<Long, Long> lastSeqs(Collection<Long> sessionIds) {
+        Map<Long, Long> lastSeqs = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Long sessionId : sessionIds) {
+                SessionEntry entry = sessions.get(sessionId);
+                if (entry != null) lastSeqs.put(sessionId, (long) entry.size);
+            }
+            return lastSeqs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ChatMessageDto> messages(Long sessionId) {
+        return read(sessionId, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<ChatMessageDto> tail(Long sessionId, int limit) {
+        lock.readLock().lock();
+        try {
+            SessionEntry entry = sessions.get(sessionId);
+            return entry == null ? List.of() : branch(sessionId, entry.size, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ChatMessageDto> branch(Long sessionId, long seq, int limit) {
+        lock.readLock().lock();
+        try {
+            SessionEntry entry = sessions.get(sessionId);
+            if (entry == null) return List.of();
+
+            LinkedList<ChatMessageDto> branch = new LinkedList<>();
+            for (long next = seq; next > 0 && next <= entry.size && branch.size() < limit; ) {
+                ChatMessageDto message = decodeMessage(body(entry.positions[(int) next - 1]), next);
+                branch.addFirst(message);
+                next = message.getParentSeq();
+            }
+            return branch;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<Long, List<ChatMessageDto>> tails(Collection<Long> sessionIds, int limit) {
+        Map<Long, List<ChatMessageDto>> tails = new LinkedHashMap<>();
+        for (Long sessionId : sessionIds) {
+            List<ChatMessageDto> tail = tail(sessionId, limit);
+            if (!tail.isEmpty()) tails.put(sessionId, tail);
+        }
+        return tails;
+    }
+
+    /**
+     * @param from first message index, negative to count from the end
+     */
+    private List<ChatMessageDto> read(Long sessionId, int from, int limit) {
+        lock.readLock().lock();
+        try {
+            SessionEntry entry = sessions.get(sessionId);
+            if (entry == null) return List.of();
+
+            int start = from < 0 ? Math.max(0, entry.size + from) : Math.min(from, entry.size);
+            int end = (int) Math.min(entry.size, (long) start + limit);
+            List<ChatMessageDto> messages = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                messages.add(decodeMessage(body(entry.positions[i]), i + 1));
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (compactor != null) return;
+
+        // Its own thread, copying a segment must not hold up the @Scheduled jobs sharing the scheduler thread
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-log-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getCompactionInterval().toMillis();
+        compactor.scheduleWithFixedDelay(this::compact, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rewrites at most one sealed segment per run, the one with the fewest live bytes. Its live records
+     * are read under the read lock; the write lock is held only to append the copies and swap positions.
+     */
+    public synchronized void compact() {
+        Segment victim;
+        long written;
+        long live;
+        List<Move> moves = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            victim = segments.values().stream()
+                    .filter(segment -> segment != active)
+                    .filter(segment -> segment.liveBytes < properties.getCompactionThreshold() * segment.written)
+                    .min(Comparator.comparingDouble(segment -> (double) segment.liveBytes / Math.max(1, segment.written)))
+                    .orElse(null);
+            if (victim == null) return;
+            written = victim.written;
+            live = victim.liveBytes;
+
+            for (Long sessionId : victim.sessions) {
+                SessionEntry entry = sessions.get(sessionId);
+                if (entry == null) continue;
+                if (segmentId(entry.metaPosition) == victim.id) {
+                    moves.add(move(sessionId, META, entry.metaPosition));
+                }
+                for (int i = 0; i < entry.size; i++) {
+                    if (segmentId(entry.positions[i]) == victim.id) {
+                        moves.add(move(sessionId, i, entry.positions[i]));
+                    }
+                }
+            }
+            for (Map.Entry<Long, Long> tombstone : tombstones.entrySet()) {
+                if (segmentId(tombstone.getValue()) != victim.id) continue;
+                boolean stillNeeded = segments.values().stream()
+                        .anyMatch(segment -> segment != victim && segment.sessions.contains(tombstone.getKey()));
+                if (stillNeeded) moves.add(move(tombstone.getKey(), TOMBSTONE, tombstone.getValue()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            // The victim is sealed, so records can only have been released since they were read
+            for (Move move : moves) {
+                if (move.index() == TOMBSTONE) {
+                    if (Objects.equals(tombstones.get(move.sessionId()), move.position())) {
+                        tombstones.put(move.sessionId(), append(move.sessionId(), move.body()));
+                    }
+                    continue;
+                }
+                SessionEntry entry = sessions.get(move.sessionId());
+                if (entry == null) continue;
+                if (move.index() == META) {
+                    if (entry.metaPosition == move.position()) entry.metaPosition = append(move.sessionId(), move.body());
+                } else if (entry.positions[move.index()] == move.position()) {
+                    entry.positions[move.index()] = append(move.sessionId(), move.body());
+                }
+            }
+            boolean dropped = tombstones.values().removeIf(position -> segmentId(position) == victim.id);
+            if (dropped || segmentId(highWater) == victim.id) {
+                long previous = highWater;
+                highWater = append(0, ByteBuffer.allocate(1 + 8 + 8)
+                        .put(HIGH_WATER).putLong(nextSessionId).putLong(nextMessageId).array());
+                if (previous >= 0) release(previous);
+            }
+            segments.remove(victim.id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // No reader can reach the segment any more
+        try {
+            victim.channel.close();
+            Files.delete(victim.path);
+            log.info("Compacted chat log segment {}: {} bytes, {} live", victim.id, written, live);
+        } catch (IOException e) {
+            log.warn("Deleting compacted chat log segment {} failed: {}", victim.id, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        synchronized (this) {
+            if (compactor != null) compactor.shutdownNow();
+        }
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+        } catch (IOException e) {
+            log.warn("Closing chat log failed: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---- Writing ----
+
+    private long append(long sessionId, byte[] body) {
+        int length = HEADER + body.length;
+        if (length > segmentSize) {
+            throw new IllegalArgumentException("Record of " + length + " bytes exceeds the segment size");
+        }
+        if (active == null || active.written + length > active.buffer.capacity()) {
+            roll();
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        int offset = active.written;
+        active.buffer.putInt(offset + 4, (int) crc.getValue());
+        active.buffer.put(offset + HEADER, body);
+        // Length last: a record is visible to recovery only once it is complete
+        active.buffer.putInt(offset, body.length);
+        if (properties.isForceOnAppend()) active.buffer.force(offset, length);
+
+        active.written += length;
+        active.liveBytes += length;
+        if (body[0] == SESSION || body[0] == MESSAGE || body[0] == BRANCHED) active.sessions.add(sessionId);
+        return position(active.id, offset);
+    }
+
+    private Move move(long sessionId, int index, long position) {
+        ByteBuffer body = body(position);
+        byte[] copy = new byte[body.remaining()];
+        body.get(copy);
+        return new Move(sessionId, index, position, copy);
+    }
+
+    private void release(long position) {
+        Segment segment = segments.get(segmentId(position));
+        if (segment != null) segment.liveBytes -= HEADER + segment.buffer.getInt(offset(position));
+    }
+
+    private void roll() {
+        if (active != null) active.buffer.force();
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        active = open(id, segmentSize);
+        segments.put(id, active);
+    }
+
+    private Segment open(int id, long size) {
+        Path path = directory.resolve(String.format("segment-%08d.log", id));
+        try {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(id, path, channel, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open chat log segment " + path, e);
+        }
+    }
+
+    // ---- Recovery ----
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> path.getFileName().toString().matches("segment-\\d{8}\\.log"))
+                    .sorted()
+                    .toList();
+        }
+
+        Set<Long> deleted = new HashSet<>();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            boolean last = i == files.size() - 1;
+            int id = Integer.parseInt(file.getFileName().toString().substring(8, 16));
+            long size = last ? Math.max(Files.size(file), segmentSize) : Files.size(file);
+            Segment segment = open(id, size);
+            segments.put(id, segment);
+            scan(segment, last, deleted);
+            active = segment;
+        }
+
+        for (Long sessionId : deleted) {
+            SessionEntry entry = sessions.remove(sessionId);
+            if (entry != null && entry.session != null) userSessions.get(entry.session.getUserId()).remove(sessionId);
+        }
+        sessions.entrySet().removeIf(e -> {
+            if (e.getValue().session != null) return false;
+            log.warn("Chat log has messages but no session record for session {}", e.getKey());
+            return true;
+        });
+
+        for (SessionEntry entry : sessions.values()) {
+            entry.sortByMessageId();
+            countLive(entry.metaPosition);
+            for (int i = 0; i < entry.size; i++) countLive(entry.positions[i]);
+        }
+        tombstones.values().forEach(this::countLive);
+        if (highWater >= 0) countLive(highWater);
+
+        log.info("Chat log recovered: {} segments, {} sessions", segments.size(), sessions.size());
+    }
+
+    private void scan(Segment segment, boolean last, Set<Long> deleted) {
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length == 0) break;
+
+            boolean valid = length > 0 && offset + HEADER + length <= buffer.capacity();
+            if (valid) {
+                CRC32C crc = new CRC32C();
+                crc.update(buffer.slice(offset + HEADER, length));
+                valid = (int) crc.getValue() == buffer.getInt(offset + 4);
+            }
+            if (!valid) {
+                log.warn("Chat log segment {} is torn at offset {}, {}", segment.id, offset,
+                        last ? "discarding the tail" : "records after it are lost");
+                if (last) {
+                    for (int i = offset; i < buffer.capacity(); i++) buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+
+            apply(segment, position(segment.id, offset), buffer.slice(offset + HEADER, length), deleted);
+            offset += HEADER + length;
+        }
+        segment.written = offset;
+    }
+
+    private void apply(Segment segment, long position, ByteBuffer body, Set<Long> deleted) {
+        byte type = body.get();
+        long sessionId = body.getLong();
+
+        if (type == HIGH_WATER) {
+            // The session id field holds the next session id
+            nextSessionId = Math.max(nextSessionId, sessionId);
+            nextMessageId = Math.max(nextMessageId, body.getLong());
+            highWater = position;
+            return;
+        }
+        if (type == DELETED) {
+            deleted.add(sessionId);
+            tombstones.put(sessionId, position);
+            nextSessionId = Math.max(nextSessionId, sessionId + 1);
+            return;
+        }
+
+        segment.sessions.add(sessionId);
+        SessionEntry entry = sessions.computeIfAbsent(sessionId, k -> new SessionEntry());
+        if (type == SESSION) {
+            // Only the latest session record of a session survives compaction, so the last one read wins
+            ChatSession session = decodeSession(sessionId, body);
+            if (entry.session == null) {
+                userSessions.computeIfAbsent(session.getUserId(), k -> new TreeSet<>()).add(sessionId);
+            }
+            entry.session = session;
+            entry.metaPosition = position;
+            nextSessionId = Math.max(nextSessionId, sessionId + 1);
+        } else {
+            // MESSAGE or BRANCHED
+            long messageId = body.getLong();
+            entry.add(messageId, position);
+            nextMessageId = Math.max(nextMessageId, messageId + 1);
+        }
+    }
+
+    private void countLive(long position) {
+        Segment segment = segments.get(segmentId(position));
+        segment.liveBytes += HEADER + segment.buffer.getInt(offset(position));
+    }
+
+    // ---- Encoding ----
+
+    private static byte[] sessionRecord(ChatSession session) {
+        byte[] userId = utf8(session.getUserId());
+        byte[] userName = utf8(session.getUserName());
+        byte[] title = utf8(session.getTitle());
+        return ByteBuffer.allocate(1 + 8 + 8 + stringSize(userId) + stringSize(userName) + stringSize(title))
+                .put(SESSION)
+                .putLong(session.getSessionId())
+                .putLong(session.getCreatedDate().getTime())
+                .put(string(userId)).put(string(userName)).put(string(title))
+                .array();
+    }
+
+    private static byte[] messageRecord(ChatMessage message) {
+        byte[] role = utf8(message.getRole());
+        byte[] content = utf8(message.getContent());
+        boolean branched = message.getParentSeq() != message.getSeq() - 1;
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8 + 8 + (branched ? 8 : 0) + stringSize(role) + stringSize(content))
+                .put(branched ? BRANCHED : MESSAGE)
+                .putLong(message.getSession().getSessionId())
+                .putLong(message.getMessageId())
+                .putLong(message.getCreatedDate().getTime());
+        if (branched) buffer.putLong(message.getParentSeq());
+        return buffer.put(string(role)).put(string(content)).array();
+    }
+
+    private static ChatSession decodeSession(long sessionId, ByteBuffer body) {
+        return ChatSession.builder()
+                .sessionId(sessionId)
+                .createdDate(new Timestamp(body.getLong()))
+                .userId(readString(body))
+                .userName(readString(body))
+                .title(readString(body))
+                .build();
+    }
+
+    // Messages are never removed from a live session, so the sequence number is the position in it
+    private static ChatMessageDto decodeMessage(ByteBuffer body, long seq) {
+        // Skips type, sessionId and messageId
+        body.position(1 + 8 + 8);
+        Timestamp createdDate = new Timestamp(body.getLong());
+        long parentSeq = body.get(0) == BRANCHED ? body.getLong() : seq - 1;
+        String role = readString(body);
+        return new ChatMessageDto(role, readString(body), createdDate, seq, parentSeq);
+    }
+
+    private ByteBuffer body(long position) {
+        MappedByteBuffer buffer = segments.get(segmentId(position)).buffer;
+        int offset = offset(position);
+        return buffer.slice(offset + HEADER, buffer.getInt(offset));
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringSize(byte[] value) {
+        return 4 + (value == null ? 0 : value.length);
+    }
+
+    private static byte[] string(byte[] value) {
+        ByteBuffer buffer = ByteBuffer.allocate(stringSize(value));
+        buffer.putInt(value == null ? -1 : value.length);
+        if (value != null) buffer.put(value);
+        return buffer.array();
+    }
+
+    private static String readString(ByteBuffer body) {
+        int length = body.getInt();
+        if (length < 0) return null;
+        byte[] value = new byte[length];
+        body.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static ChatSession copy(ChatSession session) {
+        return ChatSession.builder()
+                .sessionId(session.getSessionId())
+                .userId(session.getUserId())
+                .userName(session.getUserName())
+                .title(session.getTitle())
+                .createdDate(session.getCreatedDate())
+                .build();
+    }
+
+    private static long position(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentId(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    // A live record of the segment being compacted, read before its copy is appended
+    private record Move(long sessionId, int index, long position, byte[] body) {
+    }
+
+    private static final class Segment {
+
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // Sessions with session or message records in this segment, live or not
+        private final Set<Long> sessions = new HashSet<>();
+        private int written;
+        private long liveBytes;
+
+        private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Per-session offset index: message positions in conversation order.
+     */
+    private static final class SessionEntry {
+
+        private ChatSession session;
+        private long metaPosition;
+        private long[] messageIds = new long[8];
+        private long[] positions = new long[8];
+        private int size;
+
+        private void add(long messageId, long position) {
+            if (size == positions.length) {
+                messageIds = Arrays.copyOf(messageIds, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            messageIds[size] = messageId;
+            positions[size++] = position;
+        }
+
+        // Compaction moves messages to later segments, so scan order is not conversation order
+        private void sortByMessageId() {
+            boolean sorted = true;
+            for (int i = 1; i < size && sorted; i++) sorted = messageIds[i - 1] < messageIds[i];
+            if (sorted) return;
+
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            Arrays.sort(order, Comparator.comparingLong(i -> messageIds[i]));
+
+            long[] ids = new long[messageIds.length];
+            long[] moved = new long[positions.length];
+            for (int i = 0; i < size; i++) {
+                ids[i] = messageIds[order[i]];
+                moved[i] = positions[order[i]];
+            }
+            messageIds = ids;
+            positions = moved;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.ai.chat.store;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hands out the per-session message sequence numbers from t_chat_session.last_seq. Must run in
+ * the transaction that inserts the messages: the row lock taken here is held until commit, so
+ * a reader never sees a number before all lower numbers of the session are committed.
+ */
+@Component
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "jpa", matchIfMissing = true)
+public class MessageSequence {
+
+    private static final String ALLOCATE = """
+            UPDATE ai_chat.t_chat_session
+            SET last_seq = last_seq + ?
+            WHERE session_id = ?
+              AND deleted_date IS NULL
+            RETURNING last_seq""";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MessageSequence(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Fails with {@link org.springframework.dao.EmptyResultDataAccessException} if the session
+     * was deleted, so no message is added to a session waiting to be purged.
+     *
+     * @return the first of {@code count} consecutive numbers reserved for the session
+     */
+    public long allocate(Long sessionId, int count) {
+        long last = jdbcTemplate.queryForObject(ALLOCATE, Long.class, count, sessionId);
+        return last - count + 1;
+    }
+}
@@ -0,0 +1,135 @@
+package com.ai.chat.store;
+
+import com.ai.chat.config.ChatProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Deletes sessions in two steps. A request only sets t_chat_session.deleted_date, which hides the
+ * session from every entity query; {@link #purge} later removes the messages of deleted sessions
+ * with set-based deletes of {@code chunk-size} rows, each in its own transaction, and then the
+ * session rows that have none left. Archived payloads go with their session row.
+ */
+@Component
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "jpa", matchIfMissing = true)
+public class SessionPurger {
+
+    private static final String SOFT_DELETE = """
+            UPDATE ai_chat.t_chat_session
+            SET deleted_date = now()
+            WHERE user_id = ?
+              AND session_id = ?
+              AND deleted_date IS NULL""";
+
+    private static final String SOFT_DELETE_ALL = """
+            UPDATE ai_chat.t_chat_session
+            SET deleted_date = now()
+            WHERE user_id = ?
+              AND deleted_date IS NULL
+            RETURNING session_id""";
+
+    // Keyset paging, so sessions with messages left by a batch are not selected again in the same run
+    private static final String SELECT_DELETED = """
+            SELECT session_id, deleted_date
+            FROM ai_chat.t_chat_session
+            WHERE deleted_date IS NOT NULL
+              AND (deleted_date, session_id) > (?, ?)
+            ORDER BY deleted_date, session_id
+            LIMIT ?""";
+
+    // The primary key includes the partition key, so the chunk is matched on both
+    private static final String DELETE_MESSAGES = """
+            DELETE FROM ai_chat.t_chat_message m
+            USING (SELECT message_id, created_date
+                   FROM ai_chat.t_chat_message
+                   WHERE session_id = ANY (?)
+                   LIMIT ?) chunk
+            WHERE m.message_id = chunk.message_id
+              AND m.created_date = chunk.created_date""";
+
+    // t_chat_session_archive rows go with ON DELETE CASCADE
+    private static final String DELETE_SESSIONS = """
+            DELETE FROM ai_chat.t_chat_session s
+            WHERE s.session_id = ANY (?)
+              AND s.deleted_date IS NOT NULL
+              AND NOT EXISTS (SELECT 1 FROM ai_chat.t_chat_message m WHERE m.session_id = s.session_id)""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ChatProperties.Purge properties;
+
+    public SessionPurger(JdbcTemplate jdbcTemplate, ChatProperties chatProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = chatProperties.getPurge();
+    }
+
+    /**
+     * @return false if the user has no such session, or it is deleted already
+     */
+    public boolean softDelete(String userId, Long sessionId) {
+        return jdbcTemplate.update(SOFT_DELETE, userId, sessionId) > 0;
+    }
+
+    /**
+     * @return the sessions of the user that were deleted
+     */
+    public List<Long> softDeleteAll(String userId) {
+        return jdbcTemplate.queryForList(SOFT_DELETE_ALL, Long.class, userId);
+    }
+
+    /**
+     * Purges one batch of the longest deleted sessions after {@code after}, pausing {@code pause}
+     * between chunks. Sessions with messages left after {@code max-chunks-per-batch} are finished by
+     * a later run, which starts again from {@link Cursor#START}.
+     */
+    public Result purge(Cursor after) throws InterruptedException {
+        List<Cursor> selected = jdbcTemplate.query(SELECT_DELETED,
+                (rs, rowNum) -> new Cursor(rs.getTimestamp("deleted_date"), rs.getLong("session_id")),
+                after.deletedDate(), after.sessionId(), properties.getBatchSize());
+        if (selected.isEmpty()) return new Result(0, 0, false, after);
+        List<Long> sessionIds = selected.stream().map(Cursor::sessionId).toList();
+
+        long messages = 0;
+        for (int chunk = 0; chunk < properties.getMaxChunksPerBatch(); chunk++) {
+            int deleted = jdbcTemplate.update(con -> {
+                PreparedStatement statement = withIds(con.prepareStatement(DELETE_MESSAGES), sessionIds);
+                statement.setInt(2, properties.getChunkSize());
+                return statement;
+            });
+            messages += deleted;
+            if (deleted < properties.getChunkSize()) break;
+            Thread.sleep(properties.getPause().toMillis());
+        }
+
+        int sessions = jdbcTemplate.update(con -> withIds(con.prepareStatement(DELETE_SESSIONS), sessionIds));
+        return new Result(sessions, messages, sessionIds.size() == properties.getBatchSize(), selected.getLast());
+    }
+
+    private static PreparedStatement withIds(PreparedStatement statement, Collection<Long> sessionIds) throws SQLException {
+        Array ids = statement.getConnection().createArrayOf("bigint", sessionIds.toArray());
+        statement.setArray(1, ids);
+        return statement;
+    }
+
+    /**
+     * A deleted session, the position a batch starts after.
+     */
+    public record Cursor(Timestamp deletedDate, long sessionId) {
+
+        public static final Cursor START = new Cursor(new Timestamp(0), 0);
+    }
+
+    /**
+     * @param more whether the batch was full, so more deleted sessions may be waiting
+     * @param next where the following batch starts
+     */
+    public record Result(int sessions, long messages, boolean more, Cursor next) {
+    }
+}
@@ -0,0 +1,41 @@
+package com.ai.chat.tracing;
+
+import com.ai.chat.config.ChatProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends one OTLP JSON request per flush to a local file, standing in for a collector.
+ * Replay with {@code while read -r l; do curl -H 'Content-Type: application/json' -d "$l" .../v1/traces; done}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "chat.tracing", name = "exporter", havingValue = "file")
+public class FileSpanExporter implements SpanExporter {
+
+    private final Path file;
+    private final String serviceName;
+
+    public FileSpanExporter(ChatProperties chatProperties) throws IOException {
+        this.file = Path.of(chatProperties.getTracing().getFile());
+        this.serviceName = chatProperties.getTracing().getServiceName();
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+    }
+
+    @Override
+    public void export(List<Span> spans) {
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(OtlpJsonEncoder.encode(serviceName, spans));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
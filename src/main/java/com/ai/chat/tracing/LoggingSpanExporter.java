@@ -0,0 +1,30 @@
+package com.ai.chat.tracing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.tracing", name = "exporter", havingValue = "log")
+public class LoggingSpanExporter implements SpanExporter {
+
+    @Override
+    public void export(List<Span> spans) {
+        if (!log.isInfoEnabled()) return;
+        for (Span span : spans) {
+            String events;
+            synchronized (span.getEvents()) {
+                events = span.getEvents().stream()
+                        .map(event -> event.name() + "@" + (event.epochNanos() - span.getStartEpochNanos()) / 1_000_000 + "ms")
+                        .collect(Collectors.joining(", ", "[", "]"));
+            }
+            log.info("Trace {} {} parent={} {} {}ms {} {}{}", span.getTraceId(), span.getSpanId(),
+                    span.getParentSpanId(), span.getName(), span.durationMillis(), span.getAttributes(), events,
+                    span.getError() != null ? " error=" + span.getError() : "");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.ai.chat.tracing;
+
+import com.ai.chat.config.ChatProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.List;
+
+/**
+ * Posts spans to an OpenTelemetry collector over OTLP/HTTP with JSON encoding.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.tracing", name = "exporter", havingValue = "otlp")
+public class OtlpHttpSpanExporter implements SpanExporter {
+
+    private final WebClient webClient;
+    private final ChatProperties.Tracing properties;
+
+    public OtlpHttpSpanExporter(@Lazy WebClient webClient, ChatProperties chatProperties) {
+        this.webClient = webClient;
+        this.properties = chatProperties.getTracing();
+    }
+
+    @Override
+    public void export(List<Span> spans) {
+        webClient.post()
+                .uri(properties.getOtlpEndpoint())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(OtlpJsonEncoder.encode(properties.getServiceName(), spans))
+                .retrieve()
+                .toBodilessEntity()
+                .subscribe(
+                        response -> { },
+                        e -> log.warn("OTLP export of {} spans failed: {}", spans.size(), e.getMessage())
+                );
+    }
+}
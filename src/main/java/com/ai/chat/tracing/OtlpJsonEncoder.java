@@ -0,0 +1,71 @@
+package com.ai.chat.tracing;
+
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.node.ArrayNode;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes spans as an OTLP/HTTP JSON ExportTraceServiceRequest, so files written by the file
+ * exporter can be replayed to any collector with a plain POST to /v1/traces.
+ */
+final class OtlpJsonEncoder {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private OtlpJsonEncoder() {
+    }
+
+    static byte[] encode(String serviceName, List<Span> spans) {
+        ObjectNode request = MAPPER.createObjectNode();
+        ObjectNode resourceSpans = request.putArray("resourceSpans").addObject();
+        attributes(resourceSpans.putObject("resource"), Map.of("service.name", serviceName));
+
+        ObjectNode scopeSpans = resourceSpans.putArray("scopeSpans").addObject();
+        scopeSpans.putObject("scope").put("name", "com.ai.chat");
+        ArrayNode out = scopeSpans.putArray("spans");
+
+        for (Span span : spans) {
+            ObjectNode node = out.addObject()
+                    .put("traceId", span.getTraceId())
+                    .put("spanId", span.getSpanId())
+                    .put("name", span.getName())
+                    // OTLP SpanKind: 1 internal, 2 server, 3 client
+                    .put("kind", span.getKind().ordinal() + 1)
+                    .put("startTimeUnixNano", String.valueOf(span.getStartEpochNanos()))
+                    .put("endTimeUnixNano", String.valueOf(span.getEndEpochNanos()));
+            if (span.getParentSpanId() != null) node.put("parentSpanId", span.getParentSpanId());
+
+            synchronized (span.getAttributes()) {
+                attributes(node, span.getAttributes());
+            }
+
+            ArrayNode events = node.putArray("events");
+            synchronized (span.getEvents()) {
+                for (Span.Event event : span.getEvents()) {
+                    ObjectNode eventNode = events.addObject()
+                            .put("name", event.name())
+                            .put("timeUnixNano", String.valueOf(event.epochNanos()));
+                    attributes(eventNode, event.attributes());
+                }
+            }
+
+            ObjectNode status = node.putObject("status");
+            if (span.getError() != null) {
+                status.put("code", 2).put("message", span.getError());
+            } else {
+                status.put("code", 1);
+            }
+        }
+        return MAPPER.writeValueAsBytes(request);
+    }
+
+    private static void attributes(ObjectNode target, Map<String, ?> values) {
+        ArrayNode attributes = target.putArray("attributes");
+        values.forEach((key, value) -> attributes.addObject()
+                .put("key", key)
+                .putObject("value").put("stringValue", String.valueOf(value)));
+    }
+}
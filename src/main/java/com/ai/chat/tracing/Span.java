@@ -0,0 +1,112 @@
+package com.ai.chat.tracing;
+
+import lombok.Getter;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One timed stage of a request. Spans of unsampled requests are {@link #NOOP}: every method on it
+ * does nothing and its children are {@link #NOOP} as well.
+ */
+@Getter
+public class Span {
+
+    public enum Kind { INTERNAL, SERVER, CLIENT }
+
+    public static final Span NOOP = new Span(null, null, null, null, null, Kind.INTERNAL);
+
+    private final Tracer tracer;
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final String name;
+    private final Kind kind;
+    private final long startEpochNanos;
+    private final long startNanos;
+    private final Map<String, String> attributes = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final List<Event> events = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean ended = new AtomicBoolean();
+    private volatile long endEpochNanos;
+    private volatile String error;
+
+    Span(Tracer tracer, String traceId, String spanId, String parentSpanId, String name, Kind kind) {
+        this.tracer = tracer;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.kind = kind;
+        this.startNanos = System.nanoTime();
+        this.startEpochNanos = epochNanos(Instant.now());
+    }
+
+    public boolean isRecording() {
+        return tracer != null;
+    }
+
+    public Span tag(String key, Object value) {
+        if (isRecording() && value != null) attributes.put(key, String.valueOf(value));
+        return this;
+    }
+
+    public Span event(String eventName) {
+        return event(eventName, Map.of());
+    }
+
+    public Span event(String eventName, Map<String, ?> eventAttributes) {
+        if (isRecording() && !ended.get()) events.add(new Event(eventName, nowEpochNanos(), Map.copyOf(eventAttributes)));
+        return this;
+    }
+
+    public Span error(Throwable throwable) {
+        if (isRecording()) error = throwable.getClass().getSimpleName() + ": " + throwable.getMessage();
+        return this;
+    }
+
+    public void end() {
+        if (isRecording() && ended.compareAndSet(false, true)) {
+            endEpochNanos = nowEpochNanos();
+            tracer.finished(this);
+        }
+    }
+
+    public long durationMillis() {
+        return (endEpochNanos - startEpochNanos) / 1_000_000;
+    }
+
+    /**
+     * W3C trace context header value identifying this span as the parent.
+     */
+    public String traceparent() {
+        return "00-" + traceId + "-" + spanId + "-01";
+    }
+
+    Span child(String childName, Kind childKind) {
+        if (!isRecording()) return NOOP;
+        return new Span(tracer, traceId, newId(16), spanId, childName, childKind);
+    }
+
+    static String newId(int hexChars) {
+        StringBuilder id = new StringBuilder(hexChars);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (id.length() < hexChars) {
+            id.append(String.format("%016x", random.nextLong()));
+        }
+        return id.substring(0, hexChars);
+    }
+
+    // Monotonic within the span so events never sort before its start
+    private long nowEpochNanos() {
+        return startEpochNanos + (System.nanoTime() - startNanos);
+    }
+
+    private static long epochNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    public record Event(String name, long epochNanos, Map<String, ?> attributes) {
+    }
+}
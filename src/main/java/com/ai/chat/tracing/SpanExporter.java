@@ -0,0 +1,12 @@
+package com.ai.chat.tracing;
+
+import java.util.List;
+
+/**
+ * Receives finished spans in batches from the {@link Tracer} flush. Selected with
+ * {@code chat.tracing.exporter}: log, file or otlp. Without an exporter nothing is recorded.
+ */
+public interface SpanExporter {
+
+    void export(List<Span> spans);
+}
@@ -0,0 +1,155 @@
+package com.ai.chat.tracing;
+
+import com.ai.chat.config.ChatProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Starts spans and carries the current one in the Reactor Context under {@link #CONTEXT_KEY}, next to
+ * USER_DATA. Finished spans are queued and handed to the {@link SpanExporter} in batches; when the
+ * queue is full spans are dropped rather than slowing requests down.
+ */
+@Slf4j
+@Component
+public class Tracer {
+
+    public static final String CONTEXT_KEY = "TRACE_SPAN";
+
+    private static final Pattern TRACEPARENT = Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})");
+
+    private final SpanExporter exporter;
+    private final ChatProperties.Tracing properties;
+    private final BlockingQueue<Span> finished;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public Tracer(ObjectProvider<SpanExporter> exporter, ChatProperties chatProperties) {
+        this.exporter = exporter.getIfAvailable();
+        this.properties = chatProperties.getTracing();
+        this.finished = new ArrayBlockingQueue<>(properties.getMaxQueuedSpans());
+    }
+
+    public static Span current(ContextView context) {
+        return context.getOrDefault(CONTEXT_KEY, Span.NOOP);
+    }
+
+    /**
+     * Root span of a request, continuing the caller's trace if a sampled W3C traceparent is given.
+     */
+    public Span startRoot(String name, String traceparent) {
+        if (exporter == null) return Span.NOOP;
+
+        Matcher remote = traceparent == null ? null : TRACEPARENT.matcher(traceparent);
+        if (remote != null && remote.matches()) {
+            boolean sampled = (Integer.parseInt(remote.group(3), 16) & 1) == 1;
+            return sampled ? new Span(this, remote.group(1), Span.newId(16), remote.group(2), name, Span.Kind.SERVER) : Span.NOOP;
+        }
+        if (ThreadLocalRandom.current().nextDouble() >= properties.getSampleRatio()) return Span.NOOP;
+        return new Span(this, Span.newId(32), Span.newId(16), null, name, Span.Kind.SERVER);
+    }
+
+    public <T> Flux<T> flux(String name, Function<Span, Flux<T>> body) {
+        return flux(name, Span.Kind.INTERNAL, body);
+    }
+
+    /**
+     * Runs {@code body} at subscription in a child of the span found in the subscriber's context
+     * and ends the child on completion, error or cancellation.
+     */
+    public <T> Flux<T> flux(String name, Span.Kind kind, Function<Span, Flux<T>> body) {
+        return Flux.deferContextual(ctx -> {
+            Span span = current(ctx).child(name, kind);
+            if (!span.isRecording()) return body.apply(span);
+
+            Flux<T> source;
+            try {
+                source = body.apply(span);
+            } catch (RuntimeException e) {
+                span.error(e).end();
+                return Flux.error(e);
+            }
+            return source
+                    .doOnError(span::error)
+                    .doOnCancel(() -> span.tag("cancelled", true))
+                    .doFinally(signal -> span.end())
+                    .contextWrite(c -> c.put(CONTEXT_KEY, span));
+        });
+    }
+
+    public <T> Mono<T> mono(String name, Function<Span, Mono<T>> body) {
+        return flux(name, span -> body.apply(span).flux()).singleOrEmpty();
+    }
+
+    /**
+     * Times blocking work as a child of {@code parent}.
+     */
+    public <T> T call(Span parent, String name, Supplier<T> work) {
+        Span span = parent.child(name, Span.Kind.INTERNAL);
+        try {
+            return work.get();
+        } catch (RuntimeException e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    public void run(Span parent, String name, Runnable work) {
+        call(parent, name, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Marks the first delta and the completion of a provider stream on {@code span}.
+     */
+    public static <T> Flux<T> recordDeltas(Span span, Flux<T> deltas) {
+        if (!span.isRecording()) return deltas;
+        AtomicLong count = new AtomicLong();
+        return deltas
+                .doOnNext(delta -> {
+                    if (count.getAndIncrement() == 0) span.event("first_token");
+                })
+                .doOnComplete(() -> span.event("completed", Map.of("deltas", count.get())));
+    }
+
+    void finished(Span span) {
+        if (!finished.offer(span)) dropped.incrementAndGet();
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${chat.tracing.flush-interval:1s}")
+    public void flush() {
+        if (exporter == null || finished.isEmpty()) return;
+
+        List<Span> batch = new ArrayList<>(finished.size());
+        finished.drainTo(batch);
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) log.warn("Tracing queue full, dropped {} spans", lost);
+
+        try {
+            exporter.export(batch);
+        } catch (RuntimeException e) {
+            log.warn("Span export failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.ai.chat.tracing;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Opens the root span of every API request ahead of load shedding and authentication, so both
+ * show up in the trace, and returns its traceparent for users to quote when reporting a slow answer.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 5)
+public class TracingFilter implements WebFilter {
+
+    private static final String TRACEPARENT = "traceparent";
+
+    private final Tracer tracer;
+
+    public TracingFilter(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getPath().pathWithinApplication().value();
+        if (!path.startsWith("/v1/")) return chain.filter(exchange);
+
+        Span span = tracer.startRoot(request.getMethod().name() + " " + path,
+                request.getHeaders().getFirst(TRACEPARENT));
+        if (!span.isRecording()) return chain.filter(exchange);
+
+        span.tag("http.method", request.getMethod().name()).tag("http.target", path);
+        exchange.getResponse().getHeaders().set(TRACEPARENT, span.traceparent());
+        exchange.getResponse().beforeCommit(() -> {
+            span.event("response.committed");
+            return Mono.empty();
+        });
+
+        return chain.filter(exchange)
+                .doOnError(span::error)
+                .doFinally(signal -> {
+                    if (exchange.getResponse().getStatusCode() != null) {
+                        span.tag("http.status_code", exchange.getResponse().getStatusCode().value());
+                    }
+                    span.end();
+                })
+                .contextWrite(ctx -> ctx.put(Tracer.CONTEXT_KEY, span));
+    }
+}
@@ -0,0 +1,294 @@
+package com.ai.chat.usage;
+
+import com.ai.chat.cache.HistoryMessage;
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.dto.UserContext;
+import com.ai.chat.routing.ProviderStats;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Counts provider tokens per user, provider and UTC day in {@link LongAdder}s and upserts the
+ * increments into t_token_usage every {@code chat.usage.flush-interval}. Quota checks and the usage
+ * endpoint read month-to-date totals, reloaded after each flush whether or not quotas are set, plus
+ * the increments not flushed yet, so neither waits for the database. Without a database the totals
+ * are kept in memory.
+ */
+@Slf4j
+@Component
+public class TokenAccounting {
+
+    private static final String ANONYMOUS = "anonymous";
+
+    private static final String UPSERT = """
+            INSERT INTO ai_chat.t_token_usage AS u
+                (user_id, usage_date, provider, prompt_tokens, completion_tokens, requests, estimated_requests)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (user_id, usage_date, provider) DO UPDATE SET
+                prompt_tokens      = u.prompt_tokens + EXCLUDED.prompt_tokens,
+                completion_tokens  = u.completion_tokens + EXCLUDED.completion_tokens,
+                requests           = u.requests + EXCLUDED.requests,
+                estimated_requests = u.estimated_requests + EXCLUDED.estimated_requests""";
+
+    private static final String MONTH_TOTALS = """
+            SELECT user_id,
+                   COALESCE(sum(prompt_tokens + completion_tokens) FILTER (WHERE usage_date = ?), 0),
+                   sum(prompt_tokens + completion_tokens)
+            FROM ai_chat.t_token_usage
+            WHERE usage_date >= ?
+            GROUP BY user_id""";
+
+    private final ObjectProvider<JdbcTemplate> jdbcTemplate;
+    private final ChatProperties.Usage properties;
+
+    private final Map<Key, Counter> counters = new ConcurrentHashMap<>();
+    // Tokens per user and day not flushed yet
+    private final Map<UserDay, LongAdder> pending = new ConcurrentHashMap<>();
+    private volatile Totals totals = new Totals(today(), Map.of());
+    private volatile boolean totalsLoaded;
+
+    public TokenAccounting(ObjectProvider<JdbcTemplate> jdbcTemplate, ChatProperties chatProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = chatProperties.getUsage();
+    }
+
+    /**
+     * Accounts the provider call made by {@code call} to the user in the subscriber's context.
+     * The call fills in the {@link TokenUsage} when the provider reports it; otherwise the tokens
+     * are estimated from the history and the streamed text.
+     */
+    public Flux<String> track(String provider, Collection<HistoryMessage> history, Function<TokenUsage, Flux<String>> call) {
+        return Flux.deferContextual(ctx -> {
+            UserContext user = ctx.getOrDefault("USER_DATA", null);
+            String userId = user == null ? ANONYMOUS : user.getUserId();
+            TokenUsage usage = new TokenUsage();
+            AtomicLong outputChars = new AtomicLong();
+
+            return call.apply(usage)
+                    .doOnNext(delta -> outputChars.addAndGet(delta.length()))
+                    .doFinally(signal -> {
+                        // Nothing came back, most likely nothing was billed either
+                        if (signal == SignalType.ON_ERROR && outputChars.get() == 0 && !usage.reported()) return;
+                        record(userId, provider, usage, history, outputChars.get());
+                    });
+        });
+    }
+
+    /**
+     * Rejects a new turn once the user has used up the daily or monthly quota.
+     */
+    public void admit(String userId) {
+        if (!quotasEnabled()) return;
+
+        long[] used = used(userId);
+        if (properties.getDailyTokens() > 0 && used[0] >= properties.getDailyTokens()) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Daily token quota exceeded");
+        }
+        if (properties.getMonthlyTokens() > 0 && used[1] >= properties.getMonthlyTokens()) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Monthly token quota exceeded");
+        }
+    }
+
+    public Map<String, Object> usage(String userId) {
+        long[] used = used(userId);
+        Map<String, Object> usage = new LinkedHashMap<>();
+        usage.put("todayTokens", used[0]);
+        usage.put("monthTokens", used[1]);
+        usage.put("dailyQuota", properties.getDailyTokens());
+        usage.put("monthlyQuota", properties.getMonthlyTokens());
+        return usage;
+    }
+
+    private void record(String userId, String provider, TokenUsage usage, Collection<HistoryMessage> history, long outputChars) {
+        long promptTokens;
+        long completionTokens;
+        if (usage.reported()) {
+            promptTokens = usage.promptTokens();
+            completionTokens = usage.completionTokens();
+        } else {
+            long promptChars = 0;
+            if (history != null) {
+                for (HistoryMessage message : history) promptChars += message.getContent().length();
+            }
+            promptTokens = promptChars / ProviderStats.CHARS_PER_TOKEN;
+            completionTokens = outputChars / ProviderStats.CHARS_PER_TOKEN;
+        }
+
+        LocalDate day = today();
+        Counter counter = counters.computeIfAbsent(new Key(userId, day, provider), k -> new Counter());
+        counter.promptTokens.add(promptTokens);
+        counter.completionTokens.add(completionTokens);
+        counter.requests.increment();
+        if (!usage.reported()) counter.estimatedRequests.increment();
+        pending.computeIfAbsent(new UserDay(userId, day), k -> new LongAdder()).add(promptTokens + completionTokens);
+    }
+
+    // {today, month to date}
+    private long[] used(String userId) {
+        LocalDate today = today();
+        LongAdder unflushed = pending.get(new UserDay(userId, today));
+        long extra = unflushed == null ? 0 : unflushed.sum();
+
+        Totals current = totals;
+        long[] persisted = current.byUser().get(userId);
+        if (persisted == null) return new long[]{extra, extra};
+
+        boolean sameDay = current.day().equals(today);
+        boolean sameMonth = current.day().withDayOfMonth(1).equals(today.withDayOfMonth(1));
+        return new long[]{
+                (sameDay ? persisted[0] : 0) + extra,
+                (sameMonth ? persisted[1] : 0) + extra
+        };
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${chat.usage.flush-interval:10s}")
+    public synchronized void flush() {
+        LocalDate today = today();
+        List<Map.Entry<Key, Counter>> flushed = new ArrayList<>();
+        List<long[]> deltas = new ArrayList<>();
+        for (Map.Entry<Key, Counter> entry : counters.entrySet()) {
+            long[] delta = entry.getValue().delta();
+            if (delta[0] == 0 && delta[1] == 0 && delta[2] == 0) {
+                // Past days stop receiving increments once their last one is flushed
+                if (entry.getKey().day().isBefore(today)) counters.remove(entry.getKey(), entry.getValue());
+                continue;
+            }
+            flushed.add(entry);
+            deltas.add(delta);
+        }
+        pending.entrySet().removeIf(e -> e.getKey().day().isBefore(today) && e.getValue().sum() == 0);
+
+        JdbcTemplate jdbc = jdbcTemplate.getIfAvailable();
+        if (flushed.isEmpty()) {
+            // Usage from before a restart or from other instances still counts
+            if (jdbc != null && (!totalsLoaded || !totals.day().equals(today))) {
+                reloadTotals(jdbc, today);
+            }
+            return;
+        }
+
+        try {
+            if (jdbc != null) {
+                List<Object[]> rows = new ArrayList<>(flushed.size());
+                for (int i = 0; i < flushed.size(); i++) {
+                    Key key = flushed.get(i).getKey();
+                    long[] delta = deltas.get(i);
+                    rows.add(new Object[]{key.userId(), Date.valueOf(key.day()), key.provider(), delta[0], delta[1], delta[2], delta[3]});
+                }
+                jdbc.batchUpdate(UPSERT, rows);
+            }
+        } catch (RuntimeException e) {
+            // Increments stay pending and go out with the next flush
+            log.warn("Token usage flush failed for {} counters: {}", flushed.size(), e.getMessage());
+            return;
+        }
+
+        Map<String, long[]> local = jdbc == null ? rollOver(totals, today) : null;
+        for (int i = 0; i < flushed.size(); i++) {
+            Key key = flushed.get(i).getKey();
+            long[] delta = deltas.get(i);
+            flushed.get(i).getValue().flushed(delta);
+            long tokens = delta[0] + delta[1];
+            if (local != null) addTo(local, key, tokens, today);
+            LongAdder unflushed = pending.get(new UserDay(key.userId(), key.day()));
+            if (unflushed != null) unflushed.add(-tokens);
+        }
+
+        if (local != null) {
+            totals = new Totals(today, local);
+        } else {
+            reloadTotals(jdbc, today);
+        }
+    }
+
+    private void reloadTotals(JdbcTemplate jdbc, LocalDate today) {
+        try {
+            Map<String, long[]> byUser = new HashMap<>();
+            jdbc.query(MONTH_TOTALS, rs -> {
+                byUser.put(rs.getString(1), new long[]{rs.getLong(2), rs.getLong(3)});
+            }, Date.valueOf(today), Date.valueOf(today.withDayOfMonth(1)));
+            totals = new Totals(today, byUser);
+            totalsLoaded = true;
+        } catch (RuntimeException e) {
+            log.warn("Token usage totals reload failed: {}", e.getMessage());
+        }
+    }
+
+    // The in-memory totals carried into the current day and month
+    private static Map<String, long[]> rollOver(Totals totals, LocalDate today) {
+        if (totals.day().equals(today)) return new HashMap<>(totals.byUser());
+
+        Map<String, long[]> byUser = new HashMap<>();
+        if (totals.day().withDayOfMonth(1).equals(today.withDayOfMonth(1))) {
+            totals.byUser().forEach((userId, used) -> byUser.put(userId, new long[]{0, used[1]}));
+        }
+        return byUser;
+    }
+
+    private static void addTo(Map<String, long[]> byUser, Key key, long tokens, LocalDate today) {
+        if (!key.day().withDayOfMonth(1).equals(today.withDayOfMonth(1))) return;
+        long[] used = byUser.compute(key.userId(), (userId, current) -> current == null ? new long[2] : current.clone());
+        if (key.day().equals(today)) used[0] += tokens;
+        used[1] += tokens;
+    }
+
+    private boolean quotasEnabled() {
+        return properties.getDailyTokens() > 0 || properties.getMonthlyTokens() > 0;
+    }
+
+    private static LocalDate today() {
+        return LocalDate.now(ZoneOffset.UTC);
+    }
+
+    private record Key(String userId, LocalDate day, String provider) {
+    }
+
+    private record UserDay(String userId, LocalDate day) {
+    }
+
+    // Month-to-date tokens per user as {today, month}, as of the last flush
+    private record Totals(LocalDate day, Map<String, long[]> byUser) {
+    }
+
+    private static final class Counter {
+
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder estimatedRequests = new LongAdder();
+        // Only touched under the flush lock
+        private final long[] flushed = new long[4];
+
+        // {prompt, completion, requests, estimated} recorded since the last flush
+        private long[] delta() {
+            return new long[]{
+                    promptTokens.sum() - flushed[0],
+                    completionTokens.sum() - flushed[1],
+                    requests.sum() - flushed[2],
+                    estimatedRequests.sum() - flushed[3]
+            };
+        }
+
+        private void flushed(long[] delta) {
+            for (int i = 0; i < flushed.length; i++) flushed[i] += delta[i];
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.ai.chat.usage;
+
+/**
+ * Token counts of one provider call as reported by the provider, usually with the last chunk.
+ */
+public class TokenUsage {
+
+    private volatile long promptTokens = -1;
+    private volatile long completionTokens = -1;
+
+    // Providers may repeat the running totals on every chunk, the last report wins
+    public void report(long promptTokens, long completionTokens) {
+        this.completionTokens = completionTokens;
+        this.promptTokens = promptTokens;
+    }
+
+    public boolean reported() {
+        return promptTokens >= 0;
+    }
+
+    public long promptTokens() {
+        return promptTokens;
+    }
+
+    public long completionTokens() {
+        return completionTokens;
+    }
+}
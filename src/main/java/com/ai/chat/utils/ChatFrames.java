@@ -0,0 +1,61 @@
+package com.ai.chat.utils;
+
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.node.ObjectNode;
+
+public final class ChatFrames {
+
+    public static final String DONE = "{\"done\":true}";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private ChatFrames() {
+    }
+
+    public static String content(String text) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("content", text);
+        return response.toString();
+    }
+
+    public static String prompt(String text) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("prompt", text);
+        return response.toString();
+    }
+
+    public static String error(String message) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("error", message);
+        return response.toString();
+    }
+
+    public static String comparison(String compareId) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("compareId", compareId);
+        return response.toString();
+    }
+
+    public static String providerContent(String provider, String text) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("provider", provider);
+        response.put("content", text);
+        return response.toString();
+    }
+
+    public static String providerDone(String provider, long ttftMs, long totalMs) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("provider", provider);
+        response.put("done", true);
+        response.put("ttftMs", ttftMs);
+        response.put("totalMs", totalMs);
+        return response.toString();
+    }
+
+    public static String providerError(String provider, String message) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("provider", provider);
+        response.put("error", message);
+        return response.toString();
+    }
+}
@@ -0,0 +1,21 @@
+-- Mirrors the schema previously generated by hibernate ddl-auto=update so that
+-- existing databases baseline cleanly and new ones start from the same shape.
+CREATE SCHEMA IF NOT EXISTS ai_chat;
+
+CREATE TABLE IF NOT EXISTS ai_chat.t_chat_session
+(
+    session_id   BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    user_id      VARCHAR(255),
+    user_name    VARCHAR(255),
+    title        VARCHAR(255),
+    created_date TIMESTAMP(6)
+);
+
+CREATE TABLE IF NOT EXISTS ai_chat.t_chat_message
+(
+    message_id   BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    role         VARCHAR(255),
+    content      TEXT,
+    created_date TIMESTAMP(6),
+    session_id   BIGINT REFERENCES ai_chat.t_chat_session (session_id)
+);
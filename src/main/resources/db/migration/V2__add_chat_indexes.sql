@@ -0,0 +1,7 @@
+-- ChatSessionRepository.findByUserIdOrderByCreatedDateDesc
+CREATE INDEX IF NOT EXISTS ix_chat_session_user_created
+    ON ai_chat.t_chat_session (user_id, created_date DESC);
+
+-- ChatMessageRepository.findBySession_SessionIdOrderByCreatedDateAsc
+CREATE INDEX IF NOT EXISTS ix_chat_message_session_created
+    ON ai_chat.t_chat_message (session_id, created_date);
@@ -0,0 +1,61 @@
+-- Creates the monthly partition of t_chat_message that contains p_month, if missing.
+-- Called by the migration below for existing data and by ChatMessagePartitionJob ahead of time.
+CREATE OR REPLACE FUNCTION ai_chat.ensure_chat_message_partition(p_month DATE) RETURNS TEXT AS
+$$
+DECLARE
+    v_start DATE := date_trunc('month', p_month)::DATE;
+    v_end   DATE := (date_trunc('month', p_month) + INTERVAL '1 month')::DATE;
+    v_name  TEXT := 't_chat_message_' || to_char(v_start, 'YYYYMM');
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS ai_chat.%I PARTITION OF ai_chat.t_chat_message FOR VALUES FROM (%L) TO (%L)',
+                   v_name, v_start, v_end);
+    RETURN v_name;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP INDEX IF EXISTS ai_chat.ix_chat_message_session_created;
+ALTER TABLE ai_chat.t_chat_message RENAME TO t_chat_message_legacy;
+ALTER TABLE ai_chat.t_chat_message_legacy RENAME CONSTRAINT t_chat_message_pkey TO t_chat_message_legacy_pkey;
+
+CREATE SEQUENCE ai_chat.t_chat_message_id_seq;
+
+-- The partition key has to be part of the primary key, and rows need a non-null key to be routed.
+CREATE TABLE ai_chat.t_chat_message
+(
+    message_id   BIGINT       NOT NULL DEFAULT nextval('ai_chat.t_chat_message_id_seq'),
+    role         VARCHAR(255),
+    content      TEXT,
+    created_date TIMESTAMP(6) NOT NULL DEFAULT now(),
+    session_id   BIGINT REFERENCES ai_chat.t_chat_session (session_id),
+    PRIMARY KEY (message_id, created_date)
+) PARTITION BY RANGE (created_date);
+
+ALTER SEQUENCE ai_chat.t_chat_message_id_seq OWNED BY ai_chat.t_chat_message.message_id;
+
+DO
+$$
+    DECLARE
+        v_month DATE;
+    BEGIN
+        FOR v_month IN
+            SELECT generate_series(
+                           date_trunc('month', COALESCE((SELECT min(created_date) FROM ai_chat.t_chat_message_legacy), now())),
+                           date_trunc('month', now()) + INTERVAL '2 month',
+                           INTERVAL '1 month')::DATE
+            LOOP
+                PERFORM ai_chat.ensure_chat_message_partition(v_month);
+            END LOOP;
+    END
+$$;
+
+INSERT INTO ai_chat.t_chat_message (message_id, role, content, created_date, session_id)
+SELECT message_id, role, content, COALESCE(created_date, now()), session_id
+FROM ai_chat.t_chat_message_legacy;
+
+SELECT setval('ai_chat.t_chat_message_id_seq',
+              COALESCE((SELECT max(message_id) FROM ai_chat.t_chat_message), 0) + 1, false);
+
+DROP TABLE ai_chat.t_chat_message_legacy;
+
+CREATE INDEX ix_chat_message_session_created
+    ON ai_chat.t_chat_message (session_id, created_date);
@@ -0,0 +1,12 @@
+-- Cold storage for the messages of idle sessions, filled by ChatArchiveJob and emptied again
+-- when a session is reopened. One row per session, the payload is written by ChatArchive.
+CREATE TABLE ai_chat.t_chat_session_archive
+(
+    session_id    BIGINT       NOT NULL PRIMARY KEY REFERENCES ai_chat.t_chat_session (session_id) ON DELETE CASCADE,
+    message_count INTEGER      NOT NULL,
+    payload       BYTEA        NOT NULL,
+    archived_date TIMESTAMP(6) NOT NULL DEFAULT now()
+);
+
+-- The payload is gzip already, TOAST compression would only cost CPU
+ALTER TABLE ai_chat.t_chat_session_archive ALTER COLUMN payload SET STORAGE EXTERNAL;
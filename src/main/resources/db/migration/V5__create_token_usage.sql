@@ -0,0 +1,16 @@
+-- Provider tokens per user, provider and UTC day, upserted in batches by TokenAccounting.
+CREATE TABLE ai_chat.t_token_usage
+(
+    user_id            VARCHAR(255) NOT NULL,
+    usage_date         DATE         NOT NULL,
+    provider           VARCHAR(64)  NOT NULL,
+    prompt_tokens      BIGINT       NOT NULL DEFAULT 0,
+    completion_tokens  BIGINT       NOT NULL DEFAULT 0,
+    requests           BIGINT       NOT NULL DEFAULT 0,
+    -- Requests whose provider reported no usage and were estimated from characters
+    estimated_requests BIGINT       NOT NULL DEFAULT 0,
+    PRIMARY KEY (user_id, usage_date, provider)
+);
+
+-- Month-to-date totals reloaded for quota checks
+CREATE INDEX ix_token_usage_date ON ai_chat.t_token_usage (usage_date);
@@ -0,0 +1,29 @@
+-- Per-session message sequence numbers. t_chat_session.last_seq is the last number handed out;
+-- MessageSequence bumps it in the transaction that inserts the messages, so the numbers of a
+-- session become visible in order.
+ALTER TABLE ai_chat.t_chat_session ADD COLUMN last_seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE ai_chat.t_chat_message ADD COLUMN seq BIGINT;
+
+-- Archived messages come first in their session; ChatArchive numbers them 1..message_count when
+-- it reads a payload written before this migration
+UPDATE ai_chat.t_chat_message m
+SET seq = n.seq
+FROM (SELECT message_id,
+             created_date,
+             COALESCE(a.message_count, 0)
+                 + row_number() OVER (PARTITION BY m2.session_id ORDER BY m2.created_date, m2.message_id) AS seq
+      FROM ai_chat.t_chat_message m2
+               LEFT JOIN ai_chat.t_chat_session_archive a ON a.session_id = m2.session_id) n
+WHERE m.message_id = n.message_id
+  AND m.created_date = n.created_date;
+
+UPDATE ai_chat.t_chat_session s
+SET last_seq = COALESCE((SELECT max(m.seq) FROM ai_chat.t_chat_message m WHERE m.session_id = s.session_id),
+                        (SELECT a.message_count FROM ai_chat.t_chat_session_archive a WHERE a.session_id = s.session_id),
+                        0);
+
+ALTER TABLE ai_chat.t_chat_message ALTER COLUMN seq SET NOT NULL;
+
+-- ChatMessageRepository.findMessages/findLatestMessages/findMessagesSince
+CREATE INDEX ix_chat_message_session_seq
+    ON ai_chat.t_chat_message (session_id, seq);
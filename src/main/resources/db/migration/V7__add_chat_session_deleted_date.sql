@@ -0,0 +1,8 @@
+-- Deleting a session only sets deleted_date; SessionPurger removes its messages and the session
+-- row later, in chunks, so a request never waits on a large delete
+ALTER TABLE ai_chat.t_chat_session ADD COLUMN deleted_date TIMESTAMP(6);
+
+-- SessionPurger.SELECT_DELETED
+CREATE INDEX ix_chat_session_deleted_date
+    ON ai_chat.t_chat_session (deleted_date)
+    WHERE deleted_date IS NOT NULL;
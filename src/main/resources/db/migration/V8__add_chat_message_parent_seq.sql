@@ -0,0 +1,4 @@
+-- Messages form a tree per session: parent_seq is the seq of the message a message follows, 0 for
+-- the first message of the session or of an edit of it. Edits and regenerated answers are siblings.
+-- Rows written before this migration keep NULL, which reads as seq - 1, so no row is rewritten.
+ALTER TABLE ai_chat.t_chat_message ADD COLUMN parent_seq BIGINT;
@@ -0,0 +1,7 @@
+-- SessionPurger.SELECT_DELETED pages on (deleted_date, session_id), so sessions whose messages are
+-- not gone after a batch are passed over by the later batches of the same run
+CREATE INDEX ix_chat_session_deleted_key
+    ON ai_chat.t_chat_session (deleted_date, session_id)
+    WHERE deleted_date IS NOT NULL;
+
+DROP INDEX ai_chat.ix_chat_session_deleted_date;
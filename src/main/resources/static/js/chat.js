@@ -0,0 +1,348 @@
+lucide.createIcons();
+let token = localStorage.getItem("accessToken");
+let refreshToken = localStorage.getItem("refreshToken");
+if (!token) window.location.href = "login.html";
+
+let currentSessionId = null;
+let abortController = null;
+let streamReader = null;
+let isStreaming = false;
+let pendingDeleteId = null;
+let streamUpdateTimer = null;
+
+marked.setOptions({ breaks: true, gfm: true });
+
+function openModal(sessionId) { pendingDeleteId = sessionId; document.getElementById('deleteModal').style.display = 'flex'; }
+function closeModal() { document.getElementById('deleteModal').style.display = 'none'; }
+document.getElementById('confirmDelete').onclick = () => { if(pendingDeleteId) executeDelete(pendingDeleteId); closeModal(); };
+
+function logout() { localStorage.clear(); window.location.href = "login.html"; }
+
+async function handleResponse(response, retryFunc) {
+    if (response.status === 401) {
+        const res = await fetch("http://localhost:8081/auth/refresh", { method: "POST", headers: { "Content-Type": "application/json" }, body: JSON.stringify({ refreshToken }) });
+        if (res.ok) {
+            const data = await res.json(); token = data.accessToken; refreshToken = data.refreshToken;
+            localStorage.setItem("accessToken", token); localStorage.setItem("refreshToken", refreshToken);
+            return await retryFunc();
+        }
+        logout(); return null;
+    }
+    return response;
+}
+
+function renderMarkdown(el, text) {
+    el.innerHTML = marked.parse(text);
+    el.querySelectorAll('pre code').forEach(b => hljs.highlightElement(b));
+    el.querySelectorAll('pre').forEach(pre => {
+        if (pre.querySelector('.copy-btn')) return;
+        const btn = document.createElement('button');
+        btn.className = 'copy-btn';
+        btn.innerHTML = '<i data-lucide="copy" size="14"></i> Copy';
+        btn.onclick = () => {
+            navigator.clipboard.writeText(pre.querySelector('code').innerText);
+            btn.innerHTML = '<i data-lucide="check" size="14"></i> Copied';
+            lucide.createIcons();
+            setTimeout(() => { btn.innerHTML = '<i data-lucide="copy" size="14"></i> Copy'; lucide.createIcons(); }, 2000);
+        };
+        pre.appendChild(btn);
+    });
+    lucide.createIcons();
+}
+
+function appendMessage(role, content, isHistory = false) {
+    const container = document.getElementById("messages");
+    const row = document.createElement("div");
+    row.className = `msg-row ${role === "user" ? "user-row" : "ai-row"}`;
+
+    if (role === "assistant") {
+        row.innerHTML = `
+            <div class="llm-msg">
+                <div class="ai-avatar"><i data-lucide="hexagon" fill="white" size="16"></i></div>
+                <div class="ai-content content"></div>
+            </div>`;
+        container.appendChild(row);
+        const contentEl = row.querySelector(".content");
+        if (content === '...') {
+            contentEl.innerHTML = '<div class="typing-indicator"><span></span><span></span><span></span></div>';
+        } else {
+            renderMarkdown(contentEl, content);
+        }
+        lucide.createIcons();
+        return contentEl;
+    } else {
+        row.innerHTML = `<div class="llm-msg content"></div>`;
+        container.appendChild(row);
+        const contentEl = row.querySelector(".content");
+        contentEl.innerText = content;
+        return contentEl;
+    }
+}
+
+async function executeDelete(sessionId) {
+    // Wrapped in handleResponse to prevent 401 failures
+    const rawRes = await fetch(`/v1/api/sessions/${sessionId}/deleteSession`, { method: "DELETE", headers: { "Authorization": `Bearer ${token}` } });
+    const res = await handleResponse(rawRes, () => executeDelete(sessionId));
+    if (!res) return;
+    delete messageCache[sessionId];
+
+    if (currentSessionId === sessionId) {
+        currentSessionId = null;
+        document.getElementById("messages").innerHTML = "";
+        document.getElementById("activeChatTitle").innerText = "New Thread";
+    }
+    loadSessions();
+}
+
+async function loadSessions() {
+    const rawRes = await fetch(`/v1/api/loadSessions`, { headers: { "Authorization": `Bearer ${token}` } });
+    const res = await handleResponse(rawRes, loadSessions);
+    if (!res) return;
+    const sessions = await res.json();
+    const list = document.getElementById("sessionList");
+    list.innerHTML = "";
+    sessions.forEach(s => {
+        const div = document.createElement("div");
+        div.className = `session-item ${currentSessionId === s.sessionId ? 'active' : ''}`;
+        div.onclick = () => {
+            if (isStreaming) cancelStream(); // Added safety
+            currentSessionId = s.sessionId;
+            document.getElementById('activeChatTitle').innerText = s.title || "Untitled Chat";
+            document.querySelectorAll('.session-item').forEach(el => el.classList.remove('active'));
+            div.classList.add('active');
+            loadMessages(s.sessionId);
+        };
+        div.innerHTML = `<span class="chat-title">${s.title || "Untitled Chat"}</span><i data-lucide="trash-2" size="14" class="delete-trigger" onclick="event.stopPropagation(); openModal(${s.sessionId})"></i>`;
+        list.appendChild(div);
+    });
+    lucide.createIcons();
+}
+
+// Active branch fetched per session with its tip, reopening only asks for the messages after it
+const messageCache = {};
+
+async function loadMessages(sessionId) {
+    const cached = messageCache[sessionId];
+    const url = `/v1/api/sessions/${sessionId}/messages` + (cached ? `?since=${cached.tip}` : "");
+    const rawRes = await fetch(url, { headers: { "Authorization": `Bearer ${token}` } });
+    const res = await handleResponse(rawRes, () => loadMessages(sessionId));
+    if (!res) return;
+    if (res.status === 409) {
+        // The cached tip is no longer on the active branch, another branch was switched to
+        delete messageCache[sessionId];
+        return loadMessages(sessionId);
+    }
+    const data = await res.json();
+    const fetched = Array.isArray(data) ? data : (data.body || []);
+    const messages = cached ? cached.messages.concat(fetched) : fetched;
+    // The server's in-memory window has no seq, such a response cannot be topped up later
+    const tip = messages.length ? messages[messages.length - 1].seq : undefined;
+    if (tip != null) messageCache[sessionId] = { tip, messages }; else delete messageCache[sessionId];
+    const container = document.getElementById("messages");
+    container.innerHTML = "";
+    messages.forEach(m => appendMessage(m.role, m.content, true));
+    smoothScroll(true); // Force scroll on load
+}
+
+async function startStream() {
+    if (isStreaming) return;
+    const promptEl = document.getElementById("prompt");
+    const msg = promptEl.value.trim(); if (!msg) return;
+    const pName = document.getElementById("providerSelect").options[document.getElementById("providerSelect").selectedIndex].text;
+
+    isStreaming = true;
+    appendMessage('user', msg);
+    const bubble = appendMessage('assistant', '...');
+
+    promptEl.value = ""; promptEl.style.height = "auto";
+    document.getElementById('sendBtn').classList.remove('active');
+    document.getElementById('sendBtn').disabled = true;
+    smoothScroll(true); // Force scroll to bottom when starting new message
+
+    document.getElementById('sendBtn').classList.add('hidden');
+    document.getElementById('cancelBtn').classList.remove('hidden');
+    executeStreamInternal(msg, document.getElementById("providerSelect").value, bubble, pName);
+}
+
+async function executeStreamInternal(msg, provider, bubble, pName, isRetry = false) {
+    abortController = new AbortController();
+    let streamBuffer = "";
+    let partialLine = "";
+
+    try {
+        // Updated to POST method with JSON body
+        const url = `/v1/api/stream`;
+        const payload = {
+            prompt: msg,
+            sessionId: currentSessionId || null,
+            provider: provider
+        };
+
+        let rawRes = await fetch(url, {
+            method: "POST",
+            headers: {
+                "Authorization": `Bearer ${token}`,
+                "Content-Type": "application/json"
+            },
+            body: JSON.stringify(payload),
+            signal: abortController.signal
+        });
+
+        // Handle Silent Token Refresh During Streaming
+        if (rawRes.status === 401 && !isRetry) {
+            const refreshRes = await fetch("http://localhost:8081/auth/refresh", {
+                method: "POST",
+                headers: { "Content-Type": "application/json" },
+                body: JSON.stringify({ refreshToken })
+            });
+
+            if (refreshRes.ok) {
+                const data = await refreshRes.json();
+                token = data.accessToken;
+                refreshToken = data.refreshToken;
+                localStorage.setItem("accessToken", token);
+                localStorage.setItem("refreshToken", refreshToken);
+
+                // Retry the stream seamlessly
+                return executeStreamInternal(msg, provider, bubble, pName, true);
+            } else {
+                logout();
+                return;
+            }
+        }
+
+        if (!rawRes.ok) throw new Error(`Stream failed: ${rawRes.status}`);
+
+        streamReader = rawRes.body.getReader();
+        const decoder = new TextDecoder();
+        bubble.innerHTML = "";
+
+        while (isStreaming) {
+            const { done, value } = await streamReader.read();
+            if (done) break;
+
+            const chunk = partialLine + decoder.decode(value, { stream: true });
+            const lines = chunk.split("\n");
+            partialLine = lines.pop();
+
+            let newContentAdded = false;
+
+            for (let line of lines) {
+                line = line.trim();
+                if (!line) continue;
+
+                const parts = line.split("data:").filter(p => p.trim() !== "");
+
+                for (let part of parts) {
+                    part = part.trim();
+                    if (part === "[DONE]") continue;
+
+                    try {
+                        const json = JSON.parse(part);
+                        if (json.done) continue;
+
+                        if (json.content) {
+                            streamBuffer += json.content;
+                            newContentAdded = true;
+                        }
+                    } catch (e) {
+                        // Silently ignore
+                    }
+                }
+            }
+
+            if (newContentAdded && isStreaming) {
+                if (streamUpdateTimer) cancelAnimationFrame(streamUpdateTimer);
+                streamUpdateTimer = requestAnimationFrame(() => {
+                    renderMarkdown(bubble, streamBuffer);
+                    smoothScroll(false); // False allows user to scroll up without snapping
+                });
+            }
+        }
+
+        if (partialLine && isStreaming) {
+            const parts = partialLine.split("data:").filter(p => p.trim() !== "");
+            for (let part of parts) {
+                try {
+                    const json = JSON.parse(part.trim());
+                    if (json.content) streamBuffer += json.content;
+                } catch(e) {}
+            }
+            if (streamBuffer) {
+                renderMarkdown(bubble, streamBuffer);
+                smoothScroll(false);
+            }
+        }
+
+    } catch (err) {
+        if (streamUpdateTimer) cancelAnimationFrame(streamUpdateTimer);
+        if (err.name === "AbortError" || !isStreaming) {
+            renderMarkdown(bubble, streamBuffer + " 🛑 You stopped this response");
+        }
+        smoothScroll(true);
+    } finally {
+        isStreaming = false;
+        streamReader = null;
+        document.getElementById("sendBtn").classList.remove("hidden");
+        document.getElementById("cancelBtn").classList.add("hidden");
+        lucide.createIcons();
+        if (document.querySelectorAll(".msg-row").length <= 2) setTimeout(loadSessions, 1500);
+    }
+}
+
+async function createNewSession() {
+    if (isStreaming) cancelStream(); // Fixes the button getting stuck
+
+    // Wrapped in handleResponse to prevent 401 failures
+    const rawRes = await fetch(`/v1/api/createSession`, { method: "POST", headers: { "Authorization": `Bearer ${token}` } });
+    const res = await handleResponse(rawRes, createNewSession);
+    if (!res) return;
+
+    currentSessionId = (await res.json()).sessionId;
+    document.getElementById("messages").innerHTML = "";
+    document.getElementById("activeChatTitle").innerText = "New Thread";
+    loadSessions();
+}
+
+// Smart Scrolling: Only auto-scrolls if you are already at the bottom
+function smoothScroll(force = false) {
+    const msgDiv = document.getElementById("messages");
+    const threshold = 150; // pixels
+    const isNearBottom = (msgDiv.scrollHeight - msgDiv.scrollTop - msgDiv.clientHeight) < threshold;
+
+    if (force || isNearBottom) {
+        msgDiv.scrollTop = msgDiv.scrollHeight;
+    }
+}
+
+function cancelStream() {
+    isStreaming = false;
+    if (abortController) {
+        abortController.abort();
+    }
+    if (streamReader) {
+        streamReader.cancel().catch(() => {});
+    }
+}
+
+document.getElementById('prompt').addEventListener('input', function() {
+    this.style.height = 'auto';
+    this.style.height = Math.min(this.scrollHeight, 200) + 'px';
+    const sendBtn = document.getElementById('sendBtn');
+    if (this.value.trim().length > 0) {
+        sendBtn.classList.add('active');
+        sendBtn.disabled = false;
+    } else {
+        sendBtn.classList.remove('active');
+        sendBtn.disabled = true;
+    }
+});
+
+document.getElementById('prompt').onkeydown = (e) => {
+    if(e.key === 'Enter' && !e.shiftKey) {
+        e.preventDefault();
+        if(document.getElementById('prompt').value.trim().length > 0) startStream();
+    }
+};
+
+window.onload = loadSessions;
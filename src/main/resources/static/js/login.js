@@ -0,0 +1,44 @@
+lucide.createIcons();
+
+async function login() {
+    const mail = document.getElementById("mail").value;
+    const password = document.getElementById("password").value;
+    const errorMsg = document.getElementById("error-msg");
+    const loginBtn = document.querySelector(".login-btn");
+
+    if (!mail || !password) {
+        errorMsg.innerText = "All fields are required.";
+        errorMsg.style.display = "block";
+        return;
+    }
+
+    loginBtn.innerText = "Authenticating...";
+    loginBtn.disabled = true;
+    errorMsg.style.display = "none";
+
+    try {
+        const authResponse = await fetch("http://localhost:8081/auth/login", {
+            method: "POST",
+            headers: { "Content-Type": "application/json" },
+            body: JSON.stringify({ mail, password })
+        });
+
+        if (!authResponse.ok) throw new Error("Invalid Credentials");
+
+        const data = await authResponse.json();
+        localStorage.setItem("accessToken", data.accessToken);
+        localStorage.setItem("refreshToken", data.refreshToken);
+        localStorage.setItem("user", data.userId);
+        window.location.href = "chat.html";
+
+    } catch (err) {
+        loginBtn.innerText = "Sign In to Dashboard";
+        loginBtn.disabled = false;
+        errorMsg.innerText = err.message;
+        errorMsg.style.display = "block";
+    }
+}
+
+document.addEventListener('keypress', (e) => {
+    if (e.key === 'Enter') login();
+});
@@ -0,0 +1,42 @@
+lucide.createIcons();
+
+async function register() {
+    const mail = document.getElementById("mail").value;
+    const username = document.getElementById("username").value;
+    const password = document.getElementById("password").value;
+    const btn = document.getElementById("regBtn");
+
+    if (!mail || !username || !password) {
+        alert("All fields are mandatory.");
+        return;
+    }
+
+    btn.disabled = true;
+    btn.innerText = "Provisioning Account...";
+
+    try {
+        const response = await fetch("http://localhost:8081/auth/register", {
+            method: "POST",
+            headers: { "Content-Type": "application/json" },
+            body: JSON.stringify({ mail, username, password })
+        });
+
+        if (!response.ok) {
+            const errorData = await response.json().catch(() => ({}));
+            alert("Elite Provisioning Failed: " + (errorData.message || "Unknown error"));
+            return;
+        }
+
+        alert("Registration complete! Welcome to the Elite.");
+        window.location.href = "login.html";
+    } catch (err) {
+        alert("Communication error with Auth Server.");
+    } finally {
+        btn.disabled = false;
+        btn.innerText = "Register Account";
+    }
+}
+
+document.addEventListener('keypress', (e) => {
+    if (e.key === 'Enter') register();
+});
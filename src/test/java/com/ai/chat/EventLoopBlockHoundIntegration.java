@@ -0,0 +1,17 @@
+package com.ai.chat;
+
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.integration.BlockHoundIntegration;
+
+/**
+ * BlockHound setup for the test run, installed by blockhound-junit-platform. Reactor's parallel
+ * and single schedulers are checked out of the box; the server's reactor-http-nio/epoll loops
+ * are added here by name.
+ */
+public class EventLoopBlockHoundIntegration implements BlockHoundIntegration {
+
+    @Override
+    public void applyTo(BlockHound.Builder builder) {
+        builder.nonBlockingThreadPredicate(current -> current.or(thread -> thread.getName().startsWith("reactor-http-")));
+    }
+}
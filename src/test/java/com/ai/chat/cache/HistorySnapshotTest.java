@@ -0,0 +1,86 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.dto.ChatMessageDto;
+import com.ai.chat.entities.ChatSession;
+import com.ai.chat.store.LogChatHistoryStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Snapshots written from the cached windows and read back by a new instance, the way a restarted node does.
+ */
+class HistorySnapshotTest {
+
+    private static final String USER_ID = "user-1";
+
+    @TempDir
+    Path directory;
+
+    ChatProperties properties;
+    LogChatHistoryStore store;
+    ChatSession session;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        properties = new ChatProperties();
+        properties.getStore().getLog().setDirectory(directory.resolve("log").toString());
+        properties.getHistorySnapshot().setPath(directory.resolve("session-history.snapshot").toString());
+        store = new LogChatHistoryStore(properties);
+        new SessionHistory(store, new HistorySnapshot(store, properties));
+
+        session = store.createSession(USER_ID, "Test User");
+        SessionHistory.getOrLoadHistory(USER_ID, session.getSessionId());
+        HistoryMessage question = SessionHistory.addMessage(USER_ID, session.getSessionId(), "user", "hello");
+        HistoryMessage answer = SessionHistory.addMessage(USER_ID, session.getSessionId(), question, "assistant", "hi there");
+        SessionHistory.persist(session, List.of(question, answer));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SessionHistory.removeHistory(USER_ID, session.getSessionId());
+        store.close();
+    }
+
+    @Test
+    void windowIsRestoredOnce() {
+        new HistorySnapshot(store, properties).write();
+
+        HistorySnapshot restarted = new HistorySnapshot(store, properties);
+        assertEquals(List.of("hello", "hi there"), contents(restarted.restore(USER_ID, session.getSessionId())));
+        assertNull(restarted.restore(USER_ID, session.getSessionId()));
+    }
+
+    @Test
+    void entriesNotAskedForAreCarriedIntoTheNextSnapshot() {
+        new HistorySnapshot(store, properties).write();
+        SessionHistory.removeHistory(USER_ID, session.getSessionId());
+
+        // Restarted without the session in its cache, its entry comes from the previous file
+        new HistorySnapshot(store, properties).write();
+
+        assertEquals(List.of("hello", "hi there"),
+                contents(new HistorySnapshot(store, properties).restore(USER_ID, session.getSessionId())));
+    }
+
+    @Test
+    void staleEntryIsNotServed() {
+        new HistorySnapshot(store, properties).write();
+        HistoryMessage question = SessionHistory.addMessage(USER_ID, session.getSessionId(), "user", "another");
+        SessionHistory.persist(session, List.of(question));
+
+        assertNull(new HistorySnapshot(store, properties).restore(USER_ID, session.getSessionId()));
+    }
+
+    private static List<String> contents(List<ChatMessageDto> messages) {
+        return messages.stream().map(ChatMessageDto::getContent).toList();
+    }
+}
@@ -0,0 +1,84 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.dto.UserPromptDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Repeated submissions of one key, the way a client retrying after a dropped connection sends them.
+ */
+class IdempotencyStoreTest {
+
+    ChatProperties properties = new ChatProperties();
+    IdempotencyStore store = new IdempotencyStore(properties);
+    AtomicInteger runs = new AtomicInteger();
+
+    @Test
+    void finishedResponseIsReplayedWithoutRunningAgain() {
+        assertEquals(List.of("a", "b"), execute(prompt("hello"), Flux.just("a", "b")).collectList().block());
+        assertEquals(List.of("a", "b"), execute(prompt("hello"), Flux.just("c")).collectList().block());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void keyReusedWithAnotherRequestIsRejected() {
+        execute(prompt("hello"), Flux.just("a")).blockLast();
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> execute(prompt("goodbye"), Flux.just("b")).blockLast());
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, e.getStatusCode());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void workIsCancelledOnceTheLastCallerLeaves() {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Sinks.Many<String> frames = Sinks.many().unicast().onBackpressureBuffer();
+        Flux<String> work = frames.asFlux().doOnCancel(() -> cancelled.set(true));
+
+        Disposable first = execute(prompt("hello"), work).subscribe();
+        Disposable second = execute(prompt("hello"), work).subscribe();
+        first.dispose();
+        assertFalse(cancelled.get());
+        second.dispose();
+        assertTrue(cancelled.get());
+
+        // Forgotten, a retry starts over
+        assertEquals(List.of("again"), execute(prompt("hello"), Flux.just("again")).collectList().block());
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void responseLongerThanTheReplayCapIsRunAgain() {
+        properties.getIdempotency().setMaxReplayFrames(2);
+
+        execute(prompt("hello"), Flux.just("a", "b", "c")).blockLast();
+        assertEquals(List.of("d"), execute(prompt("hello"), Flux.just("d")).collectList().block());
+        assertEquals(2, runs.get());
+    }
+
+    private Flux<String> execute(UserPromptDto request, Flux<String> response) {
+        return store.execute("user-1", "key-1", request, () -> {
+            runs.incrementAndGet();
+            return response;
+        });
+    }
+
+    private static UserPromptDto prompt(String prompt) {
+        UserPromptDto request = new UserPromptDto();
+        request.setPrompt(prompt);
+        request.setSessionId(1L);
+        return request;
+    }
+}
@@ -0,0 +1,93 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.utils.ChatFrames;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Turns driven by a sink standing in for the provider, so every frame arrives on the test thread.
+ */
+class LiveSessionsTest {
+
+    private static final Long SESSION_ID = 7L;
+
+    LiveSessions liveSessions = new LiveSessions();
+
+    @Test
+    void lateViewerGetsTheFramesItMissedThenFollows() {
+        Sinks.Many<String> provider = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> answer = new CopyOnWriteArrayList<>();
+        liveSessions.publish(SESSION_ID, "hi", provider.asFlux(), Function.identity()).subscribe(answer::add);
+        provider.tryEmitNext(ChatFrames.content("Hel"));
+
+        List<String> viewer = new CopyOnWriteArrayList<>();
+        Disposable watching = liveSessions.watch(SESSION_ID).subscribe(viewer::add);
+        provider.tryEmitNext(ChatFrames.content("lo"));
+        provider.tryEmitNext(ChatFrames.DONE);
+        provider.tryEmitComplete();
+
+        assertEquals(List.of(ChatFrames.prompt("hi"), ChatFrames.content("Hel"), ChatFrames.content("lo"), ChatFrames.DONE), viewer);
+        // The turn's own subscriber sees the source unchanged
+        assertEquals(List.of(ChatFrames.content("Hel"), ChatFrames.content("lo"), ChatFrames.DONE), answer);
+        watching.dispose();
+    }
+
+    @Test
+    void finishedTurnIsNotReplayedButTheNextOneIs() {
+        liveSessions.publish(SESSION_ID, "first", Flux.just(ChatFrames.content("one")), Function.identity()).blockLast();
+
+        List<String> viewer = new CopyOnWriteArrayList<>();
+        Disposable watching = liveSessions.watch(SESSION_ID).subscribe(viewer::add);
+        assertEquals(List.of(), viewer);
+
+        liveSessions.publish(SESSION_ID, "second", Flux.just(ChatFrames.content("two")), Function.identity()).blockLast();
+        assertEquals(List.of(ChatFrames.prompt("second"), ChatFrames.content("two"), ChatFrames.DONE), viewer);
+        watching.dispose();
+    }
+
+    @Test
+    void cancelledTurnEndsWithAnErrorFrame() {
+        Sinks.Many<String> provider = Sinks.many().unicast().onBackpressureBuffer();
+        Disposable turn = liveSessions.publish(SESSION_ID, "hi", provider.asFlux(), Function.identity()).subscribe();
+        List<String> viewer = new CopyOnWriteArrayList<>();
+        Disposable watching = liveSessions.watch(SESSION_ID).subscribe(viewer::add);
+
+        turn.dispose();
+
+        assertEquals(List.of(ChatFrames.prompt("hi"), ChatFrames.error("cancelled")), viewer);
+        watching.dispose();
+    }
+
+    @Test
+    void sweepDropsOnlyIdleChannels() {
+        Sinks.Many<String> provider = Sinks.many().unicast().onBackpressureBuffer();
+        liveSessions.publish(1L, "streaming", provider.asFlux(), Function.identity()).subscribe();
+        Disposable watching = liveSessions.watch(2L).subscribe();
+        liveSessions.publish(3L, "done", Flux.just(ChatFrames.content("x")), Function.identity()).blockLast();
+        liveSessions.watch(4L).subscribe().dispose();
+
+        liveSessions.sweep();
+        assertEquals(List.of(1L, 2L), channels());
+
+        provider.tryEmitComplete();
+        watching.dispose();
+        liveSessions.sweep();
+        assertEquals(List.of(), channels());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> channels() {
+        Map<Long, ?> channels = (Map<Long, ?>) ReflectionTestUtils.getField(liveSessions, "channels");
+        return channels.keySet().stream().sorted().toList();
+    }
+}
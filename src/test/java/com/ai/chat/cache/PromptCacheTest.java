@@ -0,0 +1,80 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.config.ChatProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A first prompt is answered by the provider, a second one either from the cache or by the provider again.
+ */
+class PromptCacheTest {
+
+    private static final String FRESH = "fresh answer";
+
+    PromptCache promptCache = new PromptCache(new ChatProperties());
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "explain java streams | Explain Java streams?",
+            "explain java streams | explain  java   streams please",
+            "how do I reverse a list in python | how do i reverse a list in Python?",
+            "how do I reverse a list in python | how can I reverse a list in python",
+            "difference between TCP and UDP | difference between tcp & udp",
+            "explain javascript promises | explain javscript promises",
+            "explain javascript promises in detail | explain javascript promise in detial"
+    })
+    void nearDuplicateIsServedFromTheCache(String first, String second) {
+        String cached = ask(first, "answer to " + first);
+
+        assertEquals(cached, ask(second, FRESH));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "convert celsius to fahrenheit | convert fahrenheit to celsius",
+            "translate english to french | translate french to english",
+            "install mysql on ubuntu | install mssql on ubuntu",
+            "what is the capital of france | what is the capital of spain",
+            "write a poem about cats | write a poem about dogs",
+            "how does garbage collection work in java | how does garbage collection work in go",
+            "is java pass by reference | is java not pass by reference",
+            "what is 2+2 | what is 2+3",
+            "how to sort a list in python | how to sort a list in python 3"
+    })
+    void differentQuestionGoesToTheProvider(String first, String second) {
+        ask(first, "answer to " + first);
+
+        assertEquals(FRESH, ask(second, FRESH));
+    }
+
+    @Test
+    void answerAddressingTheUserIsNotShared() {
+        promptCache.complete("test", List.of(new HistoryMessage("user", "hello")), "Bob Smith", () -> Flux.just("Hi Bob!"))
+                .blockLast();
+
+        assertEquals(FRESH, ask("hello", FRESH));
+    }
+
+    @Test
+    void laterTurnsAreNotCached() {
+        List<HistoryMessage> history = List.of(
+                new HistoryMessage("user", "explain java streams"),
+                new HistoryMessage("assistant", "Streams are..."),
+                new HistoryMessage("user", "show an example"));
+        promptCache.complete("test", history, "Al", () -> Flux.just("an example")).blockLast();
+
+        assertEquals(FRESH, String.join("", promptCache.complete("test", history, "Al", () -> Flux.just(FRESH)).collectList().block()));
+    }
+
+    private String ask(String prompt, String answer) {
+        return String.join("", promptCache.complete("test", List.of(new HistoryMessage("user", prompt)), "Al", () -> Flux.just(answer))
+                .collectList()
+                .block());
+    }
+}
@@ -0,0 +1,152 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.dto.ChatMessageDto;
+import com.ai.chat.entities.ChatSession;
+import com.ai.chat.store.LogChatHistoryStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The session tree against a {@link LogChatHistoryStore} on a temporary directory, which numbers
+ * messages like the database does.
+ */
+class SessionHistoryTest {
+
+    private static final String USER_ID = "user-1";
+
+    @TempDir
+    Path directory;
+
+    LogChatHistoryStore store;
+    ChatSession session;
+    Long sessionId;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ChatProperties properties = new ChatProperties();
+        properties.getStore().getLog().setDirectory(directory.toString());
+        properties.getHistorySnapshot().setEnabled(false);
+        store = new LogChatHistoryStore(properties);
+        new SessionHistory(store, new HistorySnapshot(store, properties));
+
+        session = store.createSession(USER_ID, "Test User");
+        sessionId = session.getSessionId();
+        SessionHistory.getOrLoadHistory(USER_ID, sessionId);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SessionHistory.removeHistory(USER_ID, sessionId);
+        store.close();
+    }
+
+    @Test
+    void editOfTheFirstQuestionStartsAtSeqZero() {
+        turn("q1", "a1");
+
+        assertTrue(SessionHistory.switchBranch(USER_ID, sessionId, 0));
+        assertEquals(List.of(), SessionHistory.getHistory(USER_ID, sessionId));
+        turn("q1 edited", "a1 edited");
+
+        assertEquals(List.of("q1 edited#3<-0", "a1 edited#4<-3"), render(SessionHistory.getHistory(USER_ID, sessionId)));
+        assertEquals(List.of(0L, 1L, 0L, 3L), store.messages(sessionId).stream().map(ChatMessageDto::getParentSeq).toList());
+        // The first branch is still there
+        assertTrue(SessionHistory.switchBranch(USER_ID, sessionId, 2));
+        assertEquals(List.of("q1#1<-0", "a1#2<-1"), render(SessionHistory.getHistory(USER_ID, sessionId)));
+    }
+
+    @Test
+    void regeneratedAnswersAreSiblingsInSeqOrder() {
+        turn("q1", "a1");
+        HistoryMessage question = SessionHistory.getMessage(USER_ID, sessionId, 1);
+
+        for (String answer : List.of("a1 again", "a1 third")) {
+            assertTrue(SessionHistory.switchBranch(USER_ID, sessionId, 1));
+            HistoryMessage regenerated = SessionHistory.addMessage(USER_ID, sessionId, "assistant", answer);
+            SessionHistory.persist(session, List.of(regenerated));
+        }
+
+        assertEquals(List.of("q1#1<-0", "a1#2<-1", "a1 again#3<-1", "a1 third#4<-1"), renderDtos(store.messages(sessionId)));
+        List<HistoryMessage> latest = SessionHistory.getHistory(USER_ID, sessionId);
+        assertEquals(List.of("q1#1<-0", "a1 third#4<-1"), render(latest));
+        // Siblings share the question, nothing before them is copied
+        assertSame(question, latest.getFirst());
+
+        // A reload follows the latest sibling
+        SessionHistory.removeHistory(USER_ID, sessionId);
+        SessionHistory.getOrLoadHistory(USER_ID, sessionId);
+        assertEquals(List.of("q1#1<-0", "a1 third#4<-1"), render(SessionHistory.getHistory(USER_ID, sessionId)));
+        assertTrue(SessionHistory.switchBranch(USER_ID, sessionId, 2));
+        assertEquals(List.of("q1#1<-0", "a1#2<-1"), render(SessionHistory.getHistory(USER_ID, sessionId)));
+    }
+
+    @Test
+    void branchesLoadedInPartAreGraftedAndLinked() {
+        for (int i = 1; i <= 20; i++) turn("q" + i, "a" + i);
+        SessionHistory.removeHistory(USER_ID, sessionId);
+        SessionHistory.getOrLoadHistory(USER_ID, sessionId);
+        assertEquals(seqs(29, 40), seqs(SessionHistory.getHistory(USER_ID, sessionId)));
+
+        // Not cached, read with its branch from the store
+        assertTrue(SessionHistory.switchBranch(USER_ID, sessionId, 10));
+        assertEquals(seqs(1, 10), seqs(SessionHistory.getHistory(USER_ID, sessionId)));
+
+        assertTrue(SessionHistory.switchBranch(USER_ID, sessionId, 40));
+        assertEquals(seqs(29, 40), seqs(SessionHistory.getHistory(USER_ID, sessionId)));
+
+        // The window runs into the cut-off start of the cached one, the messages before it are linked on
+        assertTrue(SessionHistory.switchBranch(USER_ID, sessionId, 35));
+        List<HistoryMessage> window = SessionHistory.getHistory(USER_ID, sessionId);
+        assertEquals(seqs(24, 35), seqs(window));
+        for (int i = 1; i < window.size(); i++) assertSame(window.get(i - 1), window.get(i).parent());
+
+        assertFalse(SessionHistory.switchBranch(USER_ID, sessionId, 41));
+    }
+
+    @Test
+    void unansweredQuestionIsDroppedAndTheNextTurnFollowsTheLastStoredMessage() {
+        turn("q1", "a1");
+        HistoryMessage lost = SessionHistory.addMessage(USER_ID, sessionId, "user", "q2");
+        // The next turn started before the empty answer came back
+        HistoryMessage next = SessionHistory.addMessage(USER_ID, sessionId, lost, "user", "q3");
+        HistoryMessage answer = SessionHistory.addMessage(USER_ID, sessionId, next, "assistant", "a3");
+
+        SessionHistory.discard(USER_ID, sessionId, lost);
+        assertNull(lost.getSeq());
+        SessionHistory.persist(session, List.of(next, answer));
+
+        assertEquals(List.of("q1#1<-0", "a1#2<-1", "q3#3<-2", "a3#4<-3"), render(SessionHistory.getHistory(USER_ID, sessionId)));
+    }
+
+    private void turn(String question, String answer) {
+        HistoryMessage q = SessionHistory.addMessage(USER_ID, sessionId, "user", question);
+        HistoryMessage a = SessionHistory.addMessage(USER_ID, sessionId, q, "assistant", answer);
+        SessionHistory.persist(session, List.of(q, a));
+    }
+
+    private static List<String> render(List<HistoryMessage> messages) {
+        return renderDtos(messages.stream().map(HistoryMessage::toDto).toList());
+    }
+
+    private static List<String> renderDtos(List<ChatMessageDto> messages) {
+        return messages.stream().map(m -> m.getContent() + "#" + m.getSeq() + "<-" + m.getParentSeq()).toList();
+    }
+
+    private static List<Long> seqs(List<HistoryMessage> messages) {
+        return messages.stream().map(HistoryMessage::getSeq).toList();
+    }
+
+    private static List<Long> seqs(long first, long last) {
+        return LongStream.rangeClosed(first, last).boxed().toList();
+    }
+}
@@ -0,0 +1,60 @@
+package com.ai.chat.cache;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.entities.ChatSession;
+import com.ai.chat.store.ChatHistoryStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Warm-ups against a store whose query blocks until the test lets it go, as a slow database would.
+ */
+class SessionWarmUpTest {
+
+    private static final String USER_ID = "user-1";
+
+    ChatHistoryStore store = mock(ChatHistoryStore.class);
+    Semaphore queries = new Semaphore(0);
+    CountDownLatch release = new CountDownLatch(1);
+    SessionWarmUp warmUp;
+
+    @BeforeEach
+    void setUp() {
+        ChatProperties properties = new ChatProperties();
+        properties.getHistorySnapshot().setEnabled(false);
+        properties.getWarmUp().setPerSecond(1_000_000);
+        new SessionHistory(store, new HistorySnapshot(store, properties));
+        warmUp = new SessionWarmUp(store, properties);
+
+        when(store.tails(any(), anyInt())).thenAnswer(invocation -> {
+            queries.release();
+            release.await();
+            return Map.of();
+        });
+    }
+
+    @Test
+    void cancelledUserIsWarmedUpAgain() throws InterruptedException {
+        List<ChatSession> sessions = List.of(ChatSession.builder().sessionId(41L).userId(USER_ID).build());
+
+        warmUp.warmUp(USER_ID, sessions);
+        assertTrue(queries.tryAcquire(5, TimeUnit.SECONDS));
+        warmUp.cancelAll();
+
+        warmUp.warmUp(USER_ID, sessions);
+        assertTrue(queries.tryAcquire(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+}
@@ -0,0 +1,117 @@
+package com.ai.chat.retry;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.tracing.Span;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Provider streams that fail the way a provider does, with the delays cut to milliseconds.
+ */
+class ProviderRetryTest {
+
+    ChatProperties properties = new ChatProperties();
+    AtomicInteger attempts = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        properties.getRetry().setBaseDelay(Duration.ofMillis(1));
+        properties.getRetry().setMaxDelay(Duration.ofMillis(5));
+    }
+
+    @Test
+    void retries429And5xxUntilAnAttemptAnswers() {
+        Flux<String> attempt = attempts(
+                Flux.error(status(HttpStatus.TOO_MANY_REQUESTS)),
+                Flux.error(status(HttpStatus.SERVICE_UNAVAILABLE)),
+                Flux.just("Hello", " there"));
+
+        assertEquals(List.of("Hello", " there"), execute(new ProviderRetry(properties), attempt));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void clientErrorIsNotRetried() {
+        Flux<String> attempt = attempts(Flux.error(status(HttpStatus.BAD_REQUEST)));
+
+        assertThrows(WebClientResponseException.class, () -> execute(new ProviderRetry(properties), attempt));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void failureAfterTheFirstDeltaIsNotRetried() {
+        Flux<String> attempt = attempts(
+                Flux.concat(Flux.just("Hel"), Flux.error(status(HttpStatus.BAD_GATEWAY))),
+                Flux.just("Hello"));
+
+        assertThrows(WebClientResponseException.class, () -> execute(new ProviderRetry(properties), attempt));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() {
+        properties.getRetry().setMaxRetries(2);
+        Flux<String> attempt = Flux.defer(() -> {
+            attempts.incrementAndGet();
+            return Flux.error(status(HttpStatus.INTERNAL_SERVER_ERROR));
+        });
+
+        assertThrows(WebClientResponseException.class, () -> execute(new ProviderRetry(properties), attempt));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void retryAfterLongerThanAllowedFailsRightAway() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "60");
+        Flux<String> attempt = attempts(
+                Flux.error(WebClientResponseException.create(429, "Too Many Requests", headers, new byte[0], null)),
+                Flux.just("Hello"));
+
+        assertThrows(WebClientResponseException.class, () -> execute(new ProviderRetry(properties), attempt));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void exhaustedBudgetDeniesTheRetry() {
+        properties.getRetry().setBudgetRatio(0);
+        properties.getRetry().setBudgetCapacity(0);
+        properties.getRetry().setMinRetriesPerSecond(0);
+        ProviderRetry retry = new ProviderRetry(properties);
+        Flux<String> attempt = attempts(Flux.error(status(HttpStatus.SERVICE_UNAVAILABLE)), Flux.just("Hello"));
+
+        assertThrows(WebClientResponseException.class, () -> execute(retry, attempt));
+        assertEquals(1, attempts.get());
+        assertEquals(1L, provider(retry).get("deniedByBudget"));
+    }
+
+    private List<String> execute(ProviderRetry retry, Flux<String> attempt) {
+        return retry.execute("test", Span.NOOP, attempt).collectList().block(Duration.ofSeconds(10));
+    }
+
+    // Each subscription gets the next outcome, the last one repeats
+    @SafeVarargs
+    private Flux<String> attempts(Flux<String>... outcomes) {
+        return Flux.defer(() -> outcomes[Math.min(attempts.getAndIncrement(), outcomes.length - 1)]);
+    }
+
+    private static WebClientResponseException status(HttpStatus status) {
+        return WebClientResponseException.create(status.value(), status.getReasonPhrase(), HttpHeaders.EMPTY, new byte[0], null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> provider(ProviderRetry retry) {
+        return (Map<String, Object>) ((Map<String, Object>) retry.snapshot().get("providers")).get("test");
+    }
+}
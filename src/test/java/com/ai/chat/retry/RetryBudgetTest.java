@@ -0,0 +1,49 @@
+package com.ai.chat.retry;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class RetryBudgetTest {
+
+    @Test
+    void withdrawsUntilEmptyAndRefillsFromCalls() {
+        RetryBudget budget = new RetryBudget(0.5, 2, 0);
+
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+
+        // Two calls earn one retry
+        budget.deposit();
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+    }
+
+    @Test
+    void depositsStopAtCapacity() {
+        RetryBudget budget = new RetryBudget(1, 2, 0);
+
+        for (int i = 0; i < 5; i++) budget.deposit();
+
+        assertEquals(2.0, budget.available());
+    }
+
+    @Test
+    void emptyBudgetStillAllowsTheFloorEachSecond() {
+        RetryBudget budget = new RetryBudget(0, 0, 2);
+
+        long second = System.currentTimeMillis() / 1000;
+        boolean first = budget.tryWithdraw();
+        boolean secondRetry = budget.tryWithdraw();
+        boolean third = budget.tryWithdraw();
+        // The floor starts over every second
+        assumeTrue(System.currentTimeMillis() / 1000 == second);
+
+        assertTrue(first);
+        assertTrue(secondRetry);
+        assertFalse(third);
+    }
+}
@@ -0,0 +1,76 @@
+package com.ai.chat.scheduler;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.store.SessionPurger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * A purge run against a mocked {@link SessionPurger}.
+ */
+class ChatPurgeJobTest {
+
+    SessionPurger sessionPurger = mock(SessionPurger.class);
+    ChatProperties properties = new ChatProperties();
+    ChatPurgeJob job;
+
+    @BeforeEach
+    void setUp() {
+        properties.getPurge().setMaxBatchesPerRun(3);
+        job = new ChatPurgeJob(sessionPurger, properties);
+    }
+
+    @Test
+    void eachBatchStartsAfterThePreviousOne() throws InterruptedException {
+        SessionPurger.Cursor first = cursor(7);
+        SessionPurger.Cursor second = cursor(9);
+        when(sessionPurger.purge(SessionPurger.Cursor.START)).thenReturn(new SessionPurger.Result(1, 10, true, first));
+        when(sessionPurger.purge(first)).thenReturn(new SessionPurger.Result(0, 20, true, second));
+        when(sessionPurger.purge(second)).thenReturn(new SessionPurger.Result(1, 0, false, second));
+
+        job.purgeDeletedSessions();
+
+        var order = inOrder(sessionPurger);
+        order.verify(sessionPurger).purge(SessionPurger.Cursor.START);
+        order.verify(sessionPurger).purge(first);
+        order.verify(sessionPurger).purge(second);
+        verifyNoMoreInteractions(sessionPurger);
+    }
+
+    @Test
+    void runStopsAtMaxBatches() throws InterruptedException {
+        when(sessionPurger.purge(any())).thenReturn(new SessionPurger.Result(2, 0, true, cursor(7)));
+
+        job.purgeDeletedSessions();
+
+        verify(sessionPurger, times(3)).purge(any());
+    }
+
+    @Test
+    void failedBatchEndsTheRun() throws InterruptedException {
+        when(sessionPurger.purge(any())).thenThrow(new IllegalStateException("connection lost"));
+
+        job.purgeDeletedSessions();
+
+        verify(sessionPurger).purge(SessionPurger.Cursor.START);
+    }
+
+    @Test
+    void disabledPurgeDoesNothing() {
+        properties.getPurge().setEnabled(false);
+
+        job.purgeDeletedSessions();
+        job.start();
+
+        verifyNoInteractions(sessionPurger);
+    }
+
+    private static SessionPurger.Cursor cursor(long sessionId) {
+        return new SessionPurger.Cursor(new Timestamp(1_000), sessionId);
+    }
+}
@@ -0,0 +1,166 @@
+package com.ai.chat.service.impl;
+
+import com.ai.chat.cache.HistoryMessage;
+import com.ai.chat.client.LLMClient;
+import com.ai.chat.dto.ChatMessageDto;
+import com.ai.chat.dto.UserContext;
+import com.ai.chat.entities.ChatSession;
+import com.ai.chat.service.ChatService;
+import com.ai.chat.store.ChatHistoryStore;
+import com.ai.chat.utils.ChatFrames;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import reactor.blockhound.BlockingOperationError;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * Chat turns subscribed on a non-blocking thread, as the server does on its event loop, against a
+ * store whose every call blocks like a JDBC query. BlockHound turns any blocking call on that
+ * thread into an error.
+ */
+@SpringBootTest(properties = {
+        "chat.history-snapshot.enabled=false",
+        "chat.stall-sampler.enabled=false",
+        "chat.prompt-cache.enabled=false"
+})
+@ActiveProfiles("local-store")
+class ChatServiceBlockingTest {
+
+    private static final UserContext USER = new UserContext("user-1", "Test User", "test@example.com");
+
+    @Autowired
+    ChatService chatService;
+
+    @MockitoBean
+    ChatHistoryStore chatHistoryStore;
+
+    @MockitoBean
+    LLMFactory factory;
+
+    @BeforeEach
+    void setUp() {
+        LLMClient client = new LLMClient() {
+            @Override
+            public String getProviderName() {
+                return "test";
+            }
+
+            @Override
+            public Flux<String> streamText(String prompt, UserContext userContext, ChatSession chatSession) {
+                return Flux.just("Hello", " there");
+            }
+
+            @Override
+            public Flux<String> regenerateText(UserContext userContext, ChatSession chatSession) {
+                return Flux.just("Hi", " again");
+            }
+
+            @Override
+            public Flux<String> complete(Collection<HistoryMessage> history, String userName) {
+                return Flux.just("Hello");
+            }
+
+            @Override
+            public void generateTitle(String prompt, ChatSession session) {
+            }
+        };
+        when(factory.getClient(anyString())).thenReturn(client);
+
+        when(chatHistoryStore.createSession(anyString(), anyString())).thenAnswer(invocation -> {
+            jdbcRoundTrip();
+            return ChatSession.builder().sessionId(System.nanoTime()).userId(USER.getUserId()).build();
+        });
+        when(chatHistoryStore.findSession(anyString(), anyLong())).thenAnswer(invocation -> {
+            jdbcRoundTrip();
+            return Optional.of(ChatSession.builder().sessionId(invocation.getArgument(1)).userId(USER.getUserId()).build());
+        });
+        when(chatHistoryStore.tail(anyLong(), anyInt())).thenAnswer(invocation -> {
+            jdbcRoundTrip();
+            return List.<ChatMessageDto>of();
+        });
+    }
+
+    @Test
+    void blockingOnAnEventLoopThreadFails() {
+        Mono<Void> blocking = Mono.fromRunnable(ChatServiceBlockingTest::jdbcRoundTrip)
+                .subscribeOn(Schedulers.parallel())
+                .then();
+
+        Throwable error = assertThrows(RuntimeException.class, () -> blocking.block(Duration.ofSeconds(5)));
+        assertInstanceOf(BlockingOperationError.class, error.getCause() == null ? error : error.getCause());
+    }
+
+    @Test
+    void streamChatLoadsTheSessionOffTheEventLoop() {
+        List<String> frames = chatService.streamChat("test", "hi", USER, 41L)
+                .subscribeOn(Schedulers.parallel())
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertNotNull(frames);
+        assertEquals(ChatFrames.DONE, frames.getLast());
+    }
+
+    @Test
+    void streamTextCreatesTheSessionOffTheEventLoop() {
+        List<String> deltas = chatService.streamText("test", "hi", USER, null, session -> {
+                })
+                .subscribeOn(Schedulers.parallel())
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertEquals(List.of("Hello", " there"), deltas);
+    }
+
+    @Test
+    void compareChatLoadsTheSessionOffTheEventLoop() {
+        List<String> frames = chatService.compareChat(List.of("test"), "hi", USER, 42L)
+                .subscribeOn(Schedulers.parallel())
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertNotNull(frames);
+        assertFalse(frames.isEmpty());
+    }
+
+    @Test
+    void regenerateChatReadsTheBranchOffTheEventLoop() {
+        when(chatHistoryStore.branch(anyLong(), anyLong(), anyInt())).thenAnswer(invocation -> {
+            jdbcRoundTrip();
+            return List.of(
+                    new ChatMessageDto("user", "hi", null, 1L, 0L),
+                    new ChatMessageDto("assistant", "Hello", null, 2L, 1L));
+        });
+
+        List<String> frames = chatService.regenerateChat("test", 2, USER, 43L)
+                .subscribeOn(Schedulers.parallel())
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertNotNull(frames);
+        assertEquals(ChatFrames.DONE, frames.getLast());
+    }
+
+    private static void jdbcRoundTrip() {
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.ai.chat.service.impl;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.datasource.ReadYourWritesGuard;
+import com.ai.chat.dto.UserContext;
+import com.ai.chat.records.ChatExportLineRecord;
+import com.ai.chat.store.ChatArchive;
+import com.ai.chat.store.MessageSequence;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Imports against a mocked JdbcTemplate, checking the sequence numbers written for the messages.
+ */
+class ChatTransferServiceImplTest {
+
+    private static final UserContext USER = new UserContext("user-1", "Test User", "test@example.com");
+    private static final long NEW_SESSION_ID = 500L;
+
+    JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    MessageSequence messageSequence = mock(MessageSequence.class);
+    ChatProperties properties = new ChatProperties();
+    List<Object[]> inserted = new ArrayList<>();
+
+    @Test
+    void parentSeqsAreRenumberedAcrossBatches() {
+        // Exported from a session whose first messages were purged, so numbering starts at 5
+        List<ChatExportLineRecord> lines = List.of(
+                session(),
+                message("q1", 5L, 0L),
+                message("a1", 6L, 5L),
+                // A regenerated answer and an edit of the first question
+                message("a1 again", 7L, 5L),
+                message("q1 edited", 8L, 0L),
+                message("a1 edited", 9L, 8L));
+        properties.getTransfer().setBatchSize(2);
+
+        importLines(lines);
+
+        assertEquals(List.of("q1#1<-0", "a1#2<-1", "a1 again#3<-1", "q1 edited#4<-0", "a1 edited#5<-4"), rows());
+    }
+
+    @Test
+    void linesWithoutSeqsFollowTheMessageBefore() {
+        importLines(List.of(session(), message("q1", null, null), message("a1", null, null)));
+
+        assertEquals(List.of("q1#1<-0", "a1#2<-1"), rows());
+    }
+
+    @Test
+    void parentMissingFromTheFileStartsABranch() {
+        importLines(List.of(session(), message("a1", 6L, 5L)));
+
+        assertEquals(List.of("a1#1<-0"), rows());
+    }
+
+    private void importLines(List<ChatExportLineRecord> lines) {
+        when(jdbcTemplate.queryForObject(contains("t_chat_session"), eq(Long.class), any(Object[].class))).thenReturn(NEW_SESSION_ID);
+        when(jdbcTemplate.batchUpdate(contains("t_chat_message"), anyList())).thenAnswer(invocation -> {
+            inserted.addAll(invocation.getArgument(1));
+            return new int[0];
+        });
+        AtomicLong next = new AtomicLong(1);
+        when(messageSequence.allocate(eq(NEW_SESSION_ID), anyInt()))
+                .thenAnswer(invocation -> next.getAndAdd(invocation.<Integer>getArgument(1)));
+
+        ChatTransferServiceImpl service = new ChatTransferServiceImpl(mock(EntityManagerFactory.class), jdbcTemplate,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), properties,
+                new ReadYourWritesGuard(properties), mock(ChatArchive.class), messageSequence);
+
+        ObjectMapper mapper = new ObjectMapper();
+        StringBuilder file = new StringBuilder();
+        for (ChatExportLineRecord line : lines) file.append(mapper.writeValueAsString(line)).append('\n');
+        Flux<DataBuffer> body = Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(file.toString().getBytes(StandardCharsets.UTF_8)));
+
+        service.importHistory(USER, body).block();
+    }
+
+    // content#seq<-parentSeq of the inserted rows, {session_id, role, content, created_date, seq, parent_seq}
+    private List<String> rows() {
+        inserted.forEach(row -> assertEquals(NEW_SESSION_ID, row[0]));
+        return inserted.stream().map(row -> row[2] + "#" + row[4] + "<-" + row[5]).toList();
+    }
+
+    private static ChatExportLineRecord session() {
+        return ChatExportLineRecord.builder().type("session").sessionId(42L).title("Imported").build();
+    }
+
+    private static ChatExportLineRecord message(String content, Long seq, Long parentSeq) {
+        return ChatExportLineRecord.builder().type("message").sessionId(42L)
+                .role(content.startsWith("q") ? "user" : "assistant").content(content)
+                .seq(seq).parentSeq(parentSeq).build();
+    }
+}
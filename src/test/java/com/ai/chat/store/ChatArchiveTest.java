@@ -0,0 +1,102 @@
+package com.ai.chat.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Archive payloads written by every format version still decode to the same messages.
+ */
+class ChatArchiveTest {
+
+    private static final Timestamp CREATED = new Timestamp(1_700_000_000_000L);
+
+    @Test
+    void currentFormatRoundTrips() {
+        List<ChatArchive.ArchivedMessage> messages = List.of(
+                new ChatArchive.ArchivedMessage(11, "user", "hello", CREATED, 1, 0),
+                new ChatArchive.ArchivedMessage(12, "assistant", "hi", CREATED, 2, 1),
+                // An edit of the first question and a reply without content
+                new ChatArchive.ArchivedMessage(13, "user", "hello again é世", CREATED, 3, 0),
+                new ChatArchive.ArchivedMessage(14, "assistant", null, CREATED, 4, 3));
+
+        assertEquals(messages, ChatArchive.decode(ChatArchive.encode(messages)));
+    }
+
+    @Test
+    void longContentRoundTrips() {
+        List<ChatArchive.ArchivedMessage> messages = List.of(
+                new ChatArchive.ArchivedMessage(11, "assistant", "x".repeat(100_000), CREATED, 1, 0));
+
+        assertEquals(messages, ChatArchive.decode(ChatArchive.encode(messages)));
+    }
+
+    @Test
+    void formatOneNumbersMessagesInOrder() throws IOException {
+        byte[] payload = legacy(1, new long[][]{{21, 0, 0}, {22, 0, 0}});
+
+        assertEquals(List.of(
+                new ChatArchive.ArchivedMessage(21, "user", "message 0", CREATED, 1, 0),
+                new ChatArchive.ArchivedMessage(22, "user", "message 1", CREATED, 2, 1)), ChatArchive.decode(payload));
+    }
+
+    @Test
+    void formatTwoReadsSeqAndFollowsThePreviousMessage() throws IOException {
+        byte[] payload = legacy(2, new long[][]{{31, 5, 0}, {32, 6, 0}});
+
+        assertEquals(List.of(
+                new ChatArchive.ArchivedMessage(31, "user", "message 0", CREATED, 5, 4),
+                new ChatArchive.ArchivedMessage(32, "user", "message 1", CREATED, 6, 5)), ChatArchive.decode(payload));
+    }
+
+    @Test
+    void formatThreeReadsParentSeq() throws IOException {
+        byte[] payload = legacy(3, new long[][]{{41, 1, 0}, {42, 2, 0}});
+
+        assertEquals(List.of(
+                new ChatArchive.ArchivedMessage(41, "user", "message 0", CREATED, 1, 0),
+                new ChatArchive.ArchivedMessage(42, "user", "message 1", CREATED, 2, 0)), ChatArchive.decode(payload));
+    }
+
+    @Test
+    void unknownFormatIsRejected() throws IOException {
+        byte[] payload = legacy(4, new long[0][]);
+
+        assertThrows(IllegalStateException.class, () -> ChatArchive.decode(payload));
+    }
+
+    /**
+     * A payload as written by {@code version}: messages as {messageId, seq, parentSeq}, seq from
+     * version 2 on and parentSeq from version 3 on.
+     */
+    private static byte[] legacy(int version, long[][] messages) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeByte(version);
+            out.writeInt(messages.length);
+            for (int i = 0; i < messages.length; i++) {
+                out.writeLong(messages[i][0]);
+                if (version >= 2) out.writeLong(messages[i][1]);
+                if (version >= 3) out.writeLong(messages[i][2]);
+                out.writeLong(CREATED.getTime());
+                writeString(out, "user");
+                writeString(out, "message " + i);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,161 @@
+package com.ai.chat.store;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.dto.ChatMessageDto;
+import com.ai.chat.entities.ChatMessage;
+import com.ai.chat.entities.ChatSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The segment log on a temporary directory, reopened the way a restarted node recovers it.
+ */
+class LogChatHistoryStoreTest {
+
+    @TempDir
+    Path directory;
+
+    ChatProperties properties;
+    LogChatHistoryStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        properties = new ChatProperties();
+        properties.getStore().getLog().setDirectory(directory.toString());
+        properties.getStore().getLog().setSegmentSize(DataSize.ofBytes(512));
+        store = new LogChatHistoryStore(properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void recordsSurviveReopening() throws IOException {
+        ChatSession session = store.createSession("user-1", "Test User");
+        session.setTitle("Greetings");
+        store.saveTitle(session);
+        store.append(session, List.of(message("user", "hello", null), message("assistant", "hi there", null)));
+        // An edit of the first question, a branch off the start of the session
+        store.append(session, List.of(message("user", "hello again", 0L)));
+
+        reopen();
+
+        ChatSession recovered = store.findSession("user-1", session.getSessionId()).orElseThrow();
+        assertEquals("Greetings", recovered.getTitle());
+        assertEquals("Test User", recovered.getUserName());
+        List<ChatMessageDto> messages = store.messages(session.getSessionId());
+        assertEquals(List.of("hello", "hi there", "hello again"), contents(messages));
+        assertEquals(List.of(0L, 1L, 0L), messages.stream().map(ChatMessageDto::getParentSeq).toList());
+        assertEquals(3L, store.lastSeq("user-1", session.getSessionId()).orElseThrow());
+
+        // Ids keep counting from the recovered ones
+        ChatSession next = store.createSession("user-1", "Test User");
+        assertTrue(next.getSessionId() > session.getSessionId());
+        store.append(recovered, List.of(message("user", "fourth", null)));
+        assertEquals(4L, store.lastSeq("user-1", session.getSessionId()).orElseThrow());
+    }
+
+    @Test
+    void tornTailIsDiscarded() throws IOException {
+        ChatSession session = store.createSession("user-1", "Test User");
+        store.append(session, List.of(message("user", "first", null)));
+        store.append(session, List.of(message("assistant", "second", null)));
+        store.close();
+
+        // Corrupts the last byte written, the end of the last record, as a crash mid-write would
+        Path segment = lastSegment();
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long end = file.length() - 1;
+            file.seek(end);
+            while (end > 0 && file.read() == 0) file.seek(--end);
+            file.seek(end);
+            file.write('x');
+        }
+        store = new LogChatHistoryStore(properties);
+
+        assertEquals(List.of("first"), contents(store.messages(session.getSessionId())));
+        // The torn record is overwritten by the next one
+        store.append(session, List.of(message("assistant", "second again", null)));
+        reopen();
+        assertEquals(List.of("first", "second again"), contents(store.messages(session.getSessionId())));
+    }
+
+    @Test
+    void compactionMovesLiveRecordsAndDropsTheSegment() throws IOException {
+        ChatSession deleted = store.createSession("user-1", "Test User");
+        store.append(deleted, List.of(message("user", "gone", null), message("assistant", "also gone", null)));
+        ChatSession kept = store.createSession("user-1", "Test User");
+        store.append(kept, List.of(message("user", "kept question", null), message("assistant", "kept answer", null)));
+        assertTrue(store.deleteSession("user-1", deleted.getSessionId()));
+        // Each title leaves the previous session record dead, until the first segment is sealed
+        for (int i = 0; Files.exists(segmentFile(1)) && !Files.exists(segmentFile(2)); i++) {
+            kept.setTitle("Title " + i);
+            store.saveTitle(kept);
+        }
+
+        store.compact();
+
+        assertFalse(Files.exists(segmentFile(1)));
+        assertEquals(List.of("kept question", "kept answer"), contents(store.messages(kept.getSessionId())));
+
+        reopen();
+        assertEquals(List.of(kept.getSessionId()), store.listSessions("user-1").stream().map(ChatSession::getSessionId).toList());
+        assertEquals(kept.getTitle(), store.findSession("user-1", kept.getSessionId()).orElseThrow().getTitle());
+        assertEquals(List.of("kept question", "kept answer"), contents(store.messages(kept.getSessionId())));
+        assertEquals(List.of(), store.messages(deleted.getSessionId()));
+    }
+
+    @Test
+    void idsOfDeletedSessionsAreNotReusedOnceTheirTombstonesAreCompacted() throws IOException {
+        ChatSession kept = store.createSession("user-1", "Test User");
+        ChatSession deleted = store.createSession("user-1", "Test User");
+        store.append(deleted, List.of(message("user", "gone", null)));
+        assertTrue(store.deleteSession("user-1", deleted.getSessionId()));
+        for (int i = 0; Files.exists(segmentFile(1)) && !Files.exists(segmentFile(2)); i++) {
+            kept.setTitle("Title " + i);
+            store.saveTitle(kept);
+        }
+
+        store.compact();
+        assertFalse(Files.exists(segmentFile(1)));
+
+        reopen();
+        assertTrue(store.createSession("user-1", "Test User").getSessionId() > deleted.getSessionId());
+    }
+
+    private void reopen() throws IOException {
+        store.close();
+        store = new LogChatHistoryStore(properties);
+    }
+
+    private Path segmentFile(int id) {
+        return directory.resolve(String.format("segment-%08d.log", id));
+    }
+
+    private Path lastSegment() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.sorted().reduce((first, second) -> second).orElseThrow();
+        }
+    }
+
+    private static ChatMessage message(String role, String content, Long parentSeq) {
+        return ChatMessage.builder().role(role).content(content).parentSeq(parentSeq).build();
+    }
+
+    private static List<String> contents(List<ChatMessageDto> messages) {
+        return messages.stream().map(ChatMessageDto::getContent).toList();
+    }
+}
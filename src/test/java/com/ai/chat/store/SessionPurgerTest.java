@@ -0,0 +1,85 @@
+package com.ai.chat.store;
+
+import com.ai.chat.config.ChatProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The batch and chunk bookkeeping of {@link SessionPurger#purge} against a mocked JdbcTemplate.
+ */
+class SessionPurgerTest {
+
+    JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    ChatProperties properties = new ChatProperties();
+    SessionPurger sessionPurger;
+
+    List<Object[]> selects = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        properties.getPurge().setBatchSize(2);
+        properties.getPurge().setChunkSize(100);
+        properties.getPurge().setMaxChunksPerBatch(3);
+        properties.getPurge().setPause(Duration.ZERO);
+        sessionPurger = new SessionPurger(jdbcTemplate, properties);
+    }
+
+    @Test
+    void batchStartsAfterTheCursorAndReturnsItsLastSession() throws InterruptedException {
+        SessionPurger.Cursor first = cursor(1_000, 7);
+        SessionPurger.Cursor last = cursor(2_000, 3);
+        selectReturns(List.of(first, last));
+        // Messages in one short chunk, then the session rows
+        when(jdbcTemplate.update(any(PreparedStatementCreator.class))).thenReturn(40, 2);
+
+        SessionPurger.Result result = sessionPurger.purge(first);
+
+        assertArrayEquals(new Object[]{first.deletedDate(), first.sessionId(), 2}, selects.getFirst());
+        assertEquals(new SessionPurger.Result(2, 40, true, last), result);
+    }
+
+    @Test
+    void chunksStopAtTheLimitAndLeaveTheSessionsForLater() throws InterruptedException {
+        selectReturns(List.of(cursor(1_000, 7)));
+        when(jdbcTemplate.update(any(PreparedStatementCreator.class))).thenReturn(100, 100, 100, 0);
+
+        SessionPurger.Result result = sessionPurger.purge(SessionPurger.Cursor.START);
+
+        // Three chunks of messages and the session delete, which finds messages left and removes nothing
+        verify(jdbcTemplate, times(4)).update(any(PreparedStatementCreator.class));
+        assertEquals(new SessionPurger.Result(0, 300, false, cursor(1_000, 7)), result);
+    }
+
+    @Test
+    void nothingDeletedLeavesTheCursor() throws InterruptedException {
+        selectReturns(List.of());
+        SessionPurger.Cursor after = cursor(1_000, 7);
+
+        assertEquals(new SessionPurger.Result(0, 0, false, after), sessionPurger.purge(after));
+        verify(jdbcTemplate, never()).update(any(PreparedStatementCreator.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void selectReturns(List<SessionPurger.Cursor> sessions) {
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class))).thenAnswer(invocation -> {
+            selects.add((Object[]) invocation.getRawArguments()[2]);
+            return sessions;
+        });
+    }
+
+    private static SessionPurger.Cursor cursor(long deletedMillis, long sessionId) {
+        return new SessionPurger.Cursor(new Timestamp(deletedMillis), sessionId);
+    }
+}
@@ -0,0 +1,134 @@
+package com.ai.chat.usage;
+
+import com.ai.chat.config.ChatProperties;
+import com.ai.chat.dto.UserContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Token accounting against a mocked JdbcTemplate, or none for a node without a database.
+ */
+class TokenAccountingTest {
+
+    JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    @SuppressWarnings("unchecked")
+    ObjectProvider<JdbcTemplate> jdbcProvider = mock(ObjectProvider.class);
+    ChatProperties properties = new ChatProperties();
+
+    @BeforeEach
+    void setUp() {
+        when(jdbcProvider.getIfAvailable()).thenReturn(jdbcTemplate);
+    }
+
+    @Test
+    void quotaRejectsOnceUsedUp() {
+        when(jdbcProvider.getIfAvailable()).thenReturn(null);
+        properties.getUsage().setDailyTokens(100);
+        TokenAccounting accounting = new TokenAccounting(jdbcProvider, properties);
+
+        accounting.admit("user-1");
+        call(accounting, "user-1", 60, 40);
+
+        ResponseStatusException rejected = assertThrows(ResponseStatusException.class, () -> accounting.admit("user-1"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatusCode());
+        // Other users have their own quota, and the in-memory totals survive a flush
+        accounting.admit("user-2");
+        accounting.flush();
+        assertThrows(ResponseStatusException.class, () -> accounting.admit("user-1"));
+    }
+
+    @Test
+    void monthlyQuotaCountsPersistedUsage() {
+        properties.getUsage().setMonthlyTokens(1_000);
+        monthTotals("user-1", 10, 1_000);
+        TokenAccounting accounting = new TokenAccounting(jdbcProvider, properties);
+
+        accounting.flush();
+
+        assertThrows(ResponseStatusException.class, () -> accounting.admit("user-1"));
+        accounting.admit("user-2");
+    }
+
+    @Test
+    void flushUpsertsTheIncrementsOnce() {
+        TokenAccounting accounting = new TokenAccounting(jdbcProvider, properties);
+        call(accounting, "user-1", 30, 12);
+        call(accounting, "user-1", 5, 3);
+
+        accounting.flush();
+        accounting.flush();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(contains("t_token_usage"), rows.capture());
+        assertEquals(1, rows.getValue().size());
+        assertArrayEquals(new Object[]{"user-1", Date.valueOf(today()), "test", 35L, 15L, 2L, 0L}, rows.getValue().getFirst());
+    }
+
+    @Test
+    void failedFlushKeepsTheIncrements() {
+        TokenAccounting accounting = new TokenAccounting(jdbcProvider, properties);
+        call(accounting, "user-1", 30, 12);
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenThrow(new IllegalStateException("connection lost"));
+
+        accounting.flush();
+
+        assertEquals(42L, accounting.usage("user-1").get("todayTokens"));
+        reset(jdbcTemplate);
+        accounting.flush();
+        verify(jdbcTemplate).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    void usageReadsPersistedTotalsWithoutQuotas() {
+        monthTotals("user-1", 20, 300);
+        TokenAccounting accounting = new TokenAccounting(jdbcProvider, properties);
+
+        accounting.flush();
+        call(accounting, "user-1", 4, 1);
+
+        Map<String, Object> usage = accounting.usage("user-1");
+        assertEquals(25L, usage.get("todayTokens"));
+        assertEquals(305L, usage.get("monthTokens"));
+        assertEquals(0L, usage.get("dailyQuota"));
+    }
+
+    private void call(TokenAccounting accounting, String userId, long promptTokens, long completionTokens) {
+        accounting.track("test", List.of(), usage -> Flux.just("answer").doOnComplete(() -> usage.report(promptTokens, completionTokens)))
+                .contextWrite(ctx -> ctx.put("USER_DATA", new UserContext(userId, "Test User", "test@example.com")))
+                .blockLast();
+    }
+
+    private void monthTotals(String userId, long today, long month) {
+        doAnswer(invocation -> {
+            ResultSet rs = mock(ResultSet.class);
+            when(rs.getString(1)).thenReturn(userId);
+            when(rs.getLong(2)).thenReturn(today);
+            when(rs.getLong(3)).thenReturn(month);
+            invocation.<RowCallbackHandler>getArgument(1).processRow(rs);
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), any(Object[].class));
+    }
+
+    private static LocalDate today() {
+        return LocalDate.now(ZoneOffset.UTC);
+    }
+}